@@ -0,0 +1,88 @@
+package com.example.usagemanagement;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The file handling shared by the day cache and the journal rollups: a big-endian body
+ * followed by a CRC32 of it, written to a temp name and renamed over the target so a reader
+ * sees the old file or the new one, never half of one. Reading gives null for anything that
+ * doesn't check out (missing, truncated, bad crc, or rejected by the body reader), which
+ * both stores treat as "not there, compute it again".
+ */
+final class AggregateFile {
+
+    private AggregateFile() {
+    }
+
+    interface BodyWriter {
+        void write(DataOutputStream body) throws IOException;
+    }
+
+    interface BodyReader<T> {
+        // null rejects the file, e.g. a wrong magic or a start that doesn't match
+        T read(DataInputStream body) throws IOException;
+    }
+
+    /** What {@code reader} made of the file's body, or null if the file is missing or bad. */
+    static <T> T read(File file, BodyReader<T> reader) {
+        if (!file.exists()) return null;
+
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            T result = reader.read(new DataInputStream(new CheckedInputStream(in, crc)));
+            if (result == null) return null;
+
+            long expected = crc.getValue();
+            return in.readLong() == expected ? result : null;
+        } catch (IOException | RuntimeException e) {
+            // truncated or corrupt
+            return null;
+        }
+    }
+
+    // writes body plus its crc to a temp file, then renames it over {@code file}
+    static void writeAtomically(File file, BodyWriter writer) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("could not create " + dir);
+        }
+        File tmp = new File(dir, file.getName() + ".tmp");
+
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            DataOutputStream body = new DataOutputStream(new CheckedOutputStream(out, crc));
+            writer.write(body);
+            body.flush();
+            out.writeLong(crc.getValue());
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("could not rename " + tmp);
+        }
+    }
+
+    // local date and zone for a file name, e.g. 20240131_Europe_Berlin; sorts by date
+    static String dateKey(long start, TimeZone zone) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd", Locale.US);
+        format.setTimeZone(zone);
+        return format.format(new Date(start)) + "_" + zoneKey(zone);
+    }
+
+    static String zoneKey(TimeZone zone) {
+        return zone.getID().replace('/', '_');
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.usagemanagement;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * App names for reports: the label the launcher shows, looked up through PackageManager once
+ * per package and then served from memory. The manifest only asks to see launcher apps, which
+ * covers everything a person opens; anything else (services, system packages) isn't visible to
+ * us and is shown by its shortened package name.
+ *
+ * The most recently used {@code MAX_LABELS} labels are kept, and saved to a small file after
+ * each report so the next process starts warm. Apps that aren't installed (anymore) get the
+ * shortened package name; those aren't saved, so a later install picks up its real label.
+ */
+class AppLabelResolver implements StreamingReportWriter.Labels {
+
+    private static final String TAG = "AppLabelResolver";
+    private static final String FILE_NAME = "app_labels";
+    private static final int FILE_VERSION = 1;
+    private static final int MAX_LABELS = 256;
+
+    private static AppLabelResolver instance;
+
+    private final PackageManager packageManager;
+    private final File file;
+    private boolean dirty = false;
+
+    // access order, so the eldest entry is the least recently used one
+    private final Map<String, String> labels = new LinkedHashMap<String, String>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_LABELS;
+        }
+    };
+
+    private AppLabelResolver(Context context) {
+        this.packageManager = context.getPackageManager();
+        this.file = new File(context.getFilesDir(), FILE_NAME);
+        load();
+    }
+
+    public static synchronized AppLabelResolver getInstance(Context context) {
+        if (instance == null) {
+            instance = new AppLabelResolver(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    @Override
+    public synchronized String labelFor(String packageName) {
+        String label = labels.get(packageName);
+        if (label == null) {
+            label = lookUp(packageName);
+            labels.put(packageName, label);
+            dirty = true;
+        }
+        return label;
+    }
+
+    private String lookUp(String packageName) {
+        try {
+            ApplicationInfo info = packageManager.getApplicationInfo(packageName, 0);
+            CharSequence label = packageManager.getApplicationLabel(info);
+            if (label != null && label.length() > 0) {
+                return label.toString();
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            // uninstalled, or not visible to us
+        }
+        return StreamingReportWriter.shortenPackageName(packageName);
+    }
+
+    /** Writes the cache out if a lookup changed it; call once a report is done. */
+    synchronized void save() {
+        if (!dirty) return;
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(FILE_VERSION);
+            int count = 0;
+            for (Map.Entry<String, String> entry : labels.entrySet()) {
+                if (!isFallback(entry)) count++;
+            }
+            out.writeInt(count);
+            // least recently used first, so loading in order rebuilds the same lru order
+            for (Map.Entry<String, String> entry : labels.entrySet()) {
+                if (isFallback(entry)) continue;
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "could not save app labels", e);
+            tmp.delete();
+            return;
+        }
+        if (tmp.renameTo(file)) {
+            dirty = false;
+        } else {
+            tmp.delete();
+        }
+    }
+
+    private static boolean isFallback(Map.Entry<String, String> entry) {
+        return entry.getValue().equals(StreamingReportWriter.shortenPackageName(entry.getKey()));
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_VERSION) return;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String packageName = in.readUTF();
+                labels.put(packageName, in.readUTF());
+            }
+        } catch (IOException e) {
+            // a cold cache only costs a few lookups
+            Log.w(TAG, "could not load app labels", e);
+            labels.clear();
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.example.usagemanagement;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.EnumSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Participant and puzzle state, held in memory as the one source of truth for every
+ * component. Reads are field reads, so the intervention logic can check them on every tick.
+ *
+ * Writes change memory right away and mark the field dirty; a background thread writes all
+ * dirty fields together at most {@link #FLUSH_DELAY_MS} later (one commit per preferences
+ * file), so a burst of puzzle updates costs one disk write. The keys and files are the
+ * ones the app always used ("UserPrefs", "PuzzlePrefs"), so existing installs keep their
+ * state. Subscribers hear about every change on their own handler, so e.g. the main screen
+ * learns that the puzzle was abandoned without polling for it.
+ */
+public class AppStateStore {
+
+    private static final String USER_PREFS = "UserPrefs";
+    private static final String PUZZLE_PREFS = "PuzzlePrefs";
+    // the longest a change stays in memory only
+    static final long FLUSH_DELAY_MS = 500;
+
+    static final int NO_INTERVAL = -1;
+
+    public enum Key {
+        PARTICIPANT_ID,
+        PUZZLE_SOLVED,
+        PUZZLE_ACTIVE,
+        PUZZLE_ABANDONED,
+        PUZZLE_IN_PROGRESS_INTERVAL,
+        PUZZLE_PATTERN
+    }
+
+    private static AppStateStore instance;
+
+    private final SharedPreferences userPrefs;
+    private final SharedPreferences puzzlePrefs;
+    private final WriteScheduler writeScheduler;
+    private final Runnable flushTask = this::flushNow;
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    // guarded by this
+    private String participantId;
+    private boolean puzzleSolved;
+    private boolean puzzleActive;
+    private boolean puzzleAbandoned;
+    private int puzzleInProgressInterval;
+    private String puzzlePattern;
+    private final EnumSet<Key> dirty = EnumSet.noneOf(Key.class);
+    private boolean flushScheduled = false;
+
+    private AppStateStore(Context context) {
+        this(context.getSharedPreferences(USER_PREFS, Context.MODE_PRIVATE),
+                context.getSharedPreferences(PUZZLE_PREFS, Context.MODE_PRIVATE),
+                newWriteThread());
+    }
+
+    // tests pass in-memory preferences and run the writes themselves
+    AppStateStore(SharedPreferences userPrefs, SharedPreferences puzzlePrefs, WriteScheduler writeScheduler) {
+        this.userPrefs = userPrefs;
+        this.puzzlePrefs = puzzlePrefs;
+        this.writeScheduler = writeScheduler;
+
+        participantId = userPrefs.getString("ParticipantID", null);
+        puzzleSolved = puzzlePrefs.getBoolean("solvedPuzzle", false);
+        puzzleActive = puzzlePrefs.getBoolean("puzzleActive", false);
+        puzzleAbandoned = puzzlePrefs.getBoolean("puzzleAbandoned", false);
+        puzzleInProgressInterval = puzzlePrefs.getInt("puzzleInProgressInterval", NO_INTERVAL);
+        puzzlePattern = puzzlePrefs.getString("currentPuzzlePattern", "");
+    }
+
+    private static WriteScheduler newWriteThread() {
+        HandlerThread writeThread = new HandlerThread("AppStateStore");
+        writeThread.start();
+        Handler writeHandler = new Handler(writeThread.getLooper());
+        return new WriteScheduler() {
+            @Override
+            public void runLater(Runnable task, long delayMs) {
+                writeHandler.postDelayed(task, delayMs);
+            }
+
+            @Override
+            public void cancel(Runnable task) {
+                writeHandler.removeCallbacks(task);
+            }
+        };
+    }
+
+    public static synchronized AppStateStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new AppStateStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // null until a condition has been assigned
+    public synchronized String getParticipantId() {
+        return participantId;
+    }
+
+    // first letter of the participant id (A-D), or 0 before one is assigned
+    public synchronized char getCondition() {
+        return participantId != null && !participantId.isEmpty() ? participantId.charAt(0) : 0;
+    }
+
+    public synchronized boolean isPuzzleSolved() {
+        return puzzleSolved;
+    }
+
+    public synchronized boolean isPuzzleActive() {
+        return puzzleActive;
+    }
+
+    public synchronized boolean isPuzzleAbandoned() {
+        return puzzleAbandoned;
+    }
+
+    // the usage interval the open puzzle was issued for, or NO_INTERVAL
+    public synchronized int getPuzzleInProgressInterval() {
+        return puzzleInProgressInterval;
+    }
+
+    // comma separated tile indexes of the puzzle being solved, empty if none
+    public synchronized String getPuzzlePattern() {
+        return puzzlePattern;
+    }
+
+    public void setParticipantId(String participantId) {
+        synchronized (this) {
+            if (participantId.equals(this.participantId)) return;
+            this.participantId = participantId;
+        }
+        changed(Key.PARTICIPANT_ID);
+    }
+
+    public void setPuzzleSolved(boolean solved) {
+        synchronized (this) {
+            if (puzzleSolved == solved) return;
+            puzzleSolved = solved;
+        }
+        changed(Key.PUZZLE_SOLVED);
+    }
+
+    public void setPuzzleActive(boolean active) {
+        synchronized (this) {
+            if (puzzleActive == active) return;
+            puzzleActive = active;
+        }
+        changed(Key.PUZZLE_ACTIVE);
+    }
+
+    public void setPuzzleAbandoned(boolean abandoned) {
+        synchronized (this) {
+            if (puzzleAbandoned == abandoned) return;
+            puzzleAbandoned = abandoned;
+        }
+        changed(Key.PUZZLE_ABANDONED);
+    }
+
+    public void setPuzzleInProgressInterval(int interval) {
+        synchronized (this) {
+            if (puzzleInProgressInterval == interval) return;
+            puzzleInProgressInterval = interval;
+        }
+        changed(Key.PUZZLE_IN_PROGRESS_INTERVAL);
+    }
+
+    public void setPuzzlePattern(String pattern) {
+        synchronized (this) {
+            if (pattern.equals(puzzlePattern)) return;
+            puzzlePattern = pattern;
+        }
+        changed(Key.PUZZLE_PATTERN);
+    }
+
+    /** Calls the listener on the handler's thread after every change. */
+    public Subscription subscribe(Handler handler, Listener listener) {
+        return subscribe(handler::post, listener);
+    }
+
+    // same, with the calls run by executor
+    Subscription subscribe(Executor executor, Listener listener) {
+        Subscription subscription = new Subscription(executor, listener);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        if (subscription != null) {
+            subscriptions.remove(subscription);
+        }
+    }
+
+    // writes pending changes without waiting out the delay, e.g. when a screen stops
+    public void flush() {
+        synchronized (this) {
+            if (dirty.isEmpty()) return;
+            flushScheduled = true;
+        }
+        writeScheduler.cancel(flushTask);
+        writeScheduler.runLater(flushTask, 0);
+    }
+
+    private void changed(Key key) {
+        boolean schedule;
+        synchronized (this) {
+            dirty.add(key);
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (schedule) {
+            writeScheduler.runLater(flushTask, FLUSH_DELAY_MS);
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.executor.execute(() -> {
+                if (subscriptions.contains(subscription)) {
+                    subscription.listener.onStateChanged(key);
+                }
+            });
+        }
+    }
+
+    // on the write thread: one commit per preferences file for everything dirty so far
+    private void flushNow() {
+        SharedPreferences.Editor user = null;
+        SharedPreferences.Editor puzzle = null;
+        EnumSet<Key> written;
+        synchronized (this) {
+            flushScheduled = false;
+            written = EnumSet.copyOf(dirty);
+            for (Key key : dirty) {
+                if (key == Key.PARTICIPANT_ID) {
+                    user = userPrefs.edit().putString("ParticipantID", participantId);
+                    continue;
+                }
+                if (puzzle == null) {
+                    puzzle = puzzlePrefs.edit();
+                }
+                switch (key) {
+                    case PUZZLE_SOLVED:
+                        puzzle.putBoolean("solvedPuzzle", puzzleSolved);
+                        break;
+                    case PUZZLE_ACTIVE:
+                        puzzle.putBoolean("puzzleActive", puzzleActive);
+                        break;
+                    case PUZZLE_ABANDONED:
+                        puzzle.putBoolean("puzzleAbandoned", puzzleAbandoned);
+                        break;
+                    case PUZZLE_IN_PROGRESS_INTERVAL:
+                        if (puzzleInProgressInterval == NO_INTERVAL) {
+                            puzzle.remove("puzzleInProgressInterval");
+                        } else {
+                            puzzle.putInt("puzzleInProgressInterval", puzzleInProgressInterval);
+                        }
+                        break;
+                    case PUZZLE_PATTERN:
+                        if (puzzlePattern.isEmpty()) {
+                            puzzle.remove("currentPuzzlePattern");
+                        } else {
+                            puzzle.putString("currentPuzzlePattern", puzzlePattern);
+                        }
+                        break;
+                }
+            }
+            dirty.clear();
+        }
+
+        // committed outside the lock so readers never wait on the disk; each file on its own,
+        // so one failing doesn't keep the other from being written
+        boolean userWritten = user == null || user.commit();
+        boolean puzzleWritten = puzzle == null || puzzle.commit();
+        if (userWritten && puzzleWritten) return;
+
+        // a failed file's keys go back to dirty and are written again after the usual delay
+        boolean schedule;
+        synchronized (this) {
+            for (Key key : written) {
+                if (key == Key.PARTICIPANT_ID ? !userWritten : !puzzleWritten) {
+                    dirty.add(key);
+                }
+            }
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (schedule) {
+            writeScheduler.runLater(flushTask, FLUSH_DELAY_MS);
+        }
+    }
+
+    public static final class Subscription {
+        private final Executor executor;
+        private final Listener listener;
+
+        private Subscription(Executor executor, Listener listener) {
+            this.executor = executor;
+            this.listener = listener;
+        }
+    }
+
+    // runs the flush off the caller's thread; a background HandlerThread in the app
+    interface WriteScheduler {
+        void runLater(Runnable task, long delayMs);
+
+        void cancel(Runnable task);
+    }
+
+    public interface Listener {
+        void onStateChanged(Key key);
+    }
+}
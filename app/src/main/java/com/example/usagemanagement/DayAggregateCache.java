@@ -0,0 +1,292 @@
+package com.example.usagemanagement;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * On-disk cache of finished days: per-app totals plus the day's session list, so a report
+ * only has to query UsageStats for days it hasn't seen before (and never for cached ones).
+ *
+ * One file per day, named by local date and time zone id ({@code 20240131_Europe_Berlin.day}),
+ * so a zone change can never serve boundaries from another zone. Files are written and
+ * checked through {@link AggregateFile}; anything that fails to read is treated as
+ * missing. At most {@code maxDays} files are kept, oldest dates evicted first.
+ *
+ * Today can't be cached as a finished day, so it gets a {@link Checkpoint} instead: the
+ * sessions so far, the sessions still open, and the time events were processed up to. A
+ * later report picks up from there. There is one checkpoint file per zone
+ * ({@code today_Europe_Berlin.part}), replaced each time.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   int magic, int version, long dayStart, long dayEnd,
+ *   int packageCount, packageCount x (utf name, long total),
+ *   int sessionCount, sessionCount x (int package, long start, long end),
+ *   long crc32 of everything above
+ * </pre>
+ * A checkpoint has its own magic, then {@code long watermark} after {@code dayEnd}, and
+ * {@code int openCount, openCount x (utf name, long start)} after the sessions.
+ */
+class DayAggregateCache {
+
+    private static final int MAGIC = 0x49474441; // "IGDA"
+    private static final int CHECKPOINT_MAGIC = 0x49474350; // "IGCP"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".day";
+    private static final String CHECKPOINT_SUFFIX = ".part";
+    private static final String DIR_NAME = "day_cache";
+    // enough for the longest report range plus some slack
+    private static final int MAX_DAYS = 400;
+
+    private final File dir;
+    private final int maxDays;
+
+    DayAggregateCache(File dir, int maxDays) {
+        this.dir = dir;
+        this.maxDays = maxDays;
+    }
+
+    // the app's shared cache under its files directory
+    static DayAggregateCache inFilesDir(File filesDir) {
+        return new DayAggregateCache(new File(filesDir, DIR_NAME), MAX_DAYS);
+    }
+
+    boolean contains(long dayStart, TimeZone zone) {
+        return fileFor(dayStart, zone).exists();
+    }
+
+    /** The cached day starting at {@code dayStart} in {@code zone}, or null if it isn't cached. */
+    DayAggregate get(long dayStart, TimeZone zone) {
+        return AggregateFile.read(fileFor(dayStart, zone), body -> {
+            if (body.readInt() != MAGIC || body.readInt() != VERSION) return null;
+
+            long start = body.readLong();
+            long end = body.readLong();
+            if (start != dayStart) return null;
+            return readSessions(body, start, end);
+        });
+    }
+
+    void put(DayAggregate day, TimeZone zone) throws IOException {
+        AggregateFile.writeAtomically(fileFor(day.dayStart, zone), body -> {
+            body.writeInt(MAGIC);
+            body.writeInt(VERSION);
+            body.writeLong(day.dayStart);
+            body.writeLong(day.dayEnd);
+            writeSessions(body, day);
+        });
+        evictOldest();
+    }
+
+    /** Today's checkpoint if it was made for the day starting at {@code dayStart}, else null. */
+    Checkpoint getCheckpoint(long dayStart, TimeZone zone) {
+        // unreadable: start today over from midnight
+        return AggregateFile.read(checkpointFile(zone), body -> {
+            if (body.readInt() != CHECKPOINT_MAGIC || body.readInt() != VERSION) return null;
+
+            long start = body.readLong();
+            long end = body.readLong();
+            // yesterday's checkpoint is useless once the day is over; it gets overwritten
+            if (start != dayStart) return null;
+            long watermark = body.readLong();
+            DayAggregate day = readSessions(body, start, end);
+
+            int openCount = body.readInt();
+            String[] openPackages = new String[openCount];
+            long[] openStarts = new long[openCount];
+            for (int i = 0; i < openCount; i++) {
+                openPackages[i] = body.readUTF();
+                openStarts[i] = body.readLong();
+            }
+            return new Checkpoint(day, watermark, openPackages, openStarts);
+        });
+    }
+
+    void putCheckpoint(Checkpoint checkpoint, TimeZone zone) throws IOException {
+        DayAggregate day = checkpoint.day;
+        AggregateFile.writeAtomically(checkpointFile(zone), body -> {
+            body.writeInt(CHECKPOINT_MAGIC);
+            body.writeInt(VERSION);
+            body.writeLong(day.dayStart);
+            body.writeLong(day.dayEnd);
+            body.writeLong(checkpoint.watermark);
+            writeSessions(body, day);
+            body.writeInt(checkpoint.openPackages.length);
+            for (int i = 0; i < checkpoint.openPackages.length; i++) {
+                body.writeUTF(checkpoint.openPackages[i]);
+                body.writeLong(checkpoint.openStarts[i]);
+            }
+        });
+    }
+
+    private static DayAggregate readSessions(DataInputStream body, long start, long end) throws IOException {
+        int packageCount = body.readInt();
+        String[] packages = new String[packageCount];
+        long[] totals = new long[packageCount];
+        for (int i = 0; i < packageCount; i++) {
+            packages[i] = body.readUTF();
+            totals[i] = body.readLong();
+        }
+
+        int sessionCount = body.readInt();
+        int[] sessionPackage = new int[sessionCount];
+        long[] sessionStart = new long[sessionCount];
+        long[] sessionEnd = new long[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            sessionPackage[i] = body.readInt();
+            sessionStart[i] = body.readLong();
+            sessionEnd[i] = body.readLong();
+        }
+        return new DayAggregate(start, end, packages, totals, sessionPackage, sessionStart, sessionEnd);
+    }
+
+    private static void writeSessions(DataOutputStream body, DayAggregate day) throws IOException {
+        body.writeInt(day.packages.length);
+        for (int i = 0; i < day.packages.length; i++) {
+            body.writeUTF(day.packages[i]);
+            body.writeLong(day.totals[i]);
+        }
+        body.writeInt(day.getSessionCount());
+        for (int i = 0; i < day.getSessionCount(); i++) {
+            body.writeInt(day.sessionPackage[i]);
+            body.writeLong(day.sessionStart[i]);
+            body.writeLong(day.sessionEnd[i]);
+        }
+    }
+
+    // drops every day cached under another zone; their boundaries no longer apply
+    void invalidateOtherZones(TimeZone zone) {
+        String suffix = "_" + AggregateFile.zoneKey(zone) + SUFFIX;
+        String checkpointName = checkpointFile(zone).getName();
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (!file.getName().endsWith(suffix) && !file.getName().equals(checkpointName)) {
+                file.delete();
+            }
+        }
+    }
+
+    void clear() {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private void evictOldest() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null || files.length <= maxDays) return;
+        // names start with yyyyMMdd, so name order is date order
+        Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+        for (int i = 0; i < files.length - maxDays; i++) {
+            files[i].delete();
+        }
+    }
+
+    private File fileFor(long dayStart, TimeZone zone) {
+        return new File(dir, AggregateFile.dateKey(dayStart, zone) + SUFFIX);
+    }
+
+    private File checkpointFile(TimeZone zone) {
+        return new File(dir, "today_" + AggregateFile.zoneKey(zone) + CHECKPOINT_SUFFIX);
+    }
+
+    /** One finished local day: per-app totals and its sessions in the order they ended. */
+    static final class DayAggregate {
+        final long dayStart;
+        final long dayEnd;
+        final String[] packages;
+        final long[] totals;
+        private final int[] sessionPackage;
+        private final long[] sessionStart;
+        private final long[] sessionEnd;
+
+        DayAggregate(long dayStart, long dayEnd, String[] packages, long[] totals,
+                     int[] sessionPackage, long[] sessionStart, long[] sessionEnd) {
+            this.dayStart = dayStart;
+            this.dayEnd = dayEnd;
+            this.packages = packages;
+            this.totals = totals;
+            this.sessionPackage = sessionPackage;
+            this.sessionStart = sessionStart;
+            this.sessionEnd = sessionEnd;
+        }
+
+        int getSessionCount() {
+            return sessionStart.length;
+        }
+
+        // feeds the day to a sink exactly as the sessionizer emitted it
+        void replay(int day, UsageSessionizer.SessionSink sink) {
+            sink.onDayStart(day);
+            replaySessions(day, sink);
+            sink.onDayEnd(day);
+        }
+
+        // just the sessions, for a day that continues past them
+        void replaySessions(int day, UsageSessionizer.SessionSink sink) {
+            for (int i = 0; i < sessionStart.length; i++) {
+                sink.onSession(day, packages[sessionPackage[i]], sessionStart[i], sessionEnd[i]);
+            }
+        }
+    }
+
+    /** Where event processing for a day in progress stopped. */
+    static final class Checkpoint {
+        final DayAggregate day;
+        // events before this have been turned into the sessions and open sessions here
+        final long watermark;
+        final String[] openPackages;
+        final long[] openStarts;
+
+        Checkpoint(DayAggregate day, long watermark, String[] openPackages, long[] openStarts) {
+            this.day = day;
+            this.watermark = watermark;
+            this.openPackages = openPackages;
+            this.openStarts = openStarts;
+        }
+    }
+
+    /** Collects one day's sessions as they stream past. */
+    static final class Builder {
+        private final PackageTotals packages = new PackageTotals();
+        private int[] sessionPackage = new int[64];
+        private long[] sessionStart = new long[64];
+        private long[] sessionEnd = new long[64];
+        private int sessionCount = 0;
+
+        void add(String packageName, long start, long end) {
+            int id = packages.add(packageName, end - start);
+
+            if (sessionCount == sessionStart.length) {
+                sessionPackage = Arrays.copyOf(sessionPackage, sessionCount * 2);
+                sessionStart = Arrays.copyOf(sessionStart, sessionCount * 2);
+                sessionEnd = Arrays.copyOf(sessionEnd, sessionCount * 2);
+            }
+            sessionPackage[sessionCount] = id;
+            sessionStart[sessionCount] = start;
+            sessionEnd[sessionCount] = end;
+            sessionCount++;
+        }
+
+        DayAggregate build(long dayStart, long dayEnd) {
+            return new DayAggregate(dayStart, dayEnd,
+                    packages.packages(),
+                    packages.totals(),
+                    Arrays.copyOf(sessionPackage, sessionCount),
+                    Arrays.copyOf(sessionStart, sessionCount),
+                    Arrays.copyOf(sessionEnd, sessionCount));
+        }
+
+        void reset() {
+            packages.clear();
+            sessionCount = 0;
+        }
+    }
+}
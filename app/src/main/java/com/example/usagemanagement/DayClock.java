@@ -0,0 +1,166 @@
+package com.example.usagemanagement;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Local-day boundaries as epoch milliseconds, shared by the tracker and the report.
+ *
+ * The start of today and the next midnight are cached as longs, so checking whether a
+ * timestamp is still in the current day is two comparisons with no allocation. The cache
+ * is recomputed when a timestamp falls outside it (midnight passed, clock changed) or when
+ * the time zone changes. Boundaries come from Calendar, so DST days of 23 or 25 hours and
+ * year boundaries are handled correctly.
+ */
+public class DayClock {
+
+    private static final DayClock INSTANCE = new DayClock();
+
+    // start and end are swapped atomically so readers never see half of an update
+    private volatile Day today = new Day(Long.MAX_VALUE, Long.MIN_VALUE);
+    private volatile TimeZone zone;
+
+    private DayClock() {
+        this(TimeZone.getDefault());
+    }
+
+    // a clock of its own in a fixed zone, for tests
+    DayClock(TimeZone zone) {
+        this.zone = zone;
+    }
+
+    public static DayClock getInstance() {
+        return INSTANCE;
+    }
+
+    // call when the device time zone changes; the next lookup recomputes the boundaries
+    public synchronized void onTimeZoneChanged() {
+        zone = TimeZone.getDefault();
+        today = new Day(Long.MAX_VALUE, Long.MIN_VALUE);
+    }
+
+    public TimeZone getTimeZone() {
+        return zone;
+    }
+
+    /** Start of the local day containing {@code now}; allocation-free while the day lasts. */
+    public long getDayStart(long now) {
+        Day day = today;
+        if (now >= day.start && now < day.end) {
+            return day.start;
+        }
+        return recompute(now).start;
+    }
+
+    /** The first midnight after {@code now}. */
+    public long getNextMidnight(long now) {
+        Day day = today;
+        if (now >= day.start && now < day.end) {
+            return day.end;
+        }
+        return recompute(now).end;
+    }
+
+    private synchronized Day recompute(long now) {
+        long start = startOfDay(now);
+        Day day = new Day(start, addDays(start, 1));
+        today = day;
+        return day;
+    }
+
+    /** Start of the local day containing {@code timestamp}, for any day (not cached). */
+    public long startOfDay(long timestamp) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.setTimeInMillis(timestamp);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /** Start of the local day {@code days} days after (or before) the day containing {@code dayStart}. */
+    public long addDays(long dayStart, int days) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.setTimeInMillis(dayStart);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_YEAR, days);
+        return calendar.getTimeInMillis();
+    }
+
+    /** Start of the local week (Monday midnight) containing {@code timestamp}. */
+    public long startOfWeek(long timestamp) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.setTimeInMillis(startOfDay(timestamp));
+        int sinceMonday = (calendar.get(Calendar.DAY_OF_WEEK) - Calendar.MONDAY + 7) % 7;
+        calendar.add(Calendar.DAY_OF_YEAR, -sinceMonday);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Precomputes the boundaries of every local day from the day containing {@code start}
+     * through the day containing {@code end}. Day i covers [bounds[i], bounds[i + 1]).
+     */
+    public long[] dayBoundaries(long start, long end) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.setTimeInMillis(startOfDay(start));
+
+        int days = 0;
+        long[] bounds = new long[8];
+        bounds[0] = calendar.getTimeInMillis();
+        while (bounds[days] <= end) {
+            calendar.add(Calendar.DAY_OF_YEAR, 1);
+            days++;
+            if (days == bounds.length) {
+                long[] grown = new long[bounds.length * 2];
+                System.arraycopy(bounds, 0, grown, 0, bounds.length);
+                bounds = grown;
+            }
+            bounds[days] = calendar.getTimeInMillis();
+        }
+
+        long[] result = new long[days + 1];
+        System.arraycopy(bounds, 0, result, 0, days + 1);
+        return result;
+    }
+
+    /**
+     * Boundaries of every local hour in [start, end), where start is a local midnight.
+     * Hour i covers [bounds[i], bounds[i + 1]).
+     */
+    public long[] hourBoundaries(long start, long end) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.setTimeInMillis(start);
+
+        int hours = 0;
+        long[] bounds = new long[32];
+        bounds[0] = start;
+        while (bounds[hours] < end) {
+            calendar.add(Calendar.HOUR_OF_DAY, 1);
+            hours++;
+            if (hours == bounds.length) {
+                long[] grown = new long[bounds.length * 2];
+                System.arraycopy(bounds, 0, grown, 0, bounds.length);
+                bounds = grown;
+            }
+            bounds[hours] = Math.min(calendar.getTimeInMillis(), end);
+        }
+
+        long[] result = new long[hours + 1];
+        System.arraycopy(bounds, 0, result, 0, hours + 1);
+        return result;
+    }
+
+    private static final class Day {
+        final long start;
+        final long end;
+
+        Day(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
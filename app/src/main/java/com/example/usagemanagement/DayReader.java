@@ -0,0 +1,223 @@
+package com.example.usagemanagement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads finished days of events into sessions for a report: each run of days with one event
+ * read, or (for long ranges) one day per task on a thread pool, merged back in date order.
+ * Days the caller already has, from the day cache or a rollup, are replayed instead of read.
+ *
+ * No Android dependency, so both paths can be checked against each other in a unit test.
+ */
+class DayReader {
+
+    static final int CANCEL_CHECK_EVENTS = 4096;
+
+    private final EventSource eventSource;
+    private final PackageDictionary packages;
+    private final Runnable cancelCheck;
+
+    // cancelCheck throws CancellationException to stop the read; it's called from pool threads too
+    DayReader(EventSource eventSource, PackageDictionary packages, Runnable cancelCheck) {
+        this.eventSource = eventSource;
+        this.packages = packages;
+        this.cancelCheck = cancelCheck;
+    }
+
+    /** Days that don't need their events read. */
+    interface StoredDays {
+        boolean has(int day);
+
+        // replays a day has() said yes to; false if it can't be read after all
+        boolean replay(int day, UsageSessionizer.SessionSink sink);
+
+        // a day that was read from events, e.g. to cache it
+        void onDayRead(DayAggregateCache.DayAggregate aggregate);
+    }
+
+    // one event read for [bounds[0], bounds[last]), days numbered from firstDay
+    void queryDays(long[] bounds, int firstDay, UsageSessionizer.SessionSink sink) {
+        UsageSessionizer sessionizer = new UsageSessionizer(bounds, new OffsetSink(sink, firstDay), packages);
+        int[] sinceCheck = new int[1];
+        eventSource.read(bounds[0], bounds[bounds.length - 1], (packageName, timestamp, eventType) -> {
+            if (++sinceCheck[0] == CANCEL_CHECK_EVENTS) {
+                sinceCheck[0] = 0;
+                cancelCheck.run();
+            }
+            sessionizer.onEvent(packageName, timestamp, eventType);
+        });
+        sessionizer.finish();
+    }
+
+    DayAggregateCache.DayAggregate computeDay(long start, long end) {
+        DayAggregateCache.Builder builder = new DayAggregateCache.Builder();
+        queryDays(new long[] { start, end }, 0, new UsageSessionizer.SessionSink() {
+            @Override
+            public void onDayStart(int day) {
+            }
+
+            @Override
+            public void onSession(int day, String packageName, long sessionStart, long sessionEnd) {
+                builder.add(packageName, sessionStart, sessionEnd);
+            }
+
+            @Override
+            public void onDayEnd(int day) {
+            }
+        });
+        return builder.build(start, end);
+    }
+
+    /**
+     * Replays the stored days and reads each run of consecutive days that aren't stored with
+     * a single event read; every day read is handed to {@code stored} once it's over.
+     */
+    void readSequential(long[] dayBounds, UsageSessionizer.SessionSink sink, StoredDays stored) {
+        int dayCount = dayBounds.length - 1;
+        int day = 0;
+        while (day < dayCount) {
+            if (stored.has(day) && stored.replay(day, sink)) {
+                day++;
+                continue;
+            }
+            int runEnd = day + 1;
+            while (runEnd < dayCount && !stored.has(runEnd)) {
+                runEnd++;
+            }
+            queryDays(Arrays.copyOfRange(dayBounds, day, runEnd + 1), day, new StoringSink(sink, dayBounds, stored));
+            day = runEnd;
+        }
+    }
+
+    /**
+     * Every day not in {@code stored} is its own task (one event read and its sessions) on a
+     * pool of {@code threads}, while this thread merges the results strictly in date order.
+     * At most {@code 2 * threads} days are in flight ahead of the merge, so memory stays
+     * bounded. A day's sessions come out the same whether it was queried alone or as part of
+     * a run, so the sink sees what {@link #queryDays} would have given it.
+     */
+    void readParallel(long[] dayBounds, UsageSessionizer.SessionSink sink, int threads, StoredDays stored) {
+        int dayCount = dayBounds.length - 1;
+        int window = threads * 2;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<DayAggregateCache.DayAggregate>> inFlight = new ArrayList<>(dayCount);
+        try {
+            int submitted = 0;
+            for (int day = 0; day < dayCount; day++) {
+                while (submitted < dayCount && submitted < day + window) {
+                    inFlight.add(submitDay(pool, dayBounds, submitted, stored));
+                    submitted++;
+                }
+
+                DayAggregateCache.DayAggregate aggregate;
+                Future<DayAggregateCache.DayAggregate> future = inFlight.set(day, null);
+                if (future == null) {
+                    if (stored.replay(day, sink)) continue;
+                    // the stored day went bad after we looked; compute it here
+                    aggregate = computeDay(dayBounds[day], dayBounds[day + 1]);
+                } else {
+                    aggregate = await(future);
+                }
+                stored.onDayRead(aggregate);
+                aggregate.replay(day, sink);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // null (no task) for days already stored
+    private Future<DayAggregateCache.DayAggregate> submitDay(ExecutorService pool, long[] dayBounds, int day,
+                                                             StoredDays stored) {
+        if (stored.has(day)) {
+            return null;
+        }
+        long start = dayBounds[day];
+        long end = dayBounds[day + 1];
+        return pool.submit(() -> computeDay(start, end));
+    }
+
+    private static DayAggregateCache.DayAggregate await(Future<DayAggregateCache.DayAggregate> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("usage report interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    // passes sessions through and hands each day read to the store once it's over
+    private static class StoringSink implements UsageSessionizer.SessionSink {
+        private final UsageSessionizer.SessionSink delegate;
+        private final long[] dayBounds;
+        private final StoredDays stored;
+        private final DayAggregateCache.Builder builder = new DayAggregateCache.Builder();
+
+        StoringSink(UsageSessionizer.SessionSink delegate, long[] dayBounds, StoredDays stored) {
+            this.delegate = delegate;
+            this.dayBounds = dayBounds;
+            this.stored = stored;
+        }
+
+        @Override
+        public void onDayStart(int day) {
+            builder.reset();
+            delegate.onDayStart(day);
+        }
+
+        @Override
+        public void onSession(int day, String packageName, long start, long end) {
+            builder.add(packageName, start, end);
+            delegate.onSession(day, packageName, start, end);
+        }
+
+        @Override
+        public void onDayEnd(int day) {
+            stored.onDayRead(builder.build(dayBounds[day], dayBounds[day + 1]));
+            delegate.onDayEnd(day);
+        }
+    }
+
+    // renumbers the days of a partial query so they line up with the full range
+    private static class OffsetSink implements UsageSessionizer.SessionSink {
+        private final UsageSessionizer.SessionSink delegate;
+        private final int offset;
+
+        OffsetSink(UsageSessionizer.SessionSink delegate, int offset) {
+            this.delegate = delegate;
+            this.offset = offset;
+        }
+
+        @Override
+        public void onDayStart(int day) {
+            delegate.onDayStart(day + offset);
+        }
+
+        @Override
+        public void onSession(int day, String packageName, long start, long end) {
+            delegate.onSession(day + offset, packageName, start, end);
+        }
+
+        @Override
+        public void onSummary(int day, String packageName, long start, long end) {
+            delegate.onSummary(day + offset, packageName, start, end);
+        }
+
+        @Override
+        public void onDayEnd(int day) {
+            delegate.onDayEnd(day + offset);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.usagemanagement;
+
+/**
+ * Where resume/pause history comes from: the system's UsageStats or the app's own journal.
+ * Consumers only see the two event types they use, in timestamp order.
+ */
+interface EventSource {
+
+    // same values as UsageEvents.Event
+    int ACTIVITY_RESUMED = UsageSessionizer.ACTIVITY_RESUMED;
+    int ACTIVITY_PAUSED = UsageSessionizer.ACTIVITY_PAUSED;
+
+    /** Delivers every resume and pause with {@code begin <= timestamp < end}, oldest first. */
+    void read(long begin, long end, Visitor visitor);
+
+    interface Visitor {
+        void onEvent(String packageName, long timestamp, int eventType);
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.usagemanagement;
+
+/**
+ * Tracks which watched package (if any) currently owns the foreground window.
+ *
+ * Package names coming from accessibility events are compared in place against the
+ * watched names, so no strings are created per event; the state only changes on a real
+ * transition between two watched packages or between a watched package and anything else.
+ */
+class ForegroundTracker {
+
+    static final int NONE = -2;  // nothing seen yet
+    static final int OTHER = -1; // some package we don't watch
+
+    private final String[] watchedPackages;
+    private String[] ignoredPackages = new String[0];
+    private volatile int foregroundIndex = NONE;
+
+    private long eventsSeen = 0;
+    private long eventsFiltered = 0;
+    private long eventsActed = 0;
+
+    ForegroundTracker(String... watchedPackages) {
+        this.watchedPackages = watchedPackages;
+    }
+
+    // transient windows (e.g. the keyboard) that sit on top of an app without replacing it
+    void setIgnoredPackages(String... ignoredPackages) {
+        this.ignoredPackages = ignoredPackages;
+    }
+
+    /**
+     * Feeds one window-state change. Returns true when the foreground moved to a different
+     * watched package or between a watched package and {@link #OTHER}.
+     */
+    boolean onWindowStateChanged(CharSequence packageName) {
+        eventsSeen++;
+        if (packageName == null || indexIn(ignoredPackages, packageName) >= 0) {
+            eventsFiltered++;
+            return false;
+        }
+
+        int index = indexIn(watchedPackages, packageName);
+        int next = index >= 0 ? index : OTHER;
+        if (next == foregroundIndex) {
+            eventsFiltered++;
+            return false;
+        }
+
+        foregroundIndex = next;
+        eventsActed++;
+        return true;
+    }
+
+    // counts an event that was dropped before reaching the tracker (wrong type, no package)
+    void onEventSkipped() {
+        eventsSeen++;
+        eventsFiltered++;
+    }
+
+    // the watched package in the foreground, or null when it is something else
+    String getForegroundPackage() {
+        return foregroundIndex >= 0 ? watchedPackages[foregroundIndex] : null;
+    }
+
+    int getForegroundIndex() {
+        return foregroundIndex;
+    }
+
+    long getEventsSeen() {
+        return eventsSeen;
+    }
+
+    long getEventsFiltered() {
+        return eventsFiltered;
+    }
+
+    long getEventsActed() {
+        return eventsActed;
+    }
+
+    private static int indexIn(String[] names, CharSequence packageName) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].contentEquals(packageName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -1,53 +1,239 @@
 package com.example.usagemanagement;
 
-import android.app.usage.UsageEvents;
-import android.app.usage.UsageStats;
-import android.app.usage.UsageStatsManager;
 import android.content.Context;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.Locale;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 
 public class InstagramUsageTracker {
 
     private static final String TAG = "InstagramUsageTracker";
-    private static final String INSTAGRAM_PACKAGE_NAME = "com.instagram.android";
     private static final long CHECK_INTERVAL_MS = 1000; // check every second
     private static final long TIMEKEEPING_ERROR_THRESHOLD_MS = 5000; // 5 seconds
+    private static final long CHECKPOINT_INTERVAL_MS = 60000; // at most one routine checkpoint a minute
+    private static final String SNAPSHOT_FILE = "tracker.snapshot";
 
     private final Context context;
     private final Handler handler;
-
-    private long IGSessionStartTime = 0;
-    private long lastIGUsageStats = 0;
-    private long sessionTime = 0;
+    private final DayClock dayClock = DayClock.getInstance();
+    private final UsageUpdateBus updateBus = UsageUpdateBus.getInstance();
+    // the journal for history, UsageStats for whatever it hasn't ingested yet
+    private final EventSource eventSource;
+    private final EventSource.Visitor eventVisitor = this::onUsageEvent;
+    private long scanEndTime = 0;
+
+    private final WatchList watchList;
+    private final int instagramIndex;
+    private final PackageDictionary packages;
+    // watch list index by dictionary id, for events and the accessibility service's foreground id
+    private final int[] appById;
+    private final UsageEventAccumulator usageAccumulator;
+    // merges accessibility sessions with UsageStats sessions as they are confirmed
+    private final UsageReconciler reconciler = new UsageReconciler();
+    private long loggedSettledSessions = 0;
+
+    // per-app tables, indexed by position in the watch list
+    private final long[] usageTotals;
+    private final long[] estimatedUsage;
+    private final long[] lastNotifiedUsage;
+
+    // the watched app currently in a session (only one app can be in the foreground)
+    private int activeApp = -1;
+    private int lastInactiveApp = -1;
+    private long sessionStartTime = 0;
     private long lastResetTime = 0;
+    private long trackedDayStart = 0;
     private long lastInactiveTime = 0;
 
-    private boolean isInstagramActive = false;
-    private InstagramUsageListener usageListener;
+    private AppUsageListener appUsageListener;
+
+    // null when the watch list is too long for the fixed snapshot layout
+    private final TrackerSnapshot snapshot;
+    private final long watchListFingerprint;
+    private long lastCheckpointTime = 0;
+
+    // event-driven mode: while a watched app session is open, wake only at the next deadline
+    private boolean eventDriven = false;
+    private long interventionThresholdMs = 0;
+    private long interventionRepeatMs = 0;
+    private long displayStepMs = 0;
+    private long trackingStartTime = 0;
+    private long wakeupCount = 0;
+
+    private final Runnable pollTick = new Runnable() {
+        @Override
+        public void run() {
+            trackUsage();
+            handler.postDelayed(this, CHECK_INTERVAL_MS);
+        }
+    };
 
-    private long sessionBaseUsage = 0;
+    private final Runnable sessionTick = new Runnable() {
+        @Override
+        public void run() {
+            trackUsage();
+            scheduleSessionTick();
+        }
+    };
 
+    private final Runnable foregroundChangedTick = this::onForegroundChanged;
+    private final MyAccessibilityService.ForegroundChangeListener foregroundChangeListener;
 
     public InstagramUsageTracker(Context context) {
+        this(context, WatchList.load(context), new Handler(Looper.getMainLooper()));
+    }
+
+    // all tracking work (usage scans, ticks, listener calls) runs on the handler's thread
+    public InstagramUsageTracker(Context context, WatchList watchList, Handler handler) {
         this.context = context;
-        this.handler = new Handler();
+        this.handler = handler;
+        this.watchList = watchList;
+        this.eventSource = JournalEventSource.getInstance(context);
+        this.instagramIndex = watchList.indexOf(WatchList.INSTAGRAM_PACKAGE_NAME);
+        this.packages = PackageDictionary.getInstance(context.getFilesDir());
+        this.appById = watchList.indexesById(packages);
+        this.usageAccumulator = new UsageEventAccumulator(watchList.size());
+        this.usageTotals = new long[watchList.size()];
+        this.estimatedUsage = new long[watchList.size()];
+        this.lastNotifiedUsage = new long[watchList.size()];
+        Arrays.fill(lastNotifiedUsage, -1);
+        this.snapshot = watchList.size() <= TrackerSnapshot.MAX_APPS
+                ? new TrackerSnapshot(new File(context.getFilesDir(), SNAPSHOT_FILE))
+                : null;
+        this.watchListFingerprint = TrackerSnapshot.fingerprint(watchList.getPackages());
+        this.foregroundChangeListener = packageName -> handler.post(foregroundChangedTick);
         resetDailyTracking();
     }
 
-    public void setInstagramUsageListener(InstagramUsageListener listener) {
-        this.usageListener = listener;
+    // per-app updates for every watched package; only called when an app's estimate changes
+    public void setAppUsageListener(AppUsageListener listener) {
+        this.appUsageListener = listener;
+    }
+
+    // usage values (ms) at which the listener must be woken: the first threshold,
+    // then every repeatMs after it (0 disables the repeat)
+    public void setInterventionThresholds(long thresholdMs, long repeatMs) {
+        this.interventionThresholdMs = thresholdMs;
+        this.interventionRepeatMs = repeatMs;
+        if (eventDriven) scheduleSessionTick();
+    }
+
+    // how often the displayed usage changes (e.g. 1s while the counter is on screen);
+    // 0 means nobody is displaying it and only thresholds need a wakeup
+    public void setDisplayStep(long stepMs) {
+        this.displayStepMs = stepMs;
+        if (eventDriven) scheduleSessionTick();
     }
 
     public void startTracking() {
-        // initialize the last known usage stats value
-        lastIGUsageStats = getInstagramUsageToday();
-        handler.postDelayed(this::trackInstagramUsage, CHECK_INTERVAL_MS);
+        restoreSnapshot();
+        refreshUsageToday();
+        trackingStartTime = System.currentTimeMillis();
+        wakeupCount = 0;
+        handler.postDelayed(pollTick, CHECK_INTERVAL_MS);
+    }
+
+    // tracks from foreground transitions reported by MyAccessibilityService instead of polling;
+    // a timer only runs while a watched app is in the foreground
+    public void startEventDrivenTracking() {
+        eventDriven = true;
+        restoreSnapshot();
+        refreshUsageToday();
+        trackingStartTime = System.currentTimeMillis();
+        wakeupCount = 0;
+        MyAccessibilityService.setForegroundChangeListener(foregroundChangeListener);
+        onForegroundChanged();
+    }
+
+    public void stopTracking() {
+        handler.removeCallbacks(pollTick);
+        handler.removeCallbacks(sessionTick);
+        checkpoint(System.currentTimeMillis(), true);
+        if (eventDriven) {
+            MyAccessibilityService.setForegroundChangeListener(null);
+            Log.d(TAG, "event-driven tracking stopped, wakeups saved per hour: " + getWakeupsSavedPerHour());
+        }
+    }
+
+    // a foreground change cancels the pending deadline; a new one is computed if a session is open
+    private void onForegroundChanged() {
+        handler.removeCallbacks(sessionTick);
+        trackUsage();
+        scheduleSessionTick();
+    }
+
+    /**
+     * Schedules one callback at the wall-clock time of the next event that needs a wakeup:
+     * an intervention threshold, the app's budget, the next display step, or midnight.
+     * While the session is open the estimate grows 1:1 with wall time, so each crossing is
+     * known exactly and nothing needs to run in between. If UsageStats confirms more than the
+     * accessibility timeline measured, the estimate pauses and the tick simply fires early.
+     */
+    private void scheduleSessionTick() {
+        handler.removeCallbacks(sessionTick);
+        if (activeApp < 0) return;
+
+        long now = System.currentTimeMillis();
+        long usage = usageTotals[activeApp] + reconciler.unconfirmed(activeApp, now);
+        long deadline = dayClock.getNextMidnight(now);
+        long boundary = nextBoundary(activeApp, usage);
+        if (boundary >= 0) {
+            deadline = Math.min(deadline, now + (boundary - usage));
+        }
+
+        handler.postAtTime(sessionTick, SystemClock.uptimeMillis() + Math.max(0, deadline - now));
+    }
+
+    // the smallest usage value above the current one at which something has to happen
+    private long nextBoundary(int app, long estimatedUsage) {
+        long next = -1;
+        long budget = watchList.getDailyBudgetMs(app);
+        if (budget > estimatedUsage) {
+            next = budget;
+        }
+        if (app == instagramIndex) {
+            next = earliest(next, nextInterventionBoundary(estimatedUsage));
+        }
+        if (displayStepMs > 0) {
+            next = earliest(next, (estimatedUsage / displayStepMs + 1) * displayStepMs);
+        }
+        return next;
+    }
+
+    private static long earliest(long a, long b) {
+        if (a < 0) return b;
+        if (b < 0) return a;
+        return Math.min(a, b);
+    }
+
+    private long nextInterventionBoundary(long estimatedUsage) {
+        if (interventionThresholdMs <= 0) return -1;
+        if (estimatedUsage < interventionThresholdMs) return interventionThresholdMs;
+        if (interventionRepeatMs <= 0) return -1;
+        long periods = (estimatedUsage - interventionThresholdMs) / interventionRepeatMs + 1;
+        return interventionThresholdMs + periods * interventionRepeatMs;
+    }
+
+    // how far the accessibility timeline and UsageStats disagree per settled session
+    public long getMeanDriftMs() {
+        return reconciler.getMeanDriftMs();
+    }
+
+    public long getP95DriftMs() {
+        return reconciler.getP95DriftMs();
+    }
+
+    // how many wakeups per hour this mode avoids compared with the fixed 1s polling loop
+    public long getWakeupsSavedPerHour() {
+        long elapsed = System.currentTimeMillis() - trackingStartTime;
+        if (trackingStartTime == 0 || elapsed <= 0) return 0;
+        long pollingWakeups = elapsed / CHECK_INTERVAL_MS;
+        return (pollingWakeups - wakeupCount) * 3600000L / elapsed;
     }
 
 
@@ -65,142 +251,234 @@ public class InstagramUsageTracker {
         return timeString.toString().trim();
     }
 
-    private void trackInstagramUsage() {
-        long currentUsageStatsTime = getInstagramUsageToday();
+    private void trackUsage() {
+        wakeupCount++;
         long currentTime = System.currentTimeMillis();
 
-        // reset stats at midnight
+        // reset stats at midnight, before scanning so the new day starts with one full scan
         if (hasDayChanged(currentTime)) {
             resetDailyTracking();
         }
+        long[] usageStatsTime = refreshUsageToday();
 
         MyAccessibilityService service = MyAccessibilityService.getInstance();
-        boolean isCurrentlyActive = (service != null && service.isAppCurrentlyActive(INSTAGRAM_PACKAGE_NAME));
-
-        long computedUsageTime;
-        if (isCurrentlyActive) {
-            if (!isInstagramActive) {
-                // session just started; record the base events usage
-                if (lastInactiveTime > 0 && (currentTime - lastInactiveTime) < TIMEKEEPING_ERROR_THRESHOLD_MS) {
-                    Log.d(TAG, "Instagram resumed quickly, continuing session.");
-                } else {
-                    IGSessionStartTime = currentTime;
-                    sessionBaseUsage = currentUsageStatsTime;
-                    sessionTime = 0;
-                    Log.d(TAG, "Instagram detected as open at: " + IGSessionStartTime);
+        int foregroundApp = service != null ? appWithPackageId(service.getForegroundPackageId()) : -1;
+
+        boolean transition = foregroundApp != activeApp;
+        if (transition) {
+            if (activeApp >= 0) {
+                // session ended; UsageStats confirms it once the pause event lands
+                int endedApp = activeApp;
+                activeApp = -1;
+                reconciler.onSessionEnd(endedApp, currentTime);
+                Log.d(TAG, watchList.getPackageName(endedApp) + " session ended. duration: "
+                        + (currentTime - sessionStartTime) + " ms");
+                lastInactiveTime = currentTime;
+                lastInactiveApp = endedApp;
+                if (eventDriven) {
+                    Log.d(TAG, "wakeups saved per hour vs polling: " + getWakeupsSavedPerHour());
                 }
-                isInstagramActive = true;
-            } else {
-                sessionTime = currentTime - IGSessionStartTime;
             }
-            computedUsageTime = sessionBaseUsage + sessionTime;
-        } else {
-            if (isInstagramActive) {
-                // session ended; log duration and reset tracking
-                isInstagramActive = false;
-                logSessionDuration();
-                lastInactiveTime = currentTime;
+            if (foregroundApp >= 0) {
+                // session just started
+                if (foregroundApp == lastInactiveApp && lastInactiveTime > 0
+                        && (currentTime - lastInactiveTime) < TIMEKEEPING_ERROR_THRESHOLD_MS
+                        && reconciler.reopenLastSession(foregroundApp)) {
+                    Log.d(TAG, watchList.getPackageName(foregroundApp) + " resumed quickly, continuing session.");
+                } else {
+                    sessionStartTime = currentTime;
+                    reconciler.onSessionStart(foregroundApp, currentTime);
+                    Log.d(TAG, watchList.getPackageName(foregroundApp) + " detected as open at: " + sessionStartTime);
+                }
+                activeApp = foregroundApp;
             }
-            computedUsageTime = currentUsageStatsTime;
         }
 
-        notifyInstagramUsage(computedUsageTime);
-        lastIGUsageStats = currentUsageStatsTime;
-        Log.d(TAG, "Estimated daily usage: " + formatTime(computedUsageTime));
-        handler.postDelayed(this::trackInstagramUsage, CHECK_INTERVAL_MS);
+        // UsageStats totals plus whatever the accessibility timeline saw that isn't confirmed yet
+        reconciler.settleExpired(currentTime);
+        for (int i = 0; i < estimatedUsage.length; i++) {
+            estimatedUsage[i] = usageStatsTime[i] + reconciler.unconfirmed(i, currentTime);
+        }
+        logDrift();
+
+        notifyUsage();
+        checkpoint(currentTime, transition);
+        if (instagramIndex >= 0) {
+            Log.d(TAG, "Estimated daily usage: " + formatTime(estimatedUsage[instagramIndex]));
+        }
     }
 
 
-    private boolean hasDayChanged(long currentTime) {
-        Calendar lastReset = Calendar.getInstance();
-        lastReset.setTimeInMillis(lastResetTime);
+    // picks up today's state from the last checkpoint so only newer events need replaying
+    private void restoreSnapshot() {
+        if (snapshot == null) return;
+        try {
+            if (!snapshot.read()) return;
+        } catch (IOException e) {
+            Log.w(TAG, "could not read tracker snapshot, scanning from midnight.", e);
+            return;
+        }
 
-        Calendar now = Calendar.getInstance();
-        now.setTimeInMillis(currentTime);
+        long now = System.currentTimeMillis();
+        if (snapshot.watchListFingerprint != watchListFingerprint
+                || snapshot.appCount != watchList.size()
+                || snapshot.dayStart != getStartOfToday()
+                || snapshot.watermark > now) {
+            Log.d(TAG, "tracker snapshot is stale, scanning from midnight.");
+            return;
+        }
 
-        boolean dayChanged = now.get(Calendar.DAY_OF_YEAR) != lastReset.get(Calendar.DAY_OF_YEAR);
-        if (dayChanged) {
-            resetDailyTracking();
+        usageAccumulator.restore(snapshot.dayStart, snapshot.watermark, snapshot.totals, snapshot.lastOpened);
+        lastResetTime = snapshot.lastResetTime;
+        trackedDayStart = snapshot.dayStart;
+        activeApp = snapshot.activeApp;
+        lastInactiveApp = snapshot.lastInactiveApp;
+        sessionStartTime = snapshot.sessionStartTime;
+        lastInactiveTime = snapshot.lastInactiveTime;
+        reconciler.clear();
+        if (activeApp >= 0) {
+            reconciler.restoreOpenSession(activeApp, sessionStartTime, snapshot.sessionConfirmed);
         }
-        return dayChanged;
+        lastCheckpointTime = now;
+        Log.d(TAG, "restored tracker snapshot, replaying events after " + snapshot.watermark);
     }
 
-    private void resetDailyTracking() {
-        lastResetTime = System.currentTimeMillis();
-        lastIGUsageStats = 0; // force reset
-        Log.d(TAG, "daily tracking reset. last ig usage stats cleared.");
-    }
+    // written on every session transition, otherwise at most once per CHECKPOINT_INTERVAL_MS
+    private void checkpoint(long now, boolean transition) {
+        if (snapshot == null || usageAccumulator.getWatermark() == UsageEventAccumulator.NO_WATERMARK) return;
+        if (!transition && now - lastCheckpointTime < CHECKPOINT_INTERVAL_MS) return;
+
+        snapshot.watchListFingerprint = watchListFingerprint;
+        snapshot.appCount = watchList.size();
+        snapshot.dayStart = usageAccumulator.getDayStart();
+        snapshot.watermark = usageAccumulator.getWatermark();
+        snapshot.lastResetTime = lastResetTime;
+        snapshot.activeApp = activeApp;
+        snapshot.lastInactiveApp = lastInactiveApp;
+        snapshot.sessionStartTime = sessionStartTime;
+        snapshot.sessionConfirmed = activeApp >= 0 ? reconciler.openSessionConfirmed(activeApp) : 0;
+        snapshot.lastInactiveTime = lastInactiveTime;
+        for (int i = 0; i < watchList.size(); i++) {
+            snapshot.totals[i] = usageAccumulator.getTotalForegroundTime(i);
+            snapshot.lastOpened[i] = usageAccumulator.getLastOpenedTime(i);
+        }
 
-    private void logSessionDuration() {
-        if (IGSessionStartTime > 0) {
-            long sessionEndTime = System.currentTimeMillis();
-            long sessionDuration = sessionEndTime - IGSessionStartTime;
+        try {
+            snapshot.write();
+            lastCheckpointTime = now;
+        } catch (IOException e) {
+            Log.w(TAG, "could not write tracker snapshot.", e);
+        }
+    }
 
-            long updatedIGUsageStats = getInstagramUsageToday();
-            long trackedDurationChange = updatedIGUsageStats - lastIGUsageStats;
-            long discrepancy = Math.abs(trackedDurationChange - sessionDuration);
+    // a single comparison against the cached day start; DayClock only recomputes at midnight
+    private boolean hasDayChanged(long currentTime) {
+        return dayClock.getDayStart(currentTime) != trackedDayStart;
+    }
 
-            Log.d(TAG, "instagram session ended. duration: " + sessionDuration + " ms (" +
-                    (sessionDuration / 1000) + " seconds)");
-            Log.d(TAG, "tracked usage time change: " + trackedDurationChange + " ms (" +
-                    (trackedDurationChange / 1000) + " seconds)");
-            Log.d(TAG, "discrepancy between manual and tracked usage: " + discrepancy + " ms (" +
-                    (discrepancy / 1000) + " seconds)");
+    private void resetDailyTracking() {
+        lastResetTime = System.currentTimeMillis();
+        trackedDayStart = dayClock.getDayStart(lastResetTime);
+        usageAccumulator.invalidate(); // next query re-scans from midnight
+        Log.d(TAG, "daily tracking reset. usage watermark cleared.");
+    }
 
-            lastIGUsageStats = updatedIGUsageStats;
+    private void logDrift() {
+        long settled = reconciler.getSettledSessions();
+        if (settled != loggedSettledSessions) {
+            loggedSettledSessions = settled;
+            Log.d(TAG, "discrepancy between manual and tracked usage over " + settled + " sessions: mean "
+                    + reconciler.getMeanDriftMs() + " ms, p95 " + reconciler.getP95DriftMs() + " ms");
         }
     }
 
-    private void notifyInstagramUsage(long usageStatsTime) {
-        if (usageListener != null) {
-            usageListener.onInstagramUsageUpdated(usageStatsTime);
+    private void notifyUsage() {
+        if (instagramIndex >= 0) {
+            updateBus.publish(estimatedUsage[instagramIndex], activeApp == instagramIndex);
+        }
+        if (appUsageListener != null) {
+            for (int i = 0; i < estimatedUsage.length; i++) {
+                if (estimatedUsage[i] != lastNotifiedUsage[i]) {
+                    lastNotifiedUsage[i] = estimatedUsage[i];
+                    appUsageListener.onAppUsageUpdated(watchList.getPackageName(i),
+                            estimatedUsage[i], watchList.getDailyBudgetMs(i));
+                }
+            }
         }
     }
 
     public long getInstagramUsageToday() {
-        UsageStatsManager usageStatsManager = (UsageStatsManager) context.getSystemService(Context.USAGE_STATS_SERVICE);
-        if (usageStatsManager == null) {
-            Log.w(TAG, "usagestatsmanager is null.");
-            return 0;
-        }
+        return instagramIndex >= 0 ? refreshUsageToday()[instagramIndex] : 0;
+    }
+
+    // today's foreground time of a watched package as the last tick estimated it
+    public long getEstimatedUsage(String packageName) {
+        int index = appWithPackageId(packages.find(packageName));
+        return index >= 0 ? estimatedUsage[index] : 0;
+    }
 
+    /**
+     * Brings today's per-app totals up to date in one pass over the new usage events and
+     * returns them, indexed by position in the watch list. The returned array is reused.
+     */
+    private long[] refreshUsageToday() {
         // set the time range for today
-        Calendar calendar = Calendar.getInstance();
-        calendar.set(Calendar.HOUR_OF_DAY, 0);
-        calendar.set(Calendar.MINUTE, 0);
-        calendar.set(Calendar.SECOND, 0);
-        calendar.set(Calendar.MILLISECOND, 0);
-        long startTime = calendar.getTimeInMillis();
+        long startOfDay = getStartOfToday();
         long endTime = System.currentTimeMillis();
 
-        UsageEvents usageEvents = usageStatsManager.queryEvents(startTime, endTime);
-        if (usageEvents == null) {
-            Log.w(TAG, "usagestatsmanager returned null for events.");
-            return 0;
-        }
-
-        long totalForegroundTime = 0;
-        long lastOpenedTime = -1;
-
-        UsageEvents.Event event = new UsageEvents.Event();
-        while (usageEvents.hasNextEvent()) {
-            usageEvents.getNextEvent(event);
-            if (INSTAGRAM_PACKAGE_NAME.equals(event.getPackageName())) {
-                if (event.getEventType() == UsageEvents.Event.ACTIVITY_RESUMED) {
-                    lastOpenedTime = event.getTimeStamp();
-                } else if (event.getEventType() == UsageEvents.Event.ACTIVITY_PAUSED && lastOpenedTime != -1) {
-                    long sessionTime = event.getTimeStamp() - lastOpenedTime;
-                    totalForegroundTime += sessionTime;
-                    lastOpenedTime = -1;
-                }
+        // only scan the whole day after midnight or when the watermark can't be trusted;
+        // otherwise fold in just the events that arrived since the last call
+        if (!usageAccumulator.isWatermarkValid(startOfDay, endTime)) {
+            usageAccumulator.reset(startOfDay);
+            // the replay confirms the day's sessions again, so start the reconciler over too;
+            // an open session only counts from midnight on the new day
+            reconciler.clear();
+            if (activeApp >= 0) {
+                reconciler.onSessionStart(activeApp, Math.max(sessionStartTime, startOfDay));
+            }
+            Log.d(TAG, "usage watermark invalid, re-scanning events from midnight.");
+        }
+        long startTime = usageAccumulator.getWatermark();
+
+        // one pass for every watched app
+        scanEndTime = endTime;
+        eventSource.read(startTime, endTime, eventVisitor);
+        usageAccumulator.advanceWatermark(endTime);
+
+        for (int i = 0; i < usageTotals.length; i++) {
+            usageTotals[i] = usageAccumulator.getTotalForegroundTime(i);
+        }
+        if (instagramIndex >= 0) {
+            Log.d(TAG, "total instagram usage for today (calculated via events): " + formatTime(usageTotals[instagramIndex]));
+        }
+        return usageTotals;
+    }
+
+    private void onUsageEvent(String packageName, long timestamp, int eventType) {
+        // one probe for the id, then an array read instead of a name compare per watched app
+        int app = appWithPackageId(packages.find(packageName));
+        if (app < 0) return;
+
+        if (eventType == EventSource.ACTIVITY_RESUMED) {
+            usageAccumulator.onResumed(app, timestamp);
+        } else {
+            long openedAt = usageAccumulator.onPaused(app, timestamp);
+            if (openedAt >= 0) {
+                reconciler.onAuthoritativeSession(app, openedAt, timestamp, scanEndTime);
             }
         }
+    }
+
+    // watch list index of a dictionary id, or -1
+    private int appWithPackageId(int packageId) {
+        return packageId >= 0 && packageId < appById.length ? appById[packageId] : -1;
+    }
 
-        Log.d(TAG, "total instagram usage for today (calculated via events): " + formatTime(totalForegroundTime));
-        return totalForegroundTime;
+    private long getStartOfToday() {
+        return dayClock.getDayStart(System.currentTimeMillis());
     }
 
-    public interface InstagramUsageListener {
-        void onInstagramUsageUpdated(long estimatedUsageTime);
+    public interface AppUsageListener {
+        void onAppUsageUpdated(String packageName, long estimatedUsageTime, long dailyBudgetMs);
     }
 }
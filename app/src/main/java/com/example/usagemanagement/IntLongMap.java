@@ -0,0 +1,94 @@
+package com.example.usagemanagement;
+
+import java.util.Arrays;
+
+/**
+ * {@link PackageDictionary} id to long, for state that changes on every event (open session
+ * starts).
+ *
+ * Ids are small and dense, so the map is a {@code long[]} indexed by id with
+ * {@link #MISSING} in the free slots: a get, put or remove is an array access, boxes
+ * nothing, and allocates nothing unless a new id is past the end, which for a phone's worth
+ * of apps happens a handful of times at most.
+ */
+final class IntLongMap {
+
+    // returned by get and remove for absent keys; never a real session start
+    static final long MISSING = Long.MIN_VALUE;
+
+    private long[] values;
+    private int size = 0;
+
+    IntLongMap() {
+        this(16);
+    }
+
+    IntLongMap(int expectedMaxKey) {
+        values = new long[Math.max(expectedMaxKey, 1)];
+        Arrays.fill(values, MISSING);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long get(int key) {
+        return key >= 0 && key < values.length ? values[key] : MISSING;
+    }
+
+    void put(int key, long value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("negative key: " + key);
+        }
+        if (key >= values.length) {
+            int oldLength = values.length;
+            values = Arrays.copyOf(values, Math.max(oldLength * 2, key + 1));
+            Arrays.fill(values, oldLength, values.length, MISSING);
+        }
+        if (values[key] == MISSING) {
+            size++;
+        }
+        values[key] = value;
+    }
+
+    long remove(int key) {
+        long value = get(key);
+        if (value != MISSING) {
+            values[key] = MISSING;
+            size--;
+        }
+        return value;
+    }
+
+    void clear() {
+        if (size == 0) return;
+        Arrays.fill(values, MISSING);
+        size = 0;
+    }
+
+    IntLongMap copy() {
+        IntLongMap copy = new IntLongMap(0);
+        copy.values = values.clone();
+        copy.size = size;
+        return copy;
+    }
+
+    // keys and values in matching order (ascending key), for persisting
+    int[] keys() {
+        int[] result = new int[size];
+        int i = 0;
+        for (int key = 0; key < values.length; key++) {
+            if (values[key] != MISSING) result[i++] = key;
+        }
+        return result;
+    }
+
+    long[] values() {
+        long[] result = new long[size];
+        int i = 0;
+        for (long value : values) {
+            if (value != MISSING) result[i++] = value;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.usagemanagement;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When the study's interventions apply, from today's total Instagram time: grayscale and the
+ * puzzle start once the total reaches the threshold, and a new puzzle is due every
+ * {@code puzzleIntervalMinutes} of use.
+ *
+ * The threshold is compared with the whole day's minutes. The screen used to compare only
+ * the minutes part of the hh:mm:ss display, which never reaches 60, so a 60 minute
+ * threshold could never fire.
+ */
+final class InterventionSchedule {
+
+    private final long thresholdMinutes;
+    private final long puzzleIntervalMinutes;
+
+    InterventionSchedule(long thresholdMinutes, long puzzleIntervalMinutes) {
+        this.thresholdMinutes = thresholdMinutes;
+        this.puzzleIntervalMinutes = puzzleIntervalMinutes;
+    }
+
+    boolean isPastThreshold(long usageMs) {
+        return TimeUnit.MILLISECONDS.toMinutes(usageMs) >= thresholdMinutes;
+    }
+
+    // counts up by one every puzzleIntervalMinutes of use, from midnight
+    int puzzleInterval(long usageMs) {
+        return (int) (TimeUnit.MILLISECONDS.toMinutes(usageMs) / puzzleIntervalMinutes);
+    }
+
+    long getThresholdMs() {
+        return TimeUnit.MINUTES.toMillis(thresholdMinutes);
+    }
+
+    long getPuzzleIntervalMs() {
+        return TimeUnit.MINUTES.toMillis(puzzleIntervalMinutes);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.usagemanagement;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.TimeZone;
+
+/**
+ * Rolls closed days of the usage journal into daily and weekly {@link UsageRollups}, then
+ * deletes raw segments older than the retention window.
+ *
+ * Crash safety comes from the order of the steps: every rollup is complete on disk (temp
+ * file, then rename) before any raw segment it was built from is deleted, and a segment is
+ * only deleted once every local day it touches has its rollup. Running again after a crash
+ * redoes whatever was missing and nothing else.
+ *
+ * A local day that began before the journal's history start (the first ingestion's backfill
+ * rarely starts at midnight) is never rolled up, since its rollup would be short forever.
+ * Reports read it raw while its segment lasts; retention doesn't wait for it.
+ */
+class JournalCompactor {
+
+    static final int DEFAULT_RETENTION_DAYS = 35;
+
+    private final UsageJournal journal;
+    private final UsageRollups rollups;
+    private final DayClock dayClock;
+    private final int retentionDays;
+
+    JournalCompactor(UsageJournal journal, UsageRollups rollups, DayClock dayClock, int retentionDays) {
+        if (retentionDays < 1) {
+            throw new IllegalArgumentException("retention must be at least a day: " + retentionDays);
+        }
+        this.journal = journal;
+        this.rollups = rollups;
+        this.dayClock = dayClock;
+        this.retentionDays = retentionDays;
+    }
+
+    /**
+     * Writes the missing rollups for every local day the journal holds that is over and fully
+     * ingested, the weekly rollups those complete, and then applies retention.
+     *
+     * @return the number of raw segment files deleted
+     */
+    int compact(long now) throws IOException {
+        long ingestedUntil = journal.getIngestedUntil();
+        long[] segmentDays = journal.segmentDays(UsageJournal.Stream.USAGE);
+        if (ingestedUntil == UsageJournal.NO_MARK || segmentDays.length == 0) return 0;
+
+        TimeZone zone = dayClock.getTimeZone();
+        long closedUntil = Math.min(ingestedUntil, dayClock.getDayStart(now));
+        long firstEvent = segmentDays[0] * UsageJournal.DAY_MS;
+        if (closedUntil <= firstEvent) return 0;
+
+        long historyStart = journal.getHistoryStart();
+        long[] days = dayClock.dayBoundaries(firstEvent, closedUntil - 1);
+        for (int d = 0; d < days.length - 1; d++) {
+            if (days[d + 1] > closedUntil) break;
+            if (days[d] < historyStart) continue;
+            if (!rollups.hasDay(days[d], zone)) {
+                rollups.putDay(rollUpDay(days[d], days[d + 1]), zone);
+            }
+            rollUpWeekIfComplete(days[d], zone);
+        }
+        return applyRetention(now, zone, historyStart);
+    }
+
+    private UsageRollups.Rollup rollUpDay(long dayStart, long dayEnd) {
+        UsageRollups.Builder builder = new UsageRollups.Builder(dayStart);
+        UsageSessionizer sessionizer = new UsageSessionizer(new long[] { dayStart, dayEnd },
+                new UsageSessionizer.SessionSink() {
+                    @Override
+                    public void onDayStart(int day) {
+                    }
+
+                    @Override
+                    public void onSession(int day, String packageName, long start, long end) {
+                        builder.addSession(packageName, start, end);
+                    }
+
+                    @Override
+                    public void onDayEnd(int day) {
+                    }
+                }, journal.getPackages());
+        journal.read(UsageJournal.Stream.USAGE, dayStart, dayEnd, sessionizer::onEvent);
+        sessionizer.finish();
+        return builder.build(dayEnd);
+    }
+
+    // once the last day of a week has its rollup, sums the week's seven days
+    private void rollUpWeekIfComplete(long dayStart, TimeZone zone) throws IOException {
+        long weekStart = dayClock.startOfWeek(dayStart);
+        long weekEnd = dayClock.addDays(weekStart, 7);
+        if (dayClock.addDays(dayStart, 1) != weekEnd || rollups.hasWeek(weekStart, zone)) return;
+
+        UsageRollups.Builder builder = new UsageRollups.Builder(weekStart);
+        for (long day = weekStart; day < weekEnd; day = dayClock.addDays(day, 1)) {
+            UsageRollups.Rollup rollup = rollups.getDay(day, zone);
+            if (rollup == null) return;
+            builder.addRollup(rollup);
+        }
+        rollups.putWeek(builder.build(weekEnd), zone);
+    }
+
+    // deletes raw segments past retention whose local days are all rolled up or partial
+    private int applyRetention(long now, TimeZone zone, long historyStart) {
+        long horizon = dayClock.addDays(dayClock.getDayStart(now), -retentionDays);
+        int deleted = 0;
+        for (UsageJournal.Stream stream : UsageJournal.Stream.values()) {
+            for (long day : journal.segmentDays(stream)) {
+                long segmentStart = day * UsageJournal.DAY_MS;
+                long segmentEnd = segmentStart + UsageJournal.DAY_MS;
+                if (segmentEnd > horizon) break;
+                if (!isSettled(dayClock.startOfDay(segmentStart), zone, historyStart)
+                        || !isSettled(dayClock.startOfDay(segmentEnd - 1), zone, historyStart)) {
+                    continue;
+                }
+                File file = journal.segmentFile(stream, day);
+                if (file.delete()) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    // rolled up, or partial and never will be
+    private boolean isSettled(long dayStart, TimeZone zone, long historyStart) {
+        return dayStart < historyStart || rollups.hasDay(dayStart, zone);
+    }
+}
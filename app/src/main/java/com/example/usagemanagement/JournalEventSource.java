@@ -0,0 +1,136 @@
+package com.example.usagemanagement;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Reads history from the usage journal and only asks UsageStats for what the journal doesn't
+ * have yet: everything after its last ingestion mark. If UsageStats has nothing for that tail
+ * (usage access revoked, service gone), the watched-app transitions the accessibility service
+ * journaled stand in for it. If the journal can't be opened, every read goes to UsageStats as
+ * before.
+ *
+ * {@link #ingest} copies settled events from UsageStats into the journal and {@link #compact}
+ * folds old days into rollups; the tracking service calls both periodically on its
+ * background thread.
+ */
+class JournalEventSource implements EventSource {
+
+    private static final String TAG = "JournalEventSource";
+    // events this recent may still be written out of order, so they wait for the next batch
+    private static final long INGEST_LAG_MS = 2 * 60 * 1000;
+    // how far back the first ingestion reaches; UsageStats rarely keeps events longer
+    private static final int BACKFILL_DAYS = 30;
+
+    private static JournalEventSource instance;
+
+    private final SystemEventSource system;
+    private final UsageJournal journal;
+    private final UsageRollups rollups;
+
+    private JournalEventSource(Context context) {
+        this.system = new SystemEventSource(context);
+        this.rollups = UsageRollups.inFilesDir(context.getApplicationContext().getFilesDir());
+        UsageJournal opened = null;
+        try {
+            opened = UsageJournal.getInstance(context.getApplicationContext().getFilesDir());
+        } catch (IOException e) {
+            Log.w(TAG, "could not open usage journal, reading from UsageStats only.", e);
+        }
+        this.journal = opened;
+    }
+
+    public static synchronized JournalEventSource getInstance(Context context) {
+        if (instance == null) {
+            instance = new JournalEventSource(context);
+        }
+        return instance;
+    }
+
+    // null if the journal could not be opened
+    UsageJournal getJournal() {
+        return journal;
+    }
+
+    UsageRollups getRollups() {
+        return rollups;
+    }
+
+    // first local moment the journal still has raw usage events for; Long.MAX_VALUE if none
+    long getRawHistoryStart() {
+        if (journal == null) return Long.MAX_VALUE;
+        long[] days = journal.segmentDays(UsageJournal.Stream.USAGE);
+        return days.length == 0 ? Long.MAX_VALUE : days[0] * UsageJournal.DAY_MS;
+    }
+
+    @Override
+    public void read(long begin, long end, Visitor visitor) {
+        long journaled = journal != null ? journal.getIngestedUntil() : UsageJournal.NO_MARK;
+        if (journaled == UsageJournal.NO_MARK || journaled <= begin) {
+            system.read(begin, end, visitor);
+            return;
+        }
+        journal.read(UsageJournal.Stream.USAGE, begin, Math.min(end, journaled), visitor);
+        if (end > journaled) {
+            boolean[] delivered = new boolean[1];
+            system.read(journaled, end, (packageName, timestamp, eventType) -> {
+                delivered[0] = true;
+                visitor.onEvent(packageName, timestamp, eventType);
+            });
+            if (!delivered[0]) {
+                journal.readForegroundAsUsage(journaled, end, visitor);
+            }
+        }
+    }
+
+    /** Appends the UsageStats events since the last mark, up to a couple of minutes ago. */
+    synchronized void ingest(long now) {
+        if (journal == null) return;
+        long until = now - INGEST_LAG_MS;
+        long from = journal.getIngestedUntil();
+        boolean firstIngestion = from == UsageJournal.NO_MARK;
+        if (firstIngestion) {
+            from = until - BACKFILL_DAYS * UsageJournal.DAY_MS;
+        }
+        if (until <= from) return;
+
+        int[] count = new int[1];
+        try {
+            if (firstIngestion) {
+                // lets the compactor tell the backfill's first, partial day from a whole one
+                journal.markHistoryStart(from);
+            }
+            system.read(from, until, (packageName, timestamp, eventType) -> {
+                journal.appendUsage(packageName, timestamp, eventType);
+                count[0]++;
+            });
+            journal.markIngested(until);
+            journal.flush();
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "usage journal ingestion failed, retrying from " + from + " next time.", e);
+            try {
+                journal.abortIngestion();
+            } catch (IOException rollbackError) {
+                Log.w(TAG, "could not roll back the usage journal.", rollbackError);
+            }
+            return;
+        }
+        Log.d(TAG, "ingested " + count[0] + " usage events into the journal.");
+    }
+
+    /** Rolls finished days up and drops raw segments past retention once they are rolled up. */
+    synchronized void compact(long now) {
+        if (journal == null) return;
+        try {
+            int deleted = new JournalCompactor(journal, rollups, DayClock.getInstance(),
+                    JournalCompactor.DEFAULT_RETENTION_DAYS).compact(now);
+            if (deleted > 0) {
+                Log.d(TAG, "compacted usage journal, deleted " + deleted + " raw segments.");
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "usage journal compaction failed, trying again next time.", e);
+        }
+    }
+}
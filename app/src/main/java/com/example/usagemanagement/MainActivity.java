@@ -2,12 +2,12 @@ package com.example.usagemanagement;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.PowerManager;
 import android.provider.Settings;
 import android.util.Log;
@@ -36,11 +36,14 @@ public class MainActivity extends AppCompatActivity
     private TextView usageTitleText;
     private TextView IDText;
     private Handler handler;
+    private int instagramPackageId;
+    private AppStateStore state;
+    private AppStateStore.Subscription stateSubscription;
     private Button reportButton;
     private boolean isGrayscaleEnabled = false;
-    private InstagramUsageTracker tracker;
     private static final long THRESHOLD = 60;
     private static final long PUZZLE_PROMPT_INTERVAL = 15;
+    private final InterventionSchedule interventions = new InterventionSchedule(THRESHOLD, PUZZLE_PROMPT_INTERVAL);
 
     private int lastSolvedPuzzleInterval = 0;
     private int pendingPuzzleInterval = 0;
@@ -48,11 +51,32 @@ public class MainActivity extends AppCompatActivity
     private boolean puzzleLaunched = false;
     private static final int PUZZLE_REQUEST_CODE = 1001;
     private ActivityResultLauncher<Intent> puzzleActivityLauncher;
+    private UsageUpdateBus.Subscription displaySubscription;
+    private UsageUpdateBus.Subscription interventionSubscription;
+    private CharSequence reportButtonLabel;
+
+    private final ReportJob.Listener reportListener = new ReportJob.Listener() {
+        @Override
+        public void onReportProgress(int daysDone, int dayCount) {
+            reportButton.setText("Generating report... " + daysDone + "/" + dayCount);
+        }
+
+        @Override
+        public void onReportFinished(ReportJob.Result result) {
+            reportButton.setText(reportButtonLabel);
+            if (result.isSuccess()) {
+                Toast.makeText(MainActivity.this, "Usage report generated and saved!", Toast.LENGTH_SHORT).show();
+            } else if (result.cancelled) {
+                Toast.makeText(MainActivity.this, "Usage report cancelled.", Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(MainActivity.this, "Could not save usage report.", Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
     private static final int POST_NOTIFICATIONS_REQUEST_CODE = 1010;
 
     private void assignCondition() {
-        SharedPreferences prefs = getSharedPreferences("UserPrefs", MODE_PRIVATE);
-        String participantID = prefs.getString("ParticipantID", null);
+        String participantID = state.getParticipantId();
 
         // A: control
         // B: grayscale
@@ -72,8 +96,8 @@ public class MainActivity extends AppCompatActivity
             int randomID = 1000 + new Random().nextInt(9000);
             participantID = assignedCondition + String.valueOf(randomID);
 
-            // Save to SharedPreferences
-            prefs.edit().putString("ParticipantID", participantID).apply();
+            // Save to the state store
+            state.setParticipantId(participantID);
         }
         // Display the assigned participant ID
         IDText.setText("Your participant number is " + participantID);
@@ -83,7 +107,9 @@ public class MainActivity extends AppCompatActivity
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
-        handler = new Handler();
+        handler = new Handler(Looper.getMainLooper());
+        instagramPackageId = PackageDictionary.getInstance(getFilesDir()).idOf(WatchList.INSTAGRAM_PACKAGE_NAME);
+        state = AppStateStore.getInstance(this);
 
         // Correctly initialize UI elements
         usageTitleText = findViewById(R.id.usageTitleText);
@@ -108,10 +134,7 @@ public class MainActivity extends AppCompatActivity
                         solvedPuzzle = true;
                         savePuzzleState(true);
                         setPuzzleSessionActive(false);
-                        getSharedPreferences("PuzzlePrefs", MODE_PRIVATE)
-                                .edit()
-                                .remove("puzzleInProgressInterval")
-                                .apply();
+                        state.setPuzzleInProgressInterval(AppStateStore.NO_INTERVAL);
                         puzzleLaunched = false;
                         Log.d(TAG, "Puzzle solved, allowing Instagram access.");
 
@@ -124,89 +147,110 @@ public class MainActivity extends AppCompatActivity
                 }
         );
 
+        // reports are generated off the main thread; a long press cancels the running one
+        reportButtonLabel = reportButton.getText();
+        ReportJob.setListener(reportListener);
+        if (ReportJob.isRunning()) {
+            reportButton.setText("Generating report...");
+        }
         reportButton.setOnClickListener(v -> {
-            UsageReportGenerator reportGenerator = new UsageReportGenerator(MainActivity.this);
-            reportGenerator.generateUsageReport();
-            Toast.makeText(MainActivity.this, "Usage report generated and saved!", Toast.LENGTH_SHORT).show();
+            if (ReportJob.start(MainActivity.this, ReportQuery.forLastDays(ReportQuery.DEFAULT_DAYS)
+                    .throughToday().exportSessions(true).build())) {
+                reportButton.setText("Generating report...");
+            } else {
+                Toast.makeText(MainActivity.this, "A report is already being generated.", Toast.LENGTH_SHORT).show();
+            }
+        });
+        reportButton.setOnLongClickListener(v -> {
+            if (!ReportJob.isRunning()) return false;
+            ReportJob.cancel();
+            return true;
         });
 
         // Accessibility connection
         MyAccessibilityService.setAccessibilityServiceConnectionListener(this);
         checkAndHandleAccessibility();
 
-        tracker = new InstagramUsageTracker(this);
         assignCondition();
 
-        // Update Instagram usage time
-        tracker.setInstagramUsageListener(estimatedTime -> runOnUiThread(() -> {
-            long totalUsageMinutes = TimeUnit.MILLISECONDS.toMinutes(estimatedTime);
-            int currentPuzzleInterval = (int) (totalUsageMinutes / PUZZLE_PROMPT_INTERVAL);
-            pendingPuzzleInterval = currentPuzzleInterval;
+        // the puzzle screen reports being abandoned through the store; a flag left over from
+        // before this activity existed no longer applies
+        state.setPuzzleAbandoned(false);
+        stateSubscription = state.subscribe(handler, this::onStateChanged);
 
-            long secondsUsed = TimeUnit.MILLISECONDS.toSeconds(estimatedTime) % 60;
-            long minutesUsed = TimeUnit.MILLISECONDS.toMinutes(estimatedTime) % 60;
-            long hoursUsed = TimeUnit.MILLISECONDS.toHours(estimatedTime);
+        // intervention logic only needs to run when a threshold is crossed or a session starts or ends
+        interventionSubscription = UsageUpdateBus.getInstance()
+                .subscribe(UsageUpdateBus.Granularity.THRESHOLD_ONLY, handler, this::applyInterventions);
 
-            StringBuilder timeString = new StringBuilder();
+        // tracking runs in its own service thread and outlives this activity
+        Intent trackingIntent = new Intent(this, UsageTrackingService.class)
+                .putExtra(UsageTrackingService.EXTRA_THRESHOLD_MS, interventions.getThresholdMs())
+                .putExtra(UsageTrackingService.EXTRA_REPEAT_MS, interventions.getPuzzleIntervalMs());
+        ContextCompat.startForegroundService(this, trackingIntent);
+    }
 
-            if (hoursUsed > 0) {
-                timeString.append(hoursUsed).append(" hr ");
-            }
-            if (minutesUsed > 0 || hoursUsed > 0) { // Show minutes if there are hours, or if minutes exist
-                timeString.append(minutesUsed).append(" min ");
-            }
-            if (secondsUsed > 0 || timeString.length() == 0) { // Show seconds if there are no minutes or hours
-                timeString.append(secondsUsed).append(" sec");
-            }
+    private void showUsage(long estimatedTime) {
+        long secondsUsed = TimeUnit.MILLISECONDS.toSeconds(estimatedTime) % 60;
+        long minutesUsed = TimeUnit.MILLISECONDS.toMinutes(estimatedTime) % 60;
+        long hoursUsed = TimeUnit.MILLISECONDS.toHours(estimatedTime);
+
+        StringBuilder timeString = new StringBuilder();
 
-            boolean puzzleAbandoned = getSharedPreferences("PuzzlePrefs", MODE_PRIVATE)
-                    .getBoolean("puzzleAbandoned", false);
+        if (hoursUsed > 0) {
+            timeString.append(hoursUsed).append(" hr ");
+        }
+        if (minutesUsed > 0 || hoursUsed > 0) { // Show minutes if there are hours, or if minutes exist
+            timeString.append(minutesUsed).append(" min ");
+        }
+        if (secondsUsed > 0 || timeString.length() == 0) { // Show seconds if there are no minutes or hours
+            timeString.append(secondsUsed).append(" sec");
+        }
 
-            if (puzzleAbandoned) {
-                puzzleLaunched = false;
-                // reset the flag for future checks
-                getSharedPreferences("PuzzlePrefs", MODE_PRIVATE)
-                        .edit()
-                        .putBoolean("puzzleAbandoned", false)
-                        .apply();
+        if (statusTextView != null) {
+            if (estimatedTime > 0) {
+                statusTextView.setText(timeString.toString().trim());
+            } else {
+                statusTextView.setText("No Instagram usage detected today");
             }
+        }
+    }
 
-            String participantID = getSharedPreferences("UserPrefs", MODE_PRIVATE)
-                    .getString("ParticipantID", "");
-            char condition = participantID.charAt(0);
+    private void applyInterventions(long estimatedTime) {
+        int currentPuzzleInterval = interventions.puzzleInterval(estimatedTime);
+        pendingPuzzleInterval = currentPuzzleInterval;
 
-            MyAccessibilityService service = MyAccessibilityService.getInstance();
-            boolean isInstagramActive = service != null && service.isAppCurrentlyActive("com.instagram.android");
+        char condition = state.getCondition();
 
-            if (statusTextView != null) {
-                if (estimatedTime > 0) {
-                    statusTextView.setText(timeString.toString().trim());
-                } else {
-                    statusTextView.setText("No Instagram usage detected today");
-                }
+        MyAccessibilityService service = MyAccessibilityService.getInstance();
+        boolean isInstagramActive = service != null && service.isAppCurrentlyActive(instagramPackageId);
+
+        if (interventions.isPastThreshold(estimatedTime) && isInstagramActive) {
+            if (condition == 'B' || condition == 'D') {
+                service.setGrayscaleEnabled(true);
+                Log.d(TAG, "GRAYSCALE APPLIED");
             }
-            if (minutesUsed >= THRESHOLD && isInstagramActive) {
-                if (condition == 'B' || condition == 'D') {
-                    service.setGrayscaleEnabled(true);
-                    Log.d(TAG, "GRAYSCALE APPLIED");
-                }
-                if (condition == 'C' || condition == 'D') {
-                    handlePuzzleLogic(currentPuzzleInterval);
-                }
-            } else {
-                if (service != null) {
-                    service.setGrayscaleEnabled(false);
-                    Log.d(TAG, "GRAYSCALE DISABLED");
-                }
+            if (condition == 'C' || condition == 'D') {
+                handlePuzzleLogic(currentPuzzleInterval);
             }
-        }));
-        tracker.startTracking();
+        } else {
+            if (service != null) {
+                service.setGrayscaleEnabled(false);
+                Log.d(TAG, "GRAYSCALE DISABLED");
+            }
+        }
+    }
+
+    private void onStateChanged(AppStateStore.Key key) {
+        if (key == AppStateStore.Key.PUZZLE_ABANDONED && state.isPuzzleAbandoned()) {
+            puzzleLaunched = false;
+            // reset the flag for future checks
+            state.setPuzzleAbandoned(false);
+        }
     }
 
     private void handlePuzzleLogic(int currentPuzzleInterval) {
         solvedPuzzle = getPuzzleState();
-        SharedPreferences prefs = getSharedPreferences("PuzzlePrefs", MODE_PRIVATE);
-        int puzzleInProgressInterval = prefs.getInt("puzzleInProgressInterval", -1);
+        int puzzleInProgressInterval = state.getPuzzleInProgressInterval();
 
         // if user advanced to new puzzle interval and hasn't launched puzzle yet
         if ((currentPuzzleInterval > lastSolvedPuzzleInterval) && !puzzleLaunched) {
@@ -214,10 +258,8 @@ public class MainActivity extends AppCompatActivity
             savePuzzleState(false);
 
             // clear old puzzle pattern so puzzleActivity starts fresh
-            prefs.edit()
-                    .remove("currentPuzzlePattern")
-                    .putInt("puzzleInProgressInterval", currentPuzzleInterval)
-                    .apply();
+            state.setPuzzlePattern("");
+            state.setPuzzleInProgressInterval(currentPuzzleInterval);
 
             puzzleLaunched = true;
             setPuzzleSessionActive(true);
@@ -359,18 +401,15 @@ public class MainActivity extends AppCompatActivity
     }
 
     private void savePuzzleState(boolean solved) {
-        SharedPreferences prefs = getSharedPreferences("PuzzlePrefs", MODE_PRIVATE);
-        prefs.edit().putBoolean("solvedPuzzle", solved).apply();
+        state.setPuzzleSolved(solved);
     }
 
     private boolean getPuzzleState() {
-        SharedPreferences prefs = getSharedPreferences("PuzzlePrefs", MODE_PRIVATE);
-        return prefs.getBoolean("solvedPuzzle", false);
+        return state.isPuzzleSolved();
     }
 
     private void setPuzzleSessionActive(boolean isActive) {
-        SharedPreferences prefs = getSharedPreferences("PuzzlePrefs", MODE_PRIVATE);
-        prefs.edit().putBoolean("puzzleActive", isActive).apply();
+        state.setPuzzleActive(isActive);
     }
 
     @Override
@@ -390,7 +429,31 @@ public class MainActivity extends AppCompatActivity
         }
     }
 
-    
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // the counter shows seconds while it's on screen
+        displaySubscription = UsageUpdateBus.getInstance()
+                .subscribe(UsageUpdateBus.Granularity.SECOND, handler, this::showUsage);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // off screen only the intervention thresholds need a wakeup
+        UsageUpdateBus.getInstance().unsubscribe(displaySubscription);
+        displaySubscription = null;
+        state.flush();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        UsageUpdateBus.getInstance().unsubscribe(interventionSubscription);
+        state.unsubscribe(stateSubscription);
+        ReportJob.setListener(null);
+    }
+
     @Override
     public void onAccessibilityServiceConnected() {
         Log.i(TAG, "Accessibility service connection detected in MainActivity.");
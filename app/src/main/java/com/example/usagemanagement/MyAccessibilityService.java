@@ -2,6 +2,9 @@ package com.example.usagemanagement;
 
 import android.accessibilityservice.AccessibilityService;
 import android.graphics.PixelFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.provider.Settings;
 import android.util.Log;
 import android.view.View;
 import android.view.WindowManager;
@@ -10,11 +13,18 @@ import android.view.accessibility.AccessibilityEvent;
 public class MyAccessibilityService extends AccessibilityService {
 
     private static final String TAG = "MyAccessibilityService";
-    private static final String INSTAGRAM_PACKAGE_NAME = "com.instagram.android";
     private static MyAccessibilityService instance;
     private static AccessibilityServiceConnectionListener listener;
-
-    private String currentActivePackageName = null;
+    private static volatile ForegroundChangeListener foregroundListener;
+
+    private ForegroundTracker foregroundTracker = new ForegroundTracker(WatchList.INSTAGRAM_PACKAGE_NAME);
+    // dictionary id of each watched package, by the tracker's index
+    private int[] watchedPackageIds = new int[0];
+    // null if the journal could not be opened
+    private UsageJournal journal;
+    // appends run here; they can hit the disk, and events arrive on the main thread
+    private HandlerThread journalThread;
+    private Handler journalHandler;
     public boolean isGrayscaleEnabled = false;
     private View grayscaleOverlayView;
     private boolean isOverlayApplied = false;
@@ -22,9 +32,27 @@ public class MyAccessibilityService extends AccessibilityService {
     @Override
     public void onCreate() {
         super.onCreate();
+        String[] watchedPackages = WatchList.load(this).getPackages();
+        foregroundTracker = new ForegroundTracker(watchedPackages);
+        watchedPackageIds = PackageDictionary.getInstance(getFilesDir()).idsOf(watchedPackages);
+        journal = JournalEventSource.getInstance(this).getJournal();
+        if (journal != null) {
+            journalThread = new HandlerThread("ForegroundJournal");
+            journalThread.start();
+            journalHandler = new Handler(journalThread.getLooper());
+        }
         instance = this;
     }
 
+    @Override
+    public void onDestroy() {
+        if (journalThread != null) {
+            // pending appends still run; the journal flushes them with the next ingestion
+            journalThread.quitSafely();
+        }
+        super.onDestroy();
+    }
+
     public static MyAccessibilityService getInstance() {
         return instance;
     }
@@ -33,17 +61,33 @@ public class MyAccessibilityService extends AccessibilityService {
         listener = connectionListener;
     }
 
+    public static void setForegroundChangeListener(ForegroundChangeListener changeListener) {
+        foregroundListener = changeListener;
+    }
+
     @Override
     public void onAccessibilityEvent(AccessibilityEvent event) {
-        if (event == null || event.getPackageName() == null) return;
-
-        String packageName = event.getPackageName().toString();
-        currentActivePackageName = packageName;
-
-        // Log current active package for debugging
-        Log.d(TAG, "Current active package: " + currentActivePackageName);
+        // only window changes can move the foreground; clicks, scrolls and content
+        // changes are dropped before touching the package name
+        if (event == null || event.getEventType() != AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) {
+            foregroundTracker.onEventSkipped();
+            return;
+        }
+        if (!foregroundTracker.onWindowStateChanged(event.getPackageName())) return;
+
+        String packageName = foregroundTracker.getForegroundPackage();
+        Log.d(TAG, "Foreground changed to: " + (packageName != null ? packageName : "other"));
+        if (journalHandler != null) {
+            // stamped here, appended in order on the journal thread
+            int packageId = getForegroundPackageId();
+            long timestamp = System.currentTimeMillis();
+            journalHandler.post(() -> journal.appendForeground(packageId, timestamp));
+        }
 
-        if (INSTAGRAM_PACKAGE_NAME.equals(packageName) && isGrayscaleEnabled && !isOverlayApplied) {
+        if (foregroundListener != null) {
+            foregroundListener.onForegroundPackageChanged(packageName);
+        }
+        if (WatchList.INSTAGRAM_PACKAGE_NAME.equals(packageName) && isGrayscaleEnabled && !isOverlayApplied) {
             applyGrayscaleOverlay();
         }
     }
@@ -55,8 +99,32 @@ public class MyAccessibilityService extends AccessibilityService {
         }
     }
 
-    public boolean isAppCurrentlyActive(String packageName) {
-        return packageName.equals(currentActivePackageName);
+    // packageId is from PackageDictionary; comparing ids keeps string compares off the per-tick path
+    public boolean isAppCurrentlyActive(int packageId) {
+        return packageId != PackageDictionary.NOT_FOUND && getForegroundPackageId() == packageId;
+    }
+
+    // the watched package in the foreground, or null when it is any other app
+    public String getForegroundPackage() {
+        return foregroundTracker.getForegroundPackage();
+    }
+
+    // dictionary id of the watched package in the foreground, or NOT_FOUND for any other app
+    public int getForegroundPackageId() {
+        int index = foregroundTracker.getForegroundIndex();
+        return index >= 0 ? watchedPackageIds[index] : PackageDictionary.NOT_FOUND;
+    }
+
+    public long getEventsSeen() {
+        return foregroundTracker.getEventsSeen();
+    }
+
+    public long getEventsFiltered() {
+        return foregroundTracker.getEventsFiltered();
+    }
+
+    public long getEventsActed() {
+        return foregroundTracker.getEventsActed();
     }
 
     private void applyGrayscaleOverlay() {
@@ -93,7 +161,8 @@ public class MyAccessibilityService extends AccessibilityService {
 
     @Override
     public void onInterrupt() {
-        Log.w(TAG, "Accessibility service interrupted.");
+        Log.w(TAG, "Accessibility service interrupted. events seen: " + getEventsSeen()
+                + ", filtered: " + getEventsFiltered() + ", acted on: " + getEventsActed());
     }
 
     @Override
@@ -101,6 +170,12 @@ public class MyAccessibilityService extends AccessibilityService {
         super.onServiceConnected();
         Log.i(TAG, "Accessibility Service Connected.");
 
+        // the keyboard opens its own window over instagram; don't treat it as leaving the app
+        String defaultIme = Settings.Secure.getString(getContentResolver(), Settings.Secure.DEFAULT_INPUT_METHOD);
+        if (defaultIme != null && defaultIme.indexOf('/') > 0) {
+            foregroundTracker.setIgnoredPackages(defaultIme.substring(0, defaultIme.indexOf('/')));
+        }
+
         if (listener != null) {
             listener.onAccessibilityServiceConnected();
         }
@@ -109,4 +184,8 @@ public class MyAccessibilityService extends AccessibilityService {
     public interface AccessibilityServiceConnectionListener {
         void onAccessibilityServiceConnected();
     }
+
+    public interface ForegroundChangeListener {
+        void onForegroundPackageChanged(String packageName);
+    }
 }
@@ -0,0 +1,220 @@
+package com.example.usagemanagement;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.io.UTFDataFormatException;
+import java.util.Arrays;
+
+/**
+ * App-wide package name to small int id, assigned once and kept for good, so stored data
+ * (the usage journal) and in-memory tables can refer to apps by int.
+ *
+ * Ids are dense, in the order packages were first seen, and bounded by the apps the phone
+ * has ever run. Names are appended to {@code packages.tbl} as UTF strings before their id is
+ * handed out, so anything written with an id can always be resolved; a torn name at the end
+ * of the file (crash mid-write) is cut off on open. Looking up a known name is a probe in a
+ * primitive hash table and allocates nothing; both that and resolving an id read
+ * copy-on-write snapshots without the lock, so report threads interning every event's name
+ * don't contend. Only handing out a new id takes the lock.
+ */
+class PackageDictionary {
+
+    static final int NOT_FOUND = -1;
+
+    private static final String FILE_NAME = "packages.tbl";
+    // where the usage journal kept its own table before ids were shared
+    private static final String LEGACY_FILE = "journal/packages.tbl";
+
+    private static PackageDictionary instance;
+
+    // null when ids only live as long as the process
+    private final RandomAccessFile table;
+    // copy-on-write so readers can look up names and resolve ids without the lock
+    private volatile Index index = new Index(128);
+    private volatile String[] names = new String[0];
+
+    /** A dictionary backed by {@code file}, or in memory only when {@code file} is null. */
+    PackageDictionary(File file) throws IOException {
+        this.table = file != null ? new RandomAccessFile(file, "rw") : null;
+        if (table != null) {
+            load();
+        }
+    }
+
+    /**
+     * The app's dictionary under its files directory, opened once per process. If the file
+     * can't be opened the app still runs with ids that last until the process dies;
+     * {@link #isPersistent()} tells stores that must not write such ids to disk.
+     */
+    static synchronized PackageDictionary getInstance(File filesDir) {
+        if (instance == null) {
+            File file = new File(filesDir, FILE_NAME);
+            File legacy = new File(filesDir, LEGACY_FILE);
+            if (!file.exists() && legacy.exists()) {
+                // the journal's ids were the first ones handed out, so they carry over as is
+                legacy.renameTo(file);
+            }
+            try {
+                instance = new PackageDictionary(file);
+            } catch (IOException e) {
+                try {
+                    instance = new PackageDictionary(null);
+                } catch (IOException unreachable) {
+                    throw new IllegalStateException(unreachable);
+                }
+            }
+        }
+        return instance;
+    }
+
+    boolean isPersistent() {
+        return table != null;
+    }
+
+    /** The id of {@code packageName}, assigning (and persisting) the next one if it's new. */
+    int idOf(String packageName) {
+        int id = index.find(packageName);
+        return id != NOT_FOUND ? id : assign(packageName);
+    }
+
+    private synchronized int assign(String packageName) {
+        // another thread may have assigned it since the lock-free probe
+        int id = index.find(packageName);
+        if (id != NOT_FOUND) return id;
+
+        int next = names.length;
+        if (table != null) {
+            try {
+                // the name is on disk before any record can refer to it
+                table.seek(table.length());
+                table.writeUTF(packageName);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        add(packageName, next);
+        return next;
+    }
+
+    // ids of several names at once, e.g. a watch list resolved when it's loaded
+    int[] idsOf(String... packageNames) {
+        int[] result = new int[packageNames.length];
+        for (int i = 0; i < packageNames.length; i++) {
+            result[i] = idOf(packageNames[i]);
+        }
+        return result;
+    }
+
+    /** The id of {@code packageName}, or {@link #NOT_FOUND} without assigning one. */
+    int find(String packageName) {
+        return index.find(packageName);
+    }
+
+    /** The name behind {@code id}, or null for an id this dictionary never handed out. */
+    String nameOf(int id) {
+        String[] snapshot = names;
+        return id >= 0 && id < snapshot.length ? snapshot[id] : null;
+    }
+
+    // every id below this is assigned; sizes per-id arrays
+    int size() {
+        return names.length;
+    }
+
+    // all names by id, for resolving a batch of ids without a call per id
+    String[] names() {
+        return names;
+    }
+
+    private void add(String packageName, int id) {
+        Index grown = index.copyFor(id + 1);
+        grown.put(packageName, id);
+        String[] grownNames = Arrays.copyOf(names, id + 1);
+        grownNames[id] = packageName;
+        // the name first, so whoever finds the id can resolve it
+        names = grownNames;
+        index = grown;
+    }
+
+    private void load() throws IOException {
+        String[] loaded = new String[64];
+        // not published yet, so it's filled in place
+        Index loading = new Index(128);
+        int count = 0;
+        long good = 0;
+        try {
+            while (table.getFilePointer() < table.length()) {
+                String name = table.readUTF();
+                if (count == loaded.length) {
+                    loaded = Arrays.copyOf(loaded, count * 2);
+                }
+                if ((count + 1) * 2 > loading.slotNames.length) {
+                    loading = loading.copyFor(count + 1);
+                }
+                loading.put(name, count);
+                loaded[count++] = name;
+                good = table.getFilePointer();
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            // torn last name
+        }
+        table.setLength(good);
+        names = Arrays.copyOf(loaded, count);
+        index = loading;
+    }
+
+    // name to id by open addressing, a null name marks a free slot; probes allocate nothing.
+    // only changed before it's published
+    private static final class Index {
+        final String[] slotNames;
+        final int[] slotIds;
+
+        Index(int capacity) {
+            slotNames = new String[capacity];
+            slotIds = new int[capacity];
+        }
+
+        int find(String name) {
+            int slot = slotOf(name);
+            return slotNames[slot] != null ? slotIds[slot] : NOT_FOUND;
+        }
+
+        void put(String name, int id) {
+            int slot = slotOf(name);
+            slotNames[slot] = name;
+            slotIds[slot] = id;
+        }
+
+        // a copy with room for count names, kept at most half full
+        Index copyFor(int count) {
+            int capacity = slotNames.length;
+            while (count * 2 > capacity) {
+                capacity *= 2;
+            }
+            Index copy = new Index(capacity);
+            if (capacity == slotNames.length) {
+                System.arraycopy(slotNames, 0, copy.slotNames, 0, capacity);
+                System.arraycopy(slotIds, 0, copy.slotIds, 0, capacity);
+            } else {
+                for (int i = 0; i < slotNames.length; i++) {
+                    if (slotNames[i] != null) copy.put(slotNames[i], slotIds[i]);
+                }
+            }
+            return copy;
+        }
+
+        // the slot holding name, or the free slot where it would go
+        private int slotOf(String name) {
+            int mask = slotNames.length - 1;
+            int h = name.hashCode() * 0x9E3779B9;
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (slotNames[slot] != null && !slotNames[slot].equals(name)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.usagemanagement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time per package while an aggregate is being built. Packages get indexes in the order
+ * they're first seen, which is also how the stored files refer to them, so builders can
+ * keep their other per-app arrays (session counts, hour slots) by the same index.
+ */
+final class PackageTotals {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> packages = new ArrayList<>();
+    private long[] totals = new long[16];
+
+    /** Adds {@code ms} to the package and returns its index. */
+    int add(String packageName, long ms) {
+        Integer id = ids.get(packageName);
+        if (id == null) {
+            id = packages.size();
+            ids.put(packageName, id);
+            packages.add(packageName);
+            if (id == totals.length) {
+                totals = Arrays.copyOf(totals, id * 2);
+            }
+        }
+        totals[id] += ms;
+        return id;
+    }
+
+    int size() {
+        return packages.size();
+    }
+
+    String[] packages() {
+        return packages.toArray(new String[0]);
+    }
+
+    long[] totals() {
+        return Arrays.copyOf(totals, packages.size());
+    }
+
+    void clear() {
+        ids.clear();
+        packages.clear();
+        Arrays.fill(totals, 0);
+    }
+}
@@ -3,6 +3,7 @@ package com.example.usagemanagement;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 import android.util.DisplayMetrics;
 import android.widget.Button;
 import android.widget.GridLayout;
@@ -34,11 +35,13 @@ public class PuzzleActivity extends AppCompatActivity {
     private boolean showingPattern = false;
     private boolean localPuzzleSolved = false;
     private float reentryShowTimeMs = 1500;
+    private AppStateStore state;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_puzzle);
+        state = AppStateStore.getInstance(this);
 
         puzzleGrid = findViewById(R.id.puzzleGrid);
         backButton = findViewById(R.id.backButton);
@@ -91,10 +94,7 @@ public class PuzzleActivity extends AppCompatActivity {
         instructionsText.setText("You got it!");
 
         // clear puzzle pattern so next interval can create a new puzzle
-        getSharedPreferences("PuzzlePrefs", MODE_PRIVATE)
-                .edit()
-                .remove("currentPuzzlePattern")
-                .apply();
+        state.setPuzzlePattern("");
 
         new android.os.Handler().postDelayed(() -> {
             Intent resultIntent = new Intent();
@@ -214,15 +214,11 @@ public class PuzzleActivity extends AppCompatActivity {
         for (int tileIndex : correctTiles) {
             sb.append(tileIndex).append(",");
         }
-        getSharedPreferences("PuzzlePrefs", MODE_PRIVATE)
-                .edit()
-                .putString("currentPuzzlePattern", sb.toString())
-                .apply();
+        state.setPuzzlePattern(sb.toString());
     }
 
     private List<Integer> loadPuzzlePattern() {
-        String pattern = getSharedPreferences("PuzzlePrefs", MODE_PRIVATE)
-                .getString("currentPuzzlePattern", "");
+        String pattern = state.getPuzzlePattern();
         List<Integer> loadedTiles = new ArrayList<>();
         if (!pattern.isEmpty()) {
             for (String part : pattern.split(",")) {
@@ -238,11 +234,10 @@ public class PuzzleActivity extends AppCompatActivity {
     protected void onStop() {
         super.onStop();
         if (!localPuzzleSolved) {
-            getSharedPreferences("PuzzlePrefs", MODE_PRIVATE)
-                    .edit()
-                    .putBoolean("puzzleAbandoned", true)
-                    .apply();
+            // the main screen is subscribed and resets its launch state
+            state.setPuzzleAbandoned(true);
         }
+        state.flush();
     }
 
     @Override
@@ -252,7 +247,7 @@ public class PuzzleActivity extends AppCompatActivity {
             instructionsText.setText("remember these tiles!");
             highlightCorrectTiles();
 
-            new Handler().postDelayed(() -> {
+            new Handler(Looper.getMainLooper()).postDelayed(() -> {
                 resetTilesToDefault();
                 instructionsText.setText("select the correct tiles!");
                 gameInProgress = true;
@@ -264,10 +259,7 @@ public class PuzzleActivity extends AppCompatActivity {
     protected void onPause() {
         super.onPause();
         if (!localPuzzleSolved) {
-            getSharedPreferences("PuzzlePrefs", MODE_PRIVATE)
-                    .edit()
-                    .putBoolean("puzzleActive", false)
-                    .apply();
+            state.setPuzzleActive(false);
         }
     }
 }
@@ -0,0 +1,117 @@
+package com.example.usagemanagement;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs usage report generation on a background thread, one report at a time.
+ *
+ * Progress (days processed) and the final result are delivered on the main thread to the
+ * current listener. The listener can be swapped while a report runs, e.g. when the activity
+ * is recreated, and a result that arrives with no listener is simply logged.
+ */
+public class ReportJob {
+
+    private static final String TAG = "ReportJob";
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // only touched on the main thread
+    private static UsageReportGenerator running;
+    private static Listener listener;
+
+    /**
+     * Starts a report for the given query.
+     *
+     * @return false if a report is already being generated; the running one is left alone
+     */
+    public static boolean start(Context context, ReportQuery query) {
+        if (running != null) {
+            Log.d(TAG, "report already in progress, ignoring start.");
+            return false;
+        }
+
+        UsageReportGenerator generator = new UsageReportGenerator(context.getApplicationContext());
+        generator.setProgressListener((daysDone, dayCount) -> mainHandler.post(() -> {
+            if (running == generator && listener != null) {
+                listener.onReportProgress(daysDone, dayCount);
+            }
+        }));
+        running = generator;
+
+        executor.execute(() -> {
+            Result result;
+            try {
+                result = new Result(generator.generateUsageReport(query), null, false);
+            } catch (CancellationException e) {
+                result = new Result(null, null, true);
+            } catch (Throwable e) {
+                // an Error too, or running would never be cleared and no report could start again
+                Log.e(TAG, "error generating usage report", e);
+                result = new Result(null, e, false);
+            }
+
+            Result finished = result;
+            mainHandler.post(() -> {
+                running = null;
+                if (listener != null) {
+                    listener.onReportFinished(finished);
+                } else {
+                    Log.i(TAG, "report finished with no listener: " + finished);
+                }
+            });
+        });
+        return true;
+    }
+
+    public static boolean isRunning() {
+        return running != null;
+    }
+
+    // cooperative: the report stops at its next day boundary or event batch
+    public static void cancel() {
+        if (running != null) {
+            running.cancel();
+        }
+    }
+
+    public static void setListener(Listener newListener) {
+        listener = newListener;
+    }
+
+    public static final class Result {
+        public final Uri uri;
+        public final Throwable error;
+        public final boolean cancelled;
+
+        Result(Uri uri, Throwable error, boolean cancelled) {
+            this.uri = uri;
+            this.error = error;
+            this.cancelled = cancelled;
+        }
+
+        public boolean isSuccess() {
+            return uri != null;
+        }
+
+        @Override
+        public String toString() {
+            if (cancelled) return "cancelled";
+            return uri != null ? "saved to " + uri : "failed: " + error;
+        }
+    }
+
+    public interface Listener {
+        void onReportProgress(int daysDone, int dayCount);
+
+        void onReportFinished(Result result);
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.usagemanagement;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * What a usage report covers: a time range, how the table is bucketed, how many apps it
+ * ranks, and which packages it considers. The report button on the main screen starts its
+ * report with one, and the pdf and session exports are both built from it, so a new range or
+ * cut-off for them is a new query rather than new code. The rest of the main screen reads
+ * today's totals from the tracker and doesn't use this.
+ *
+ * The range is [start, end) in epoch milliseconds; sessions are clipped to it.
+ */
+public final class ReportQuery {
+
+    public static final int DEFAULT_DAYS = 7;
+    public static final int DEFAULT_TOP_N = 5;
+    public static final int DEFAULT_HEATMAP_MINUTES = 60;
+
+    public enum Granularity {
+        HOURLY,
+        DAILY,
+        WEEKLY
+    }
+
+    private final long start;
+    private final long end;
+    private final Granularity granularity;
+    private final int topN;
+    private final int heatmapMinutes;
+    private final boolean exportSessions;
+    private final boolean rawData;
+    private final Set<String> includedPackages;
+    private final Set<String> excludedPackages;
+
+    private ReportQuery(Builder builder) {
+        this.start = builder.start;
+        this.end = builder.end;
+        this.granularity = builder.granularity;
+        this.topN = builder.topN;
+        this.heatmapMinutes = builder.heatmapMinutes;
+        this.exportSessions = builder.exportSessions;
+        this.rawData = builder.rawData;
+        this.includedPackages = Collections.unmodifiableSet(new HashSet<>(builder.includedPackages));
+        this.excludedPackages = Collections.unmodifiableSet(new HashSet<>(builder.excludedPackages));
+    }
+
+    /** The {@code days} whole local days before today, daily rows, top {@link #DEFAULT_TOP_N}. */
+    public static ReportQuery lastDays(int days) {
+        return forLastDays(days).build();
+    }
+
+    // a builder for the days before today, to change anything else
+    public static Builder forLastDays(int days) {
+        DayClock dayClock = DayClock.getInstance();
+        long todayStart = dayClock.getDayStart(System.currentTimeMillis());
+        return new Builder(dayClock.addDays(todayStart, -days), todayStart);
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public Granularity getGranularity() {
+        return granularity;
+    }
+
+    public int getTopN() {
+        return topN;
+    }
+
+    // bucket size of the intraday heatmap; 0 leaves the heatmap out
+    public int getHeatmapMinutes() {
+        return heatmapMinutes;
+    }
+
+    // whether the sessions also go to csv and binary files next to the pdf
+    public boolean isExportingSessions() {
+        return exportSessions;
+    }
+
+    // whether the pdf ends with every session, day by day
+    public boolean isIncludingRawData() {
+        return rawData;
+    }
+
+    // whether the report shows or exports individual sessions, which day rollups don't keep
+    boolean needsSessions() {
+        return rawData || exportSessions;
+    }
+
+    public Set<String> getIncludedPackages() {
+        return includedPackages;
+    }
+
+    public Set<String> getExcludedPackages() {
+        return excludedPackages;
+    }
+
+    // an empty include set means every package
+    public boolean matches(String packageName) {
+        return (includedPackages.isEmpty() || includedPackages.contains(packageName))
+                && !excludedPackages.contains(packageName);
+    }
+
+    public boolean isFiltered() {
+        return !includedPackages.isEmpty() || !excludedPackages.isEmpty();
+    }
+
+    /**
+     * Boundaries of the table rows for this granularity. Row i covers [rows[i], rows[i + 1]).
+     * Daily rows follow the local days in {@code dayBounds}; weekly rows are local weeks from
+     * Monday, cut short at either end of the range, so whole ones line up with the weekly
+     * rollups. Hourly rows follow local hours, so DST days have 23 or 25 of them.
+     */
+    long[] rowBounds(long[] dayBounds, DayClock dayClock) {
+        switch (granularity) {
+            case HOURLY:
+                return dayClock.hourBoundaries(dayBounds[0], dayBounds[dayBounds.length - 1]);
+            case WEEKLY: {
+                int days = dayBounds.length - 1;
+                long[] rows = new long[days + 1];
+                int count = 0;
+                rows[count++] = dayBounds[0];
+                for (int d = 1; d < days; d++) {
+                    if (dayBounds[d] == dayClock.startOfWeek(dayBounds[d])) {
+                        rows[count++] = dayBounds[d];
+                    }
+                }
+                rows[count++] = dayBounds[days];
+                return Arrays.copyOf(rows, count);
+            }
+            default:
+                return dayBounds;
+        }
+    }
+
+    public static final class Builder {
+        private final long start;
+        private long end;
+        private Granularity granularity = Granularity.DAILY;
+        private int topN = DEFAULT_TOP_N;
+        private int heatmapMinutes = DEFAULT_HEATMAP_MINUTES;
+        private boolean exportSessions = false;
+        private boolean rawData = true;
+        private final Set<String> includedPackages = new HashSet<>();
+        private final Set<String> excludedPackages = new HashSet<>();
+
+        public Builder(long start, long end) {
+            if (end <= start) {
+                throw new IllegalArgumentException("empty report range: " + start + " to " + end);
+            }
+            this.start = start;
+            this.end = end;
+        }
+
+        public Builder granularity(Granularity granularity) {
+            this.granularity = granularity;
+            return this;
+        }
+
+        public Builder topN(int topN) {
+            if (topN < 0) {
+                throw new IllegalArgumentException("topN must not be negative: " + topN);
+            }
+            this.topN = topN;
+            return this;
+        }
+
+        // 15, 30 or 60 minute buckets (anything dividing an hour), or 0 for no heatmap
+        public Builder heatmapMinutes(int minutes) {
+            if (minutes < 0 || (minutes > 0 && 60 % minutes != 0)) {
+                throw new IllegalArgumentException("heatmap bucket must divide an hour: " + minutes);
+            }
+            this.heatmapMinutes = minutes;
+            return this;
+        }
+
+        // extends the range through the end of today, so the report includes today so far
+        public Builder throughToday() {
+            DayClock dayClock = DayClock.getInstance();
+            this.end = Math.max(end, dayClock.getNextMidnight(System.currentTimeMillis()));
+            return this;
+        }
+
+        public Builder exportSessions(boolean export) {
+            this.exportSessions = export;
+            return this;
+        }
+
+        // false leaves the raw data out of the pdf, so long ranges can be read from rollups
+        public Builder rawData(boolean include) {
+            this.rawData = include;
+            return this;
+        }
+
+        // only these packages (in addition to any earlier includes)
+        public Builder include(String... packageNames) {
+            Collections.addAll(includedPackages, packageNames);
+            return this;
+        }
+
+        public Builder exclude(String... packageNames) {
+            Collections.addAll(excludedPackages, packageNames);
+            return this;
+        }
+
+        public ReportQuery build() {
+            return new ReportQuery(this);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.usagemanagement;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Which finished days of a report are read from their journal rollup rather than raw events.
+ * Days the journal no longer has raw events for always are. In long ranges the rest are too,
+ * where hourly totals are plenty and raw events would dominate the cost, but only if the
+ * report neither shows nor exports individual sessions, which a rollup doesn't keep.
+ *
+ * A long weekly report without a heatmap goes one step further: each whole Monday week in the
+ * range is read from its weekly rollup, all on the week's first day, and the other six days
+ * come out empty. The table only totals whole weeks, so it can't tell the difference.
+ */
+class RollupPolicy implements DayReader.StoredDays {
+
+    // ranges this long read finished days from their rollups rather than raw events
+    static final int ROLLUP_MIN_DAYS = 31;
+
+    private final UsageRollups rollups;
+    private final long rawHistoryStart;
+    private final long[] dayBounds;
+    private final TimeZone zone;
+    private final boolean preferRollups;
+    // per day, the first day of the weekly rollup it's read from, or -1
+    private final int[] weekOf;
+    private int replayedWeek = -1;
+
+    // rawHistoryStart is the first moment the journal still has raw events for
+    RollupPolicy(UsageRollups rollups, long rawHistoryStart, long[] dayBounds, DayClock dayClock,
+                 ReportQuery query) {
+        this.rollups = rollups;
+        this.rawHistoryStart = rawHistoryStart;
+        this.dayBounds = dayBounds;
+        this.zone = dayClock.getTimeZone();
+        int dayCount = dayBounds.length - 1;
+        this.preferRollups = dayCount >= ROLLUP_MIN_DAYS && !query.needsSessions();
+
+        weekOf = new int[dayCount];
+        Arrays.fill(weekOf, -1);
+        if (preferRollups && query.getGranularity() == ReportQuery.Granularity.WEEKLY
+                && query.getHeatmapMinutes() == 0) {
+            for (int d = 0; d + 7 <= dayCount; d++) {
+                long start = dayBounds[d];
+                // only weeks wholly inside the range, so clipping to it never splits one
+                if (start == dayClock.startOfWeek(start) && start >= query.getStart()
+                        && dayBounds[d + 7] <= query.getEnd() && rollups.hasWeek(start, zone)) {
+                    Arrays.fill(weekOf, d, d + 7, d);
+                    d += 6;
+                }
+            }
+        }
+    }
+
+    boolean covers(int day) {
+        long dayStart = dayBounds[day];
+        return weekOf[day] >= 0 || ((preferRollups || dayStart < rawHistoryStart) && rollups.hasDay(dayStart, zone));
+    }
+
+    @Override
+    public boolean has(int day) {
+        return covers(day);
+    }
+
+    // false if the day should be read raw, or its rollup is missing or unreadable
+    @Override
+    public boolean replay(int day, UsageSessionizer.SessionSink sink) {
+        return replayWeek(day, sink) || replayDay(day, sink);
+    }
+
+    /**
+     * Replays the weekly rollup on its first day and nothing on the other six. False for a
+     * day outside the weeks, or in a week whose rollup couldn't be read; that week then falls
+     * back to its days.
+     */
+    boolean replayWeek(int day, UsageSessionizer.SessionSink sink) {
+        int week = weekOf[day];
+        if (week < 0) return false;
+        if (day == week) {
+            UsageRollups.Rollup rollup = rollups.getWeek(dayBounds[week], zone);
+            if (rollup == null) return false;
+            rollup.replay(day, sink);
+            replayedWeek = week;
+            return true;
+        }
+        if (replayedWeek != week) return false;
+        sink.onDayStart(day);
+        sink.onDayEnd(day);
+        return true;
+    }
+
+    private boolean replayDay(int day, UsageSessionizer.SessionSink sink) {
+        long dayStart = dayBounds[day];
+        if (!preferRollups && dayStart >= rawHistoryStart) return false;
+        UsageRollups.Rollup rollup = rollups.getDay(dayStart, zone);
+        if (rollup == null) return false;
+        rollup.replay(day, sink);
+        return true;
+    }
+
+    @Override
+    public void onDayRead(DayAggregateCache.DayAggregate aggregate) {
+    }
+}
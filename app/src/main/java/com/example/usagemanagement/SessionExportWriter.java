@@ -0,0 +1,187 @@
+package com.example.usagemanagement;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streams every session of a report to a CSV and a compact binary file as the event pass
+ * produces them, so the raw data can be analyzed without picking it out of the pdf.
+ *
+ * Records go through 64 KB buffers straight to the output streams; only the package table
+ * is kept in memory, so months of sessions export with the same footprint as a day.
+ *
+ * CSV: {@code participant_id,package,start_ms,end_ms,duration_ms,kind}, times in epoch ms.
+ * {@code kind} is {@code session}, or {@code rolled_up_day} for a marker row: a day whose
+ * sessions the journal no longer keeps, only its rollup, gets one row per app with the day's
+ * bounds and the app's time that day instead of the sessions.
+ *
+ * Binary (big-endian):
+ * <pre>
+ *   int magic, int version, utf participantId,
+ *   then records, each starting with a byte tag:
+ *     PACKAGE     int id, utf name                       (before the package's first record)
+ *     SESSION     int package id, long start, long end
+ *     ROLLED_UP   int package id, long dayStart, long dayEnd, long total
+ *     END         int session count                      (missing if the export was cut short)
+ * </pre>
+ */
+class SessionExportWriter implements UsageSessionizer.SessionSink {
+
+    private static final int MAGIC = 0x49475345; // "IGSE"
+    static final int VERSION = 2;
+    static final byte TAG_PACKAGE = 1;
+    static final byte TAG_SESSION = 2;
+    static final byte TAG_END = 3;
+    static final byte TAG_ROLLED_UP = 4;
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    private final String participantId;
+    private final long[] dayBounds;
+    private final Writer csv;
+    private final DataOutputStream binary;
+    private final PackageDictionary packages;
+    // dictionary ids already announced with a PACKAGE record
+    private boolean[] declared = new boolean[64];
+    private int sessionCount = 0;
+    // rolled-up time of the current day by dictionary id, and the ids in the order they came
+    private long[] rolledUp = new long[64];
+    private int[] rolledUpIds = new int[64];
+    private int rolledUpCount = 0;
+    private int rolledUpDays = 0;
+
+    // day i of the report covers [dayBounds[i], dayBounds[i + 1])
+    SessionExportWriter(String participantId, long[] dayBounds, OutputStream csvOut, OutputStream binaryOut,
+                        PackageDictionary packages) throws IOException {
+        this.packages = packages;
+        this.participantId = csvField(participantId);
+        this.dayBounds = dayBounds;
+        this.csv = new BufferedWriter(new OutputStreamWriter(csvOut, StandardCharsets.UTF_8), CHUNK_BYTES);
+        this.binary = new DataOutputStream(new BufferedOutputStream(binaryOut, CHUNK_BYTES));
+
+        csv.write("participant_id,package,start_ms,end_ms,duration_ms,kind\n");
+        binary.writeInt(MAGIC);
+        binary.writeInt(VERSION);
+        binary.writeUTF(participantId);
+    }
+
+    @Override
+    public void onDayStart(int day) {
+    }
+
+    @Override
+    public void onSession(int day, String packageName, long start, long end) {
+        try {
+            int id = declare(packageName);
+            binary.writeByte(TAG_SESSION);
+            binary.writeInt(id);
+            binary.writeLong(start);
+            binary.writeLong(end);
+            writeRow(packageName, start, end, end - start, "session");
+            sessionCount++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // rollup time isn't a session; it's summed per app and written as the day's marker rows
+    @Override
+    public void onSummary(int day, String packageName, long start, long end) {
+        int id = packages.idOf(packageName);
+        if (id >= rolledUp.length) {
+            rolledUp = Arrays.copyOf(rolledUp, Math.max(rolledUp.length * 2, id + 1));
+        }
+        if (rolledUp[id] == 0) {
+            if (rolledUpCount == rolledUpIds.length) {
+                rolledUpIds = Arrays.copyOf(rolledUpIds, rolledUpCount * 2);
+            }
+            rolledUpIds[rolledUpCount++] = id;
+        }
+        rolledUp[id] += end - start;
+    }
+
+    @Override
+    public void onDayEnd(int day) {
+        if (rolledUpCount == 0) return;
+        try {
+            for (int i = 0; i < rolledUpCount; i++) {
+                int id = rolledUpIds[i];
+                String packageName = packages.nameOf(id);
+                declare(packageName);
+                binary.writeByte(TAG_ROLLED_UP);
+                binary.writeInt(id);
+                binary.writeLong(dayBounds[day]);
+                binary.writeLong(dayBounds[day + 1]);
+                binary.writeLong(rolledUp[id]);
+                writeRow(packageName, dayBounds[day], dayBounds[day + 1], rolledUp[id], "rolled_up_day");
+                rolledUp[id] = 0;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        rolledUpCount = 0;
+        rolledUpDays++;
+    }
+
+    // the package's dictionary id, announced with a PACKAGE record the first time
+    private int declare(String packageName) throws IOException {
+        int id = packages.idOf(packageName);
+        if (id >= declared.length) {
+            declared = Arrays.copyOf(declared, Math.max(declared.length * 2, id + 1));
+        }
+        if (!declared[id]) {
+            declared[id] = true;
+            binary.writeByte(TAG_PACKAGE);
+            binary.writeInt(id);
+            binary.writeUTF(packageName);
+        }
+        return id;
+    }
+
+    private void writeRow(String packageName, long start, long end, long duration, String kind) throws IOException {
+        csv.write(participantId);
+        csv.write(',');
+        csv.write(packageName);
+        csv.write(',');
+        csv.write(Long.toString(start));
+        csv.write(',');
+        csv.write(Long.toString(end));
+        csv.write(',');
+        csv.write(Long.toString(duration));
+        csv.write(',');
+        csv.write(kind);
+        csv.write('\n');
+    }
+
+    int getSessionCount() {
+        return sessionCount;
+    }
+
+    // days that only had rollup time, written as marker rows
+    int getRolledUpDayCount() {
+        return rolledUpDays;
+    }
+
+    // writes the end marker and flushes both files; the caller closes the underlying streams
+    void finish() throws IOException {
+        binary.writeByte(TAG_END);
+        binary.writeInt(sessionCount);
+        binary.flush();
+        csv.flush();
+    }
+
+    // participant ids are generated by the app, but quote one anyway if it would break a row
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,485 @@
+package com.example.usagemanagement;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Font;
+import com.itextpdf.text.FontFactory;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.pdf.PdfPCell;
+import com.itextpdf.text.pdf.PdfPTable;
+import com.itextpdf.text.pdf.PdfWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Writes the usage report pdf with memory that stays flat no matter how long the range is.
+ *
+ * While the event pass runs, sessions are spooled to a small binary file (24 bytes each)
+ * and only per-app range totals are kept in memory. Once the top apps are known, the spool
+ * is replayed twice: first for the usage table (hourly, daily or weekly rows, flushed to
+ * the document in batches), then for the raw data (unless the query leaves it out), which
+ * goes into the document one day at a time. iText writes finished pages out as it goes, so nothing grows with the number of
+ * days or sessions.
+ *
+ * Spool record: int day, int package id, long start, long end. Summaries replayed from a
+ * rollup store the id as {@code -(id + 1)}: they count everywhere a session does, but the raw
+ * data section only adds them to the day's totals.
+ */
+class StreamingReportWriter implements UsageSessionizer.SessionSink, Closeable {
+
+    // table rows handed to the document at a time
+    private static final int TABLE_FLUSH_ROWS = 32;
+    static final int SPOOL_RECORD_BYTES = 24;
+
+    private final long[] dayBounds;
+    private final long[] rowBounds;
+    private final int topN;
+    private final SimpleDateFormat rowLabelFormat;
+    private final File spoolFile;
+    private final DataOutputStream spool;
+
+    // spool ids are the dictionary's; per-id arrays cover every id below idLimit
+    private final PackageDictionary packages;
+    private int idLimit = 0;
+    private long[] rangeTotals = new long[64];
+    private int sessionCount = 0;
+
+    // display names, resolved once per package id the first time the pdf needs them
+    private Labels labels = StreamingReportWriter::shortenPackageName;
+    private String[] appLabels = new String[64];
+
+    // optional intraday section, filled by its own sink during the same pass
+    private UsageHeatmap heatmap;
+    private boolean rawData = true;
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd-yy", Locale.getDefault());
+    private final SimpleDateFormat dateTimeFormat = new SimpleDateFormat("MM-dd-yy hh:mm:ss a", Locale.getDefault());
+
+    // for unit tests, which have no files dir for the app's dictionary; ids live in memory only
+    StreamingReportWriter(long[] dayBounds, long[] rowBounds, ReportQuery.Granularity granularity,
+                          int topN, File spoolFile) throws IOException {
+        this(dayBounds, rowBounds, granularity, topN, spoolFile, new PackageDictionary(null));
+    }
+
+    StreamingReportWriter(long[] dayBounds, long[] rowBounds, ReportQuery.Granularity granularity,
+                          int topN, File spoolFile, PackageDictionary packages) throws IOException {
+        // day i covers [dayBounds[i], dayBounds[i + 1]); table row i covers [rowBounds[i], rowBounds[i + 1])
+        this.packages = packages;
+        this.dayBounds = dayBounds;
+        this.rowBounds = rowBounds;
+        this.topN = topN;
+        this.rowLabelFormat = new SimpleDateFormat(
+                granularity == ReportQuery.Granularity.HOURLY ? "MM-dd-yy HH:00" : "MM-dd-yy", Locale.getDefault());
+        this.spoolFile = spoolFile;
+        this.spool = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spoolFile), 64 * 1024));
+    }
+
+    @Override
+    public void onDayStart(int day) {
+    }
+
+    @Override
+    public void onSession(int day, String packageName, long start, long end) {
+        int id = packageId(packageName);
+        spool(day, id, id, start, end);
+    }
+
+    @Override
+    public void onSummary(int day, String packageName, long start, long end) {
+        int id = packageId(packageName);
+        spool(day, id, -(id + 1), start, end);
+    }
+
+    private void spool(int day, int id, int spooledId, long start, long end) {
+        rangeTotals[id] += end - start;
+        sessionCount++;
+        try {
+            spool.writeInt(day);
+            spool.writeInt(spooledId);
+            spool.writeLong(start);
+            spool.writeLong(end);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void onDayEnd(int day) {
+    }
+
+    private int packageId(String packageName) {
+        int id = packages.idOf(packageName);
+        if (id >= idLimit) {
+            idLimit = id + 1;
+            if (idLimit > rangeTotals.length) {
+                int capacity = Math.max(rangeTotals.length * 2, idLimit);
+                rangeTotals = Arrays.copyOf(rangeTotals, capacity);
+                appLabels = Arrays.copyOf(appLabels, capacity);
+            }
+        }
+        return id;
+    }
+
+    // where app names in the pdf come from; the shortened package name by default
+    void setLabels(Labels labels) {
+        this.labels = labels;
+    }
+
+    private String label(int id) {
+        String label = appLabels[id];
+        if (label == null) {
+            label = labels.labelFor(packages.nameOf(id));
+            appLabels[id] = label;
+        }
+        return label;
+    }
+
+    // adds the heatmap tables (all apps plus the heatmap's packages) between the usage table and the raw data
+    void setHeatmap(UsageHeatmap heatmap) {
+        this.heatmap = heatmap;
+    }
+
+    // false leaves out the raw data section
+    void setRawData(boolean include) {
+        this.rawData = include;
+    }
+
+    int getSessionCount() {
+        return sessionCount;
+    }
+
+    // slots in the per-app arrays, the only in-memory state; sized by apps, never by sessions
+    int getAppCapacity() {
+        return rangeTotals.length;
+    }
+
+    /**
+     * Package ids of the n apps with the most time over the whole range, most used first.
+     * A min-heap of at most n entries keeps this O(apps log n) instead of sorting every app;
+     * ties go to the lower dictionary id (the app the phone saw first) so the result is
+     * deterministic.
+     */
+    int[] topApps(int n) {
+        if (n <= 0) return new int[0];
+        PriorityQueue<Integer> heap = new PriorityQueue<>(n, (a, b) -> {
+            int byTotal = Long.compare(rangeTotals[a], rangeTotals[b]);
+            return byTotal != 0 ? byTotal : Integer.compare(b, a);
+        });
+        for (int id = 0; id < idLimit; id++) {
+            if (rangeTotals[id] <= 0) continue;
+            if (heap.size() < n) {
+                heap.add(id);
+            } else if (heap.comparator().compare(id, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(id);
+            }
+        }
+        int[] top = new int[heap.size()];
+        for (int k = top.length - 1; k >= 0; k--) {
+            top[k] = heap.poll();
+        }
+        return top;
+    }
+
+    /** Writes intro, usage table, heatmap and raw data to {@code out}; call after the event pass finished. */
+    void writePdf(String introText, OutputStream out) throws IOException, DocumentException {
+        spool.close();
+
+        Document document = new Document();
+        PdfWriter.getInstance(document, out);
+        document.open();
+
+        // write intro text
+        Font normalFont = FontFactory.getFont(FontFactory.COURIER, 10);
+        document.add(new Paragraph(introText, normalFont));
+
+        // write table in the middle
+        writeUsageTable(document, normalFont);
+
+        if (heatmap != null) {
+            heatmap.writeTables(document, labels);
+        }
+
+        // write raw data last, one day at a time
+        if (rawData) {
+            document.add(new Paragraph("\n———RAW DATA———\n", normalFont));
+            writeRawData(document, normalFont);
+        }
+        document.add(new Paragraph("\n——USAGE REPORT END——\n", normalFont));
+
+        document.close();
+    }
+
+    // builds the usage table (one row per hour, day or week) with lines
+    private void writeUsageTable(Document document, Font font) throws IOException, DocumentException {
+        int[] top = topApps(topN);
+        if (top.length == 0) {
+            // fallback single-cell table so pdf won't be empty
+            PdfPTable pdfTable = new PdfPTable(1);
+            pdfTable.setWidthPercentage(100f);
+            pdfTable.addCell(new PdfPCell(new Paragraph("no usage data", font)));
+            document.add(pdfTable);
+            return;
+        }
+
+        int[] column = new int[idLimit];
+        Arrays.fill(column, -1);
+        for (int i = 0; i < top.length; i++) {
+            column[top[i]] = i;
+        }
+
+        // first replay of the spool: split each session of a top app across the rows it spans
+        int rowCount = rowBounds.length - 1;
+        long[] usage = new long[rowCount * top.length];
+        try (SpoolReader sessions = new SpoolReader()) {
+            for (int day = 0; day < dayBounds.length - 1; day++) {
+                while (sessions.next(day)) {
+                    int col = column[sessions.id];
+                    if (col < 0) continue;
+                    int row = rowOf(sessions.start);
+                    for (; row < rowCount && rowBounds[row] < sessions.end; row++) {
+                        long overlap = Math.min(sessions.end, rowBounds[row + 1]) - Math.max(sessions.start, rowBounds[row]);
+                        if (overlap > 0) {
+                            usage[row * top.length + col] += overlap;
+                        }
+                    }
+                }
+            }
+        }
+
+        int numCols = top.length + 1;
+        PdfPTable pdfTable = new PdfPTable(numCols);
+        pdfTable.setWidthPercentage(100f);
+        pdfTable.setComplete(false);
+
+        // header row: "date" plus top app names
+        String[] row = new String[numCols];
+        row[0] = "date";
+        for (int i = 0; i < top.length; i++) {
+            row[i + 1] = label(top[i]);
+        }
+        addRow(pdfTable, row, font);
+
+        long[] grandTotals = new long[top.length];
+        int rowsSinceFlush = 0;
+        for (int r = 0; r < rowCount; r++) {
+            row[0] = rowLabelFormat.format(new Date(rowBounds[r]));
+            for (int i = 0; i < top.length; i++) {
+                long ms = usage[r * top.length + i];
+                row[i + 1] = formatMinutesSeconds(ms);
+                grandTotals[i] += ms;
+            }
+            addRow(pdfTable, row, font);
+            if (++rowsSinceFlush == TABLE_FLUSH_ROWS) {
+                // rows already added are written out and released
+                document.add(pdfTable);
+                rowsSinceFlush = 0;
+            }
+        }
+
+        // total and average rows
+        row[0] = "total";
+        for (int i = 0; i < top.length; i++) {
+            row[i + 1] = formatMinutesSeconds(grandTotals[i]);
+        }
+        addRow(pdfTable, row, font);
+
+        row[0] = "avg";
+        for (int i = 0; i < top.length; i++) {
+            long avgMs = (rowCount == 0) ? 0 : grandTotals[i] / rowCount;
+            row[i + 1] = formatMinutesSeconds(avgMs);
+        }
+        addRow(pdfTable, row, font);
+
+        pdfTable.setComplete(true);
+        document.add(pdfTable);
+    }
+
+    // the row whose range contains timestamp (the first row for anything before it)
+    private int rowOf(long timestamp) {
+        int index = Arrays.binarySearch(rowBounds, timestamp);
+        return index >= 0 ? index : Math.max(0, -index - 2);
+    }
+
+    private static void addRow(PdfPTable table, String[] row, Font font) {
+        for (String cellText : row) {
+            table.addCell(new PdfPCell(new Paragraph(cellText, font)));
+        }
+    }
+
+    private void writeRawData(Document document, Font font) throws IOException, DocumentException {
+        int dayCount = dayBounds.length - 1;
+        StringBuilder text = new StringBuilder();
+        // per-app totals for the day by package id, and the ids used in the order they appeared
+        long[] dailyTotals = new long[idLimit];
+        int[] usedIds = new int[idLimit];
+
+        try (SpoolReader sessions = new SpoolReader()) {
+            for (int day = 0; day < dayCount; day++) {
+                text.setLength(0);
+                int usedCount = 0;
+                boolean rolledUp = false;
+                text.append(formatDate(dayBounds[day])).append(":\n");
+
+                while (sessions.next(day)) {
+                    long dur;
+                    if (sessions.summary) {
+                        // individual sessions are gone for this day, only its totals are left
+                        dur = sessions.end - sessions.start;
+                        rolledUp = true;
+                    } else {
+                        // the raw list shows at least 1s for anything > 0
+                        dur = Math.max(sessions.end - sessions.start, 1000);
+                        text.append(label(sessions.id)).append(": ")
+                                .append(formatTimeRange(sessions.start, sessions.end))
+                                .append(" (")
+                                .append(formatDuration(dur))
+                                .append(")\n");
+                    }
+                    if (dailyTotals[sessions.id] == 0) {
+                        usedIds[usedCount++] = sessions.id;
+                    }
+                    dailyTotals[sessions.id] += dur;
+                }
+
+                if (usedCount == 0) {
+                    // means we never got a valid resumed->paused pair
+                    text.append("No phone usage\n\n");
+                } else {
+                    if (rolledUp) {
+                        text.append("(from the daily rollup, sessions not kept)\n");
+                    }
+                    // now print a 2-col table of total daily usage by app
+                    text.append("\n App\t\t total daily time \n");
+                    for (int i = 0; i < usedCount; i++) {
+                        int id = usedIds[i];
+                        text.append(label(id)).append(":\t\t")
+                                .append(formatMinutesSeconds(dailyTotals[id]))
+                                .append("\n");
+                        dailyTotals[id] = 0;
+                    }
+                    text.append("\n");
+                }
+                document.add(new Paragraph(text.toString(), font));
+            }
+        }
+    }
+
+    // reads the spool back in order, one day at a time
+    private final class SpoolReader implements Closeable {
+        private final DataInputStream in;
+        private int remaining = sessionCount;
+        private boolean buffered = false;
+        int day;
+        int id;
+        boolean summary;
+        long start;
+        long end;
+
+        SpoolReader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(spoolFile), 64 * 1024));
+        }
+
+        // loads the next session if it belongs to targetDay; false once that day is done
+        boolean next(int targetDay) throws IOException {
+            if (!buffered) {
+                if (remaining == 0) return false;
+                day = in.readInt();
+                id = in.readInt();
+                summary = id < 0;
+                if (summary) {
+                    id = -id - 1;
+                }
+                start = in.readLong();
+                end = in.readLong();
+                remaining--;
+                buffered = true;
+            }
+            if (day != targetDay) return false;
+            buffered = false;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // deletes the spool; safe to call more than once
+    @Override
+    public void close() {
+        try {
+            spool.close();
+        } catch (IOException ignored) {
+        }
+        spoolFile.delete();
+    }
+
+    /** Display name for a package in the pdf. */
+    interface Labels {
+        String labelFor(String packageName);
+    }
+
+    // fallback name when there is no app label: strips "com.", ".android" and "example."
+    static String shortenPackageName(String packageName) {
+        String shortName = packageName;
+
+        // remove all occurrences of "android"
+        shortName = shortName.replace("com.", "");
+        shortName = shortName.replace(".android", "");
+        shortName = shortName.replace("example.", "");
+
+        return shortName;
+    }
+
+    // helper to convert milliseconds to "Xm Ys"
+    static String formatMinutesSeconds(long durationMs) {
+        if (durationMs <= 0) {
+            return "0m 0s";
+        }
+        long minutes = durationMs / 60000;
+        long seconds = (durationMs % 60000) / 1000;
+        return minutes + "m " + seconds + "s";
+    }
+
+    static String formatDuration(long durationMillis) {
+        if (durationMillis < 0 || durationMillis > 24 * 60 * 60 * 1000) {
+            return "0 min 0 sec"; // Prevent extreme durations
+        }
+
+        long minutes = durationMillis / 60000;
+        long seconds = (durationMillis % 60000) / 1000;
+
+        // Ensure at least 1 second is displayed for nonzero durations
+        if (minutes == 0 && seconds == 0 && durationMillis > 0) {
+            seconds = 1;  // Force 1 second minimum for small durations
+        }
+
+        return minutes + " min " + seconds + " sec";
+    }
+
+    private String formatDate(long timestamp) {
+        return dateFormat.format(new Date(timestamp));
+    }
+
+    private String formatTimeRange(long start, long end) {
+        return dateTimeFormat.format(new Date(start)) + " - "
+                + dateTimeFormat.format(new Date(end));
+    }
+}
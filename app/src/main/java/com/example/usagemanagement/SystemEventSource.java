@@ -0,0 +1,42 @@
+package com.example.usagemanagement;
+
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageStatsManager;
+import android.content.Context;
+import android.util.Log;
+
+/** Reads events straight from UsageStatsManager.queryEvents. */
+class SystemEventSource implements EventSource {
+
+    private static final String TAG = "SystemEventSource";
+
+    private final Context context;
+
+    SystemEventSource(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public void read(long begin, long end, Visitor visitor) {
+        if (end <= begin) return;
+        UsageStatsManager usageStatsManager = (UsageStatsManager) context.getSystemService(Context.USAGE_STATS_SERVICE);
+        if (usageStatsManager == null) {
+            Log.w(TAG, "UsageStatsManager is null.");
+            return;
+        }
+        UsageEvents events = usageStatsManager.queryEvents(begin, end);
+        if (events == null) {
+            Log.w(TAG, "UsageStatsManager returned null for events.");
+            return;
+        }
+
+        UsageEvents.Event event = new UsageEvents.Event();
+        while (events.hasNextEvent()) {
+            events.getNextEvent(event);
+            int eventType = event.getEventType();
+            if (eventType == ACTIVITY_RESUMED || eventType == ACTIVITY_PAUSED) {
+                visitor.onEvent(event.getPackageName(), event.getTimeStamp(), eventType);
+            }
+        }
+    }
+}
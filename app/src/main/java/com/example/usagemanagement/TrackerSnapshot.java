@@ -0,0 +1,130 @@
+package com.example.usagemanagement;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Fixed-layout checkpoint of the tracker state, so a restarted process can pick up the day
+ * where it left off instead of re-scanning from midnight.
+ *
+ * The file is always {@link #SIZE} bytes and is overwritten in place from a reused buffer.
+ * A CRC32 at the end guards against torn writes; a snapshot that fails the check is
+ * ignored and the tracker falls back to a full scan.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   int magic, int version, long watchListFingerprint, int appCount,
+ *   long dayStart, long watermark, long lastResetTime,
+ *   int activeApp, int lastInactiveApp,
+ *   long sessionStartTime, long sessionConfirmed, long lastInactiveTime,
+ *   MAX_APPS x (long total, long lastOpened),
+ *   long crc32 of everything above
+ * </pre>
+ */
+class TrackerSnapshot {
+
+    static final int MAX_APPS = 32;
+
+    private static final int MAGIC = 0x49475453; // "IGTS"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8 * 3 + 4 * 2 + 8 * 3;
+    private static final int BODY_SIZE = HEADER_SIZE + MAX_APPS * 16;
+    static final int SIZE = BODY_SIZE + 8;
+
+    private final File file;
+    private final ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+    private final CRC32 crc = new CRC32();
+
+    long watchListFingerprint;
+    int appCount;
+    long dayStart;
+    long watermark;
+    long lastResetTime;
+    int activeApp = -1;
+    int lastInactiveApp = -1;
+    long sessionStartTime;
+    long sessionConfirmed;
+    long lastInactiveTime;
+    final long[] totals = new long[MAX_APPS];
+    final long[] lastOpened = new long[MAX_APPS];
+
+    TrackerSnapshot(File file) {
+        this.file = file;
+    }
+
+    // stable across process restarts, unlike identity hashes
+    static long fingerprint(String[] packages) {
+        long h = 1125899906842597L;
+        for (String name : packages) {
+            h = 31 * h + name.hashCode();
+            h = 31 * h + name.length();
+        }
+        return h;
+    }
+
+    void write() throws IOException {
+        buffer.clear();
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(watchListFingerprint).putInt(appCount)
+                .putLong(dayStart).putLong(watermark).putLong(lastResetTime)
+                .putInt(activeApp).putInt(lastInactiveApp)
+                .putLong(sessionStartTime).putLong(sessionConfirmed).putLong(lastInactiveTime);
+        for (int i = 0; i < MAX_APPS; i++) {
+            buffer.putLong(totals[i]).putLong(lastOpened[i]);
+        }
+        crc.reset();
+        crc.update(buffer.array(), 0, BODY_SIZE);
+        buffer.putLong(crc.getValue());
+        buffer.flip();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            // the buffer position doubles as the file offset since the layout starts at 0
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, buffer.position());
+            }
+        }
+    }
+
+    // returns false when there is no usable snapshot; fields are left untouched in that case
+    boolean read() throws IOException {
+        if (!file.exists() || file.length() != SIZE) return false;
+
+        buffer.clear();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) return false;
+            }
+        }
+        buffer.flip();
+
+        crc.reset();
+        crc.update(buffer.array(), 0, BODY_SIZE);
+        if (buffer.getLong(BODY_SIZE) != crc.getValue()) return false;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return false;
+
+        long fingerprint = buffer.getLong();
+        int count = buffer.getInt();
+        if (count < 0 || count > MAX_APPS) return false;
+
+        watchListFingerprint = fingerprint;
+        appCount = count;
+        dayStart = buffer.getLong();
+        watermark = buffer.getLong();
+        lastResetTime = buffer.getLong();
+        activeApp = buffer.getInt();
+        lastInactiveApp = buffer.getInt();
+        sessionStartTime = buffer.getLong();
+        sessionConfirmed = buffer.getLong();
+        lastInactiveTime = buffer.getLong();
+        for (int i = 0; i < MAX_APPS; i++) {
+            totals[i] = buffer.getLong();
+            lastOpened[i] = buffer.getLong();
+        }
+        return true;
+    }
+}
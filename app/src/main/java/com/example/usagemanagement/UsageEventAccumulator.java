@@ -0,0 +1,97 @@
+package com.example.usagemanagement;
+
+import java.util.Arrays;
+
+/**
+ * Folds ACTIVITY_RESUMED / ACTIVITY_PAUSED events of a fixed set of apps into running
+ * foreground totals for one local day.
+ *
+ * Apps are addressed by their index in the watch list, and the per-app state lives in
+ * two flat arrays so a single pass over the event stream updates every app at once.
+ * The accumulator remembers a watermark (the end of the last queried range) and the
+ * start of any session that is still open, so callers only need to feed it events newer
+ * than {@link #getWatermark()} instead of re-scanning the whole day on every tick.
+ */
+class UsageEventAccumulator {
+
+    static final long NO_WATERMARK = -1;
+
+    private final long[] totalForegroundTime;
+    private final long[] lastOpenedTime;
+    private long dayStart = -1;
+    private long watermark = NO_WATERMARK;
+
+    UsageEventAccumulator(int appCount) {
+        totalForegroundTime = new long[appCount];
+        lastOpenedTime = new long[appCount];
+        Arrays.fill(lastOpenedTime, -1);
+    }
+
+    // drops all folded state; the next fold starts again from the beginning of dayStart
+    void reset(long dayStart) {
+        this.dayStart = dayStart;
+        this.watermark = dayStart;
+        Arrays.fill(totalForegroundTime, 0);
+        Arrays.fill(lastOpenedTime, -1);
+    }
+
+    // resumes from a checkpoint; only events after the watermark need to be folded in
+    void restore(long dayStart, long watermark, long[] totals, long[] lastOpened) {
+        this.dayStart = dayStart;
+        this.watermark = watermark;
+        System.arraycopy(totals, 0, totalForegroundTime, 0, totalForegroundTime.length);
+        System.arraycopy(lastOpened, 0, lastOpenedTime, 0, lastOpenedTime.length);
+    }
+
+    void invalidate() {
+        watermark = NO_WATERMARK;
+    }
+
+    // the watermark is only usable for the same day and never ahead of the current clock
+    boolean isWatermarkValid(long dayStart, long now) {
+        return watermark != NO_WATERMARK
+                && this.dayStart == dayStart
+                && watermark >= dayStart
+                && watermark <= now;
+    }
+
+    void onResumed(int app, long timestamp) {
+        lastOpenedTime[app] = timestamp;
+    }
+
+    // returns when the closed session started, or -1 if no session was open
+    long onPaused(int app, long timestamp) {
+        long openedAt = lastOpenedTime[app];
+        if (openedAt != -1) {
+            totalForegroundTime[app] += timestamp - openedAt;
+            lastOpenedTime[app] = -1;
+        }
+        return openedAt;
+    }
+
+    void advanceWatermark(long queryEnd) {
+        if (queryEnd > watermark) {
+            watermark = queryEnd;
+        }
+    }
+
+    int getAppCount() {
+        return totalForegroundTime.length;
+    }
+
+    long getDayStart() {
+        return dayStart;
+    }
+
+    long getWatermark() {
+        return watermark;
+    }
+
+    long getTotalForegroundTime(int app) {
+        return totalForegroundTime[app];
+    }
+
+    long getLastOpenedTime(int app) {
+        return lastOpenedTime[app];
+    }
+}
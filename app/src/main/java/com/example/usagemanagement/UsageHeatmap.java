@@ -0,0 +1,232 @@
+package com.example.usagemanagement;
+
+import com.itextpdf.text.BaseColor;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Font;
+import com.itextpdf.text.FontFactory;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.pdf.PdfPCell;
+import com.itextpdf.text.pdf.PdfPTable;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Foreground time by local day and time of day (hour or a fraction of one), for all apps and
+ * for the packages the report shows, filled in the same session pass as the rest of the report.
+ *
+ * Each shown package gets one {@code long[days * bucketsPerDay]}, allocated up front, plus one
+ * for all apps together; every other app only counts towards the total. A session is split
+ * across the buckets it touches with plain arithmetic, so nothing is allocated per session.
+ * Buckets are wall-clock times of day, so on the day clocks go forward the skipped hour stays
+ * empty and on the day they go back both passes of the repeated hour land in the same bucket.
+ */
+class UsageHeatmap implements UsageSessionizer.SessionSink {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    // table rows handed to the document at a time
+    private static final int TABLE_FLUSH_ROWS = 32;
+
+    private final long[] dayBounds;
+    private final int dayCount;
+    private final long bucketMs;
+    private final int bucketsPerDay;
+    private final TimeZone zone;
+
+    private final long[] allApps;
+    private final PackageDictionary packages;
+    // the packages with their own table, their dictionary ids and matrices, in the same order
+    private final String[] trackedPackages;
+    private final int[] trackedIds;
+    private final long[][] perApp;
+    // whether a tracked package had any usage in this range
+    private final boolean[] used;
+
+    // bucketMinutes must divide an hour evenly (15, 20, 30, 60...)
+    UsageHeatmap(long[] dayBounds, int bucketMinutes, TimeZone zone, PackageDictionary packages,
+                 String... trackedPackages) {
+        if (bucketMinutes <= 0 || 60 % bucketMinutes != 0) {
+            throw new IllegalArgumentException("bucket must divide an hour: " + bucketMinutes);
+        }
+        this.dayBounds = dayBounds;
+        this.dayCount = dayBounds.length - 1;
+        this.bucketMs = bucketMinutes * 60 * 1000L;
+        this.bucketsPerDay = (int) (DAY_MS / bucketMs);
+        this.zone = zone;
+        this.packages = packages;
+        this.allApps = new long[dayCount * bucketsPerDay];
+        this.trackedPackages = trackedPackages;
+        this.trackedIds = packages.idsOf(trackedPackages);
+        this.perApp = new long[trackedPackages.length][dayCount * bucketsPerDay];
+        this.used = new boolean[trackedPackages.length];
+    }
+
+    @Override
+    public void onDayStart(int day) {
+    }
+
+    @Override
+    public void onSession(int day, String packageName, long start, long end) {
+        long[] app = trackedMatrix(packageName);
+        int rowStart = day * bucketsPerDay;
+        long t = Math.max(start, dayBounds[day]);
+        long stop = Math.min(end, dayBounds[day + 1]);
+        while (t < stop) {
+            long timeOfDay = Math.floorMod(t + zone.getOffset(t), DAY_MS);
+            int bucket = (int) (timeOfDay / bucketMs);
+            long next = Math.min(stop, t + (bucketMs - timeOfDay % bucketMs));
+            allApps[rowStart + bucket] += next - t;
+            if (app != null) {
+                app[rowStart + bucket] += next - t;
+            }
+            t = next;
+        }
+    }
+
+    @Override
+    public void onDayEnd(int day) {
+    }
+
+    // the matrix of a tracked package, marked as used; null for everything else
+    private long[] trackedMatrix(String packageName) {
+        int id = packages.find(packageName);
+        for (int i = 0; i < trackedIds.length; i++) {
+            if (trackedIds[i] == id) {
+                used[i] = true;
+                return perApp[i];
+            }
+        }
+        return null;
+    }
+
+    // the matrix of a tracked package with usage in this range, or null
+    private long[] matrixOrNull(String packageName) {
+        for (int i = 0; i < trackedPackages.length; i++) {
+            if (trackedPackages[i].equals(packageName)) {
+                return used[i] ? perApp[i] : null;
+            }
+        }
+        return null;
+    }
+
+    int getDayCount() {
+        return dayCount;
+    }
+
+    int getBucketsPerDay() {
+        return bucketsPerDay;
+    }
+
+    long getBucketMs() {
+        return bucketMs;
+    }
+
+    /** Milliseconds in the foreground across all apps for a day and bucket. */
+    long getTotal(int day, int bucket) {
+        return allApps[day * bucketsPerDay + bucket];
+    }
+
+    /** Milliseconds a tracked package was in the foreground for a day and bucket; 0 otherwise. */
+    long getUsage(String packageName, int day, int bucket) {
+        long[] matrix = matrixOrNull(packageName);
+        return matrix == null ? 0 : matrix[day * bucketsPerDay + bucket];
+    }
+
+    boolean hasUsage(String packageName) {
+        return matrixOrNull(packageName) != null;
+    }
+
+    /**
+     * Adds a day x hour table for all apps and one for each tracked package that had any usage.
+     * Finer buckets are summed into their hour so the table fits the page; cells show minutes
+     * and get darker with more use.
+     */
+    void writeTables(Document document, StreamingReportWriter.Labels labels) throws DocumentException {
+        Font titleFont = FontFactory.getFont(FontFactory.COURIER, 10);
+        Font cellFont = FontFactory.getFont(FontFactory.COURIER, 5);
+
+        document.add(new Paragraph("\n———HOURLY HEATMAP (minutes)———\n", titleFont));
+        writeTable(document, "all apps", allApps, titleFont, cellFont);
+        for (int i = 0; i < trackedPackages.length; i++) {
+            if (used[i]) {
+                writeTable(document, labels.labelFor(trackedPackages[i]), perApp[i], titleFont, cellFont);
+            }
+        }
+    }
+
+    private void writeTable(Document document, String title, long[] matrix, Font titleFont, Font cellFont)
+            throws DocumentException {
+        int perHour = (int) (HOUR_MS / bucketMs);
+        long[] hours = new long[24];
+        long max = 0;
+        for (int day = 0; day < dayCount; day++) {
+            for (int hour = 0; hour < 24; hour++) {
+                max = Math.max(max, hourTotal(matrix, day, hour, perHour));
+            }
+        }
+
+        document.add(new Paragraph("\n" + title + "\n", titleFont));
+        PdfPTable table = new PdfPTable(25);
+        table.setWidthPercentage(100f);
+        float[] widths = new float[25];
+        Arrays.fill(widths, 1f);
+        widths[0] = 3f;
+        table.setWidths(widths);
+        table.setHeaderRows(1);
+        table.setComplete(false);
+
+        table.addCell(cell("date", cellFont, null));
+        for (int hour = 0; hour < 24; hour++) {
+            table.addCell(cell(String.valueOf(hour), cellFont, null));
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd-yy", Locale.getDefault());
+        dateFormat.setTimeZone(zone);
+        int rowsSinceFlush = 0;
+        for (int day = 0; day < dayCount; day++) {
+            table.addCell(cell(dateFormat.format(new Date(dayBounds[day])), cellFont, null));
+            for (int hour = 0; hour < 24; hour++) {
+                hours[hour] = hourTotal(matrix, day, hour, perHour);
+            }
+            for (int hour = 0; hour < 24; hour++) {
+                long ms = hours[hour];
+                table.addCell(cell(ms > 0 ? String.valueOf((ms + 30_000) / 60_000) : "",
+                        cellFont, ms > 0 ? shade(ms, max) : null));
+            }
+            if (++rowsSinceFlush == TABLE_FLUSH_ROWS) {
+                document.add(table);
+                rowsSinceFlush = 0;
+            }
+        }
+        table.setComplete(true);
+        document.add(table);
+    }
+
+    private long hourTotal(long[] matrix, int day, int hour, int perHour) {
+        int from = day * bucketsPerDay + hour * perHour;
+        long sum = 0;
+        for (int i = from; i < from + perHour; i++) {
+            sum += matrix[i];
+        }
+        return sum;
+    }
+
+    // white for nothing, down to a mid gray at the busiest cell so the text stays readable
+    private static BaseColor shade(long ms, long max) {
+        int level = 255 - (int) (127 * ms / Math.max(max, 1));
+        return new BaseColor(level, level, level);
+    }
+
+    private static PdfPCell cell(String text, Font font, BaseColor background) {
+        PdfPCell cell = new PdfPCell(new Paragraph(text, font));
+        if (background != null) {
+            cell.setBackgroundColor(background);
+        }
+        return cell;
+    }
+}
@@ -0,0 +1,349 @@
+package com.example.usagemanagement;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The app's own append-only record of foreground history, so reports and rescans don't
+ * depend on how long the system keeps UsageStats events or how slow they are to query.
+ *
+ * Two streams are kept, each as one segment file per UTC day (so a zone change never
+ * renames anything):
+ * <ul>
+ *   <li>{@link Stream#USAGE}: resume/pause events copied from UsageStats by
+ *       {@link JournalEventSource#ingest}, plus an ingestion mark after each batch and one
+ *       where the first batch's backfill starts.</li>
+ *   <li>{@link Stream#FOREGROUND}: watched-app transitions seen by the accessibility service,
+ *       replayed as resume/pause by {@link #readForegroundAsUsage} where UsageStats has
+ *       nothing (e.g. usage access was revoked).</li>
+ * </ul>
+ *
+ * Records are fixed size ({@code long timestamp, int package id, byte type}), appended in
+ * timestamp order through a per-stream buffer and a FileChannel, so an append is a few
+ * buffer puts under a lock. Range reads flush, then memory-map each segment and binary
+ * search for the start. Package ids are the app-wide ones from {@link PackageDictionary},
+ * which persists a name before its id can be used. A torn record at the end of a segment
+ * (crash mid-write) is cut off when the journal opens, as are usage events after the last
+ * ingestion mark.
+ */
+class UsageJournal {
+
+    enum Stream {
+        USAGE("usage"),
+        FOREGROUND("fg");
+
+        final String prefix;
+
+        Stream(String prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    // record types; resume and pause use the UsageEvents values
+    static final byte TYPE_MARK = 0;
+    static final byte TYPE_FOREGROUND = 3;
+
+    static final long NO_MARK = -1;
+    // package id of "some app we don't watch" in the foreground stream
+    static final int OTHER_PACKAGE = PackageDictionary.NOT_FOUND;
+    // package id of the mark where the usage stream's history starts
+    static final int HISTORY_START = -2;
+
+    private static final String DIR_NAME = "journal";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    static final int RECORD_BYTES = 13;
+    private static final int BUFFER_RECORDS = 1024;
+
+    private static UsageJournal instance;
+
+    private final File dir;
+    private final PackageDictionary packages;
+    private final Appender[] appenders;
+    private long ingestedUntil;
+
+    UsageJournal(File dir, PackageDictionary packages) throws IOException {
+        if (!packages.isPersistent()) {
+            // records would point at ids that mean nothing after a restart
+            throw new IOException("package dictionary is not on disk");
+        }
+        this.dir = dir;
+        this.packages = packages;
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("could not create " + dir);
+        }
+        this.appenders = new Appender[Stream.values().length];
+        for (Stream stream : Stream.values()) {
+            appenders[stream.ordinal()] = new Appender(stream);
+        }
+        this.ingestedUntil = rollBackToLastMark();
+    }
+
+    // the app's journal under its files directory, opened once per process
+    static synchronized UsageJournal getInstance(File filesDir) throws IOException {
+        if (instance == null) {
+            instance = new UsageJournal(new File(filesDir, DIR_NAME), PackageDictionary.getInstance(filesDir));
+        }
+        return instance;
+    }
+
+    /** Appends one UsageStats resume or pause. Events must arrive in timestamp order. */
+    synchronized void appendUsage(String packageName, long timestamp, int eventType) {
+        appenders[Stream.USAGE.ordinal()].append(timestamp, packages.idOf(packageName), (byte) eventType);
+    }
+
+    /**
+     * Records that the app with dictionary id {@code packageId} ({@link #OTHER_PACKAGE} for
+     * an unwatched one) took the foreground. Can write to disk, so keep it off the main thread.
+     */
+    synchronized void appendForeground(int packageId, long timestamp) {
+        appenders[Stream.FOREGROUND.ordinal()].append(timestamp, packageId, TYPE_FOREGROUND);
+    }
+
+    /**
+     * Marks the usage stream complete up to {@code until} (exclusive) and flushes it, so the
+     * mark and the events before it reach the file together.
+     */
+    synchronized void markIngested(long until) throws IOException {
+        Appender usage = appenders[Stream.USAGE.ordinal()];
+        usage.append(until, OTHER_PACKAGE, TYPE_MARK);
+        usage.flush();
+        ingestedUntil = until;
+    }
+
+    /**
+     * Marks where the first ingestion starts reading, ahead of its events. It goes out with
+     * the batch, and counts as an ingestion mark if the batch fails after flushing part way.
+     */
+    synchronized void markHistoryStart(long from) {
+        appenders[Stream.USAGE.ordinal()].append(from, HISTORY_START, TYPE_MARK);
+    }
+
+    /**
+     * The first moment the usage stream has every event from: the history start mark if the
+     * oldest segment begins with it, otherwise that segment's UTC midnight (older journals,
+     * or once retention has deleted the first segment). NO_MARK if there are no segments.
+     */
+    long getHistoryStart() throws IOException {
+        long[] days = segmentDays(Stream.USAGE);
+        if (days.length == 0) return NO_MARK;
+        try (RandomAccessFile segment = new RandomAccessFile(segmentFile(Stream.USAGE, days[0]), "r")) {
+            if (segment.length() >= RECORD_BYTES) {
+                long timestamp = segment.readLong();
+                int id = segment.readInt();
+                if (id == HISTORY_START && segment.readByte() == TYPE_MARK) return timestamp;
+            }
+        }
+        return days[0] * DAY_MS;
+    }
+
+    // drops a batch that failed part way: buffered events and anything flushed after the last mark
+    synchronized void abortIngestion() throws IOException {
+        appenders[Stream.USAGE.ordinal()].discard();
+        ingestedUntil = rollBackToLastMark();
+    }
+
+    // the usage stream holds every event before this; NO_MARK if nothing was ingested yet
+    synchronized long getIngestedUntil() {
+        return ingestedUntil;
+    }
+
+    synchronized void flush() throws IOException {
+        for (Appender appender : appenders) {
+            appender.flush();
+        }
+    }
+
+    /**
+     * Delivers the records of a stream with {@code begin <= timestamp < end} in order. Resume
+     * and pause carry their package; foreground records carry the watched package or null.
+     * The visitor runs without the journal lock held, so appends are never blocked by a read.
+     */
+    void read(Stream stream, long begin, long end, EventSource.Visitor visitor) {
+        if (end <= begin) return;
+        synchronized (this) {
+            try {
+                appenders[stream.ordinal()].flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        String[] names = packages.names();
+
+        long firstDay = Math.floorDiv(begin, DAY_MS);
+        long lastDay = Math.floorDiv(end - 1, DAY_MS);
+        for (long day : segmentDays(stream)) {
+            if (day < firstDay || day > lastDay) continue;
+            File file = segmentFile(stream, day);
+            try (RandomAccessFile segment = new RandomAccessFile(file, "r")) {
+                FileChannel channel = segment.getChannel();
+                int count = (int) (channel.size() / RECORD_BYTES);
+                if (count == 0) continue;
+                MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) count * RECORD_BYTES);
+
+                for (int i = firstAtOrAfter(records, count, begin); i < count; i++) {
+                    int offset = i * RECORD_BYTES;
+                    long timestamp = records.getLong(offset);
+                    if (timestamp >= end) return;
+                    byte type = records.get(offset + 12);
+                    if (type == TYPE_MARK) continue;
+                    int id = records.getInt(offset + 8);
+                    visitor.onEvent(id >= 0 && id < names.length ? names[id] : null, timestamp, type);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * The foreground stream in {@code [begin, end)} as resume/pause events: a transition pauses
+     * the watched app that had the foreground and resumes the new one, if it is watched. The
+     * app in the foreground at {@code begin} is taken from the day before, so only its pause is
+     * delivered; an app still in the foreground at {@code end} is left resumed.
+     */
+    void readForegroundAsUsage(long begin, long end, EventSource.Visitor visitor) {
+        String[] current = new String[1];
+        read(Stream.FOREGROUND, begin - DAY_MS, end, (packageName, timestamp, eventType) -> {
+            if (timestamp >= begin && (packageName == null || !packageName.equals(current[0]))) {
+                if (current[0] != null) {
+                    visitor.onEvent(current[0], timestamp, EventSource.ACTIVITY_PAUSED);
+                }
+                if (packageName != null) {
+                    visitor.onEvent(packageName, timestamp, EventSource.ACTIVITY_RESUMED);
+                }
+            }
+            current[0] = packageName;
+        });
+    }
+
+    // index of the first record at or after timestamp; segments are in timestamp order
+    private static int firstAtOrAfter(ByteBuffer records, int count, long timestamp) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (records.getLong(mid * RECORD_BYTES) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The newest mark in the usage stream. Anything after it is from a batch that never
+     * finished, so it is cut off; the next ingestion reads those events again.
+     */
+    private long rollBackToLastMark() throws IOException {
+        long[] days = segmentDays(Stream.USAGE);
+        for (int d = days.length - 1; d >= 0; d--) {
+            File file = segmentFile(Stream.USAGE, days[d]);
+            try (RandomAccessFile segment = new RandomAccessFile(file, "rw")) {
+                FileChannel channel = segment.getChannel();
+                int count = (int) (channel.size() / RECORD_BYTES);
+                MappedByteBuffer records = count == 0 ? null
+                        : channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) count * RECORD_BYTES);
+                for (int i = count - 1; i >= 0; i--) {
+                    if (records.get(i * RECORD_BYTES + 12) == TYPE_MARK) {
+                        long mark = records.getLong(i * RECORD_BYTES);
+                        segment.setLength((long) (i + 1) * RECORD_BYTES);
+                        return mark;
+                    }
+                }
+            }
+            file.delete();
+        }
+        return NO_MARK;
+    }
+
+    // utc day numbers of a stream's segments, oldest first
+    long[] segmentDays(Stream stream) {
+        String[] names = dir.list((d, name) -> name.startsWith(stream.prefix + "-") && name.endsWith(SEGMENT_SUFFIX));
+        if (names == null) return new long[0];
+        long[] days = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            try {
+                days[count] = Long.parseLong(name.substring(stream.prefix.length() + 1, name.length() - SEGMENT_SUFFIX.length()));
+                count++;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        days = Arrays.copyOf(days, count);
+        Arrays.sort(days);
+        return days;
+    }
+
+    File segmentFile(Stream stream, long day) {
+        return new File(dir, stream.prefix + "-" + day + SEGMENT_SUFFIX);
+    }
+
+    File getDir() {
+        return dir;
+    }
+
+    // the dictionary the records' package ids come from
+    PackageDictionary getPackages() {
+        return packages;
+    }
+
+    // buffers one stream's records and writes them to the segment of their day
+    private final class Appender {
+        private final Stream stream;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_RECORDS * RECORD_BYTES);
+        private long bufferedDay = Long.MIN_VALUE;
+
+        Appender(Stream stream) throws IOException {
+            this.stream = stream;
+            long[] days = segmentDays(stream);
+            if (days.length > 0) {
+                // cut a torn record off the newest segment
+                File newest = segmentFile(stream, days[days.length - 1]);
+                try (RandomAccessFile segment = new RandomAccessFile(newest, "rw")) {
+                    segment.setLength(segment.length() / RECORD_BYTES * RECORD_BYTES);
+                }
+            }
+        }
+
+        void append(long timestamp, int packageId, byte type) {
+            long day = Math.floorDiv(timestamp, DAY_MS);
+            try {
+                if ((day != bufferedDay && buffer.position() > 0) || !buffer.hasRemaining()) {
+                    flush();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            bufferedDay = day;
+            buffer.putLong(timestamp);
+            buffer.putInt(packageId);
+            buffer.put(type);
+        }
+
+        void discard() {
+            buffer.clear();
+        }
+
+        void flush() throws IOException {
+            if (buffer.position() == 0) return;
+            buffer.flip();
+            try (RandomAccessFile segment = new RandomAccessFile(segmentFile(stream, bufferedDay), "rw")) {
+                FileChannel channel = segment.getChannel();
+                channel.position(channel.size());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } finally {
+                buffer.clear();
+            }
+        }
+    }
+}
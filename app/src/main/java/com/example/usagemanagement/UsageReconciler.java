@@ -0,0 +1,194 @@
+package com.example.usagemanagement;
+
+import java.util.Arrays;
+
+/**
+ * Merges the accessibility timeline (when a watched app gained and lost the foreground) with
+ * the authoritative UsageStats timeline (closed resume/pause sessions) as both arrive.
+ *
+ * Each accessibility session is kept as a pending segment until UsageStats has confirmed it.
+ * Authoritative sessions are assigned to the pending segment of the same app they overlap
+ * most, so the live estimate for an app is
+ * <pre>
+ *   UsageStats total + accessibility time not yet confirmed by UsageStats
+ * </pre>
+ * which corrects itself as soon as the authoritative events land, without re-scanning the day.
+ *
+ * A segment that UsageStats hasn't confirmed at all after {@link #SETTLE_GRACE_MS} is settled
+ * with its time carried over, so the estimate doesn't drop back while UsageStats lags; the
+ * carry is paid off by authoritative time that arrives later and no longer has a segment to
+ * go to. What is left of a partly confirmed segment is drift and is dropped as before.
+ *
+ * Memory is bounded: at most {@link #MAX_PENDING} segments are pending (the oldest is
+ * settled early if more arrive), and drift statistics keep only the last
+ * {@link #DRIFT_WINDOW} sessions for the percentile.
+ */
+class UsageReconciler {
+
+    static final int MAX_PENDING = 16;
+    static final int DRIFT_WINDOW = 256;
+    // a closed segment with no further UsageStats data after this long is settled as-is
+    static final long SETTLE_GRACE_MS = 10000;
+
+    private static final long OPEN = -1;
+
+    // pending segments, oldest first
+    private final int[] segApp = new int[MAX_PENDING];
+    private final long[] segStart = new long[MAX_PENDING];
+    private final long[] segEnd = new long[MAX_PENDING];
+    private final long[] segConfirmed = new long[MAX_PENDING];
+    private int pending = 0;
+
+    // unconfirmed time of expired segments, per app, until UsageStats catches up with it
+    private long[] carried = new long[0];
+
+    // |confirmed - measured| of settled sessions
+    private final long[] driftWindow = new long[DRIFT_WINDOW];
+    private final long[] driftScratch = new long[DRIFT_WINDOW];
+    private long settledSessions = 0;
+    private long driftSum = 0;
+
+    void onSessionStart(int app, long timestamp) {
+        if (pending == MAX_PENDING) {
+            settle(0);
+        }
+        segApp[pending] = app;
+        segStart[pending] = timestamp;
+        segEnd[pending] = OPEN;
+        segConfirmed[pending] = 0;
+        pending++;
+    }
+
+    // restores an open segment after a restart, including what UsageStats already confirmed
+    void restoreOpenSession(int app, long start, long confirmed) {
+        onSessionStart(app, start);
+        segConfirmed[pending - 1] = confirmed;
+    }
+
+    void onSessionEnd(int app, long timestamp) {
+        int k = lastSegment(app);
+        if (k >= 0 && segEnd[k] == OPEN) {
+            segEnd[k] = timestamp;
+        }
+    }
+
+    // a quick return to the same app continues its last segment instead of starting a new one
+    boolean reopenLastSession(int app) {
+        int k = lastSegment(app);
+        if (k >= 0 && k == pending - 1 && segEnd[k] != OPEN) {
+            segEnd[k] = OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    /** Feeds one authoritative resume/pause session from UsageStats. */
+    void onAuthoritativeSession(int app, long start, long end, long now) {
+        int best = -1;
+        long bestOverlap = 0;
+        for (int k = 0; k < pending; k++) {
+            if (segApp[k] != app) continue;
+            long segmentEnd = segEnd[k] == OPEN ? now : segEnd[k];
+            long overlap = Math.min(end, segmentEnd) - Math.max(start, segStart[k]);
+            if (overlap > bestOverlap) {
+                bestOverlap = overlap;
+                best = k;
+            }
+        }
+        if (best >= 0) {
+            segConfirmed[best] += end - start;
+        } else if (app < carried.length) {
+            // a late confirmation of a segment that has already been settled
+            carried[app] -= Math.min(carried[app], end - start);
+        }
+
+        // UsageStats has moved past these segments, so nothing more will arrive for them
+        for (int k = pending - 1; k >= 0; k--) {
+            if (segApp[k] == app && segEnd[k] != OPEN && segEnd[k] <= start) {
+                settle(k);
+            }
+        }
+    }
+
+    // settles closed segments that UsageStats has been quiet about for SETTLE_GRACE_MS
+    void settleExpired(long now) {
+        for (int k = pending - 1; k >= 0; k--) {
+            if (segEnd[k] != OPEN && now - segEnd[k] > SETTLE_GRACE_MS) {
+                if (segConfirmed[k] == 0) carry(segApp[k], segEnd[k] - segStart[k]);
+                settle(k);
+            }
+        }
+    }
+
+    /** Accessibility time for the app that UsageStats hasn't confirmed yet. */
+    long unconfirmed(int app, long now) {
+        long total = app < carried.length ? carried[app] : 0;
+        for (int k = 0; k < pending; k++) {
+            if (segApp[k] != app) continue;
+            long segmentEnd = segEnd[k] == OPEN ? now : segEnd[k];
+            long remaining = (segmentEnd - segStart[k]) - segConfirmed[k];
+            if (remaining > 0) total += remaining;
+        }
+        return total;
+    }
+
+    // what UsageStats has confirmed of the app's open segment so far
+    long openSessionConfirmed(int app) {
+        int k = lastSegment(app);
+        return k >= 0 && segEnd[k] == OPEN ? segConfirmed[k] : 0;
+    }
+
+    void clear() {
+        pending = 0;
+        Arrays.fill(carried, 0);
+    }
+
+    private int lastSegment(int app) {
+        for (int k = pending - 1; k >= 0; k--) {
+            if (segApp[k] == app) return k;
+        }
+        return -1;
+    }
+
+    private void carry(int app, long ms) {
+        if (app >= carried.length) {
+            carried = Arrays.copyOf(carried, app + 1);
+        }
+        carried[app] += ms;
+    }
+
+    private void settle(int k) {
+        long measured = (segEnd[k] == OPEN ? segStart[k] : segEnd[k]) - segStart[k];
+        long drift = Math.abs(segConfirmed[k] - measured);
+        driftWindow[(int) (settledSessions % DRIFT_WINDOW)] = drift;
+        settledSessions++;
+        driftSum += drift;
+
+        int tail = pending - k - 1;
+        if (tail > 0) {
+            System.arraycopy(segApp, k + 1, segApp, k, tail);
+            System.arraycopy(segStart, k + 1, segStart, k, tail);
+            System.arraycopy(segEnd, k + 1, segEnd, k, tail);
+            System.arraycopy(segConfirmed, k + 1, segConfirmed, k, tail);
+        }
+        pending--;
+    }
+
+    long getSettledSessions() {
+        return settledSessions;
+    }
+
+    long getMeanDriftMs() {
+        return settledSessions == 0 ? 0 : driftSum / settledSessions;
+    }
+
+    // p95 of the drift over the last DRIFT_WINDOW settled sessions
+    long getP95DriftMs() {
+        int n = (int) Math.min(settledSessions, DRIFT_WINDOW);
+        if (n == 0) return 0;
+        System.arraycopy(driftWindow, 0, driftScratch, 0, n);
+        Arrays.sort(driftScratch, 0, n);
+        int index = (int) Math.ceil(n * 0.95) - 1;
+        return driftScratch[Math.max(0, index)];
+    }
+}
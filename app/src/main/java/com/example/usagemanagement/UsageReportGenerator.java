@@ -1,530 +1,581 @@
 package com.example.usagemanagement;
 
-import android.app.usage.UsageEvents;
-import android.app.usage.UsageStats;
-import android.app.usage.UsageStatsManager;
 import android.content.ContentValues;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.util.Log;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.CancellationException;
 
-import com.itextpdf.text.Document;
 import com.itextpdf.text.DocumentException;
-import com.itextpdf.text.Font;
-import com.itextpdf.text.FontFactory;
-import com.itextpdf.text.Paragraph;
-import com.itextpdf.text.pdf.PdfPCell;
-import com.itextpdf.text.pdf.PdfPTable;
-import com.itextpdf.text.pdf.PdfWriter;
 
 public class UsageReportGenerator {
     private static final String TAG = "UsageReportGenerator";
+    // how many events are streamed between cancellation checks
+    private static final String SPOOL_FILE = "report.spool";
+    // ranges with at least this many uncached days are computed one day per task
+    private static final int PARALLEL_MIN_DAYS = 14;
+    private static final int MAX_THREADS = 8;
+    // today's events newer than this may still arrive out of order, so they stay out of the checkpoint
+    private static final long CHECKPOINT_LAG_MS = 60 * 1000;
+
     private final Context context;
+    private final DayClock dayClock = DayClock.getInstance();
+    private final DayAggregateCache dayCache;
+    private final EventSource eventSource;
+    private final JournalEventSource journalSource;
+    private final PackageDictionary packages;
+    private final DayReader dayReader;
+    private volatile boolean cancelled = false;
+    private ProgressListener progressListener;
 
     public UsageReportGenerator(Context context) {
         this.context = context;
+        this.dayCache = DayAggregateCache.inFilesDir(context.getFilesDir());
+        this.journalSource = JournalEventSource.getInstance(context);
+        this.eventSource = journalSource;
+        this.packages = PackageDictionary.getInstance(context.getFilesDir());
+        this.dayReader = new DayReader(eventSource, packages, this::throwIfCancelled);
+    }
+
+    // called on the generating thread after each day of the range has been processed
+    public void setProgressListener(ProgressListener listener) {
+        this.progressListener = listener;
     }
 
-    public void generateUsageReport() {
-        // define date range for usage
-        Calendar endCalendar = Calendar.getInstance();
-        endCalendar.add(Calendar.DAY_OF_YEAR, -1); // shift to "yesterday"
-        Date exactEnd = getEndOfDay((Calendar) endCalendar.clone());
+    // may be called from any thread; the report stops at its next check
+    public void cancel() {
+        cancelled = true;
+    }
 
-        Calendar startCalendar = Calendar.getInstance();
-        startCalendar.add(Calendar.DAY_OF_YEAR, -7);
-        Date exactStart = getStartOfDay((Calendar) startCalendar.clone());
+    private void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException("usage report cancelled");
+        }
+    }
+
+    /**
+     * Builds the report the query describes and saves it to Downloads.
+     * Blocking; run it off the main thread (see {@link ReportJob}).
+     *
+     * @return the uri of the saved pdf
+     * @throws CancellationException if {@link #cancel()} was called
+     */
+    public Uri generateUsageReport(ReportQuery query) throws IOException, DocumentException {
+        // whole local days covering the query range; sessions are clipped to the range itself
+        Date exactStart = new Date(query.getStart());
+        Date exactEnd = new Date(query.getEnd() - 1);
+        long[] dayBounds = dayClock.dayBoundaries(exactStart.getTime(), exactEnd.getTime());
 
         // 1) build the intro text
         StringBuilder introBuilder = new StringBuilder();
         introBuilder.append("——USAGE REPORT START——\n")
-                .append("today's date: ").append(formatDate(Calendar.getInstance().getTime())).append("\n")
-                .append("time zone on phone: ").append(Calendar.getInstance().getTimeZone().getID()).append("\n")
+                .append("today's date: ").append(formatDate(new Date())).append("\n")
+                .append("time zone on phone: ").append(dayClock.getTimeZone().getID()).append("\n")
                 .append("date span: ").append(formatDate(exactStart)).append(" to ")
-                .append(formatDate(exactEnd)).append("\n\n");
-        // store final intro text
-        String introText = introBuilder.toString();
-
-        // 2) gather usage data for the date span
-        List<UsageStats> usageStatsList = queryUsageStats(exactStart, exactEnd);
-        List<AppUsage> appUsages = calculateAppUsage(usageStatsList, exactStart, exactEnd);
-        Collections.sort(appUsages, Comparator.comparingLong(AppUsage::getTotalUsage).reversed());
-
-        // pick top 5
-        List<AppUsage> top5Apps = appUsages.subList(0, Math.min(5, appUsages.size()));
-
-        // 3) build daily usage table or fallback
-        String[][] tableData;
-        if (top5Apps.isEmpty()) {
-            // fallback single-cell table so pdf won't be empty
-            tableData = new String[][] { { "no usage data" } };
-        } else {
-            tableData = buildDailyTableData(top5Apps, exactStart, exactEnd);
+                .append(formatDate(exactEnd)).append("\n");
+        if (query.getGranularity() != ReportQuery.Granularity.DAILY) {
+            introBuilder.append("rows: ").append(query.getGranularity().name().toLowerCase(Locale.US)).append("\n");
         }
-
-        // 4) build the raw data text
-        StringBuilder rawBuilder = new StringBuilder();
-        rawBuilder.append("\n———RAW DATA———\n");
-        appendRawData(rawBuilder, exactStart, exactEnd);
-        rawBuilder.append("\n——USAGE REPORT END——\n");
-        // store final raw text
-        String rawText = rawBuilder.toString();
-
-        // 5) produce pdf with intro text at top, the table next, then raw data
-        saveReportAsPdf(introText, tableData, rawText);
-    }
-
-    private List<AppUsage> calculateAppUsage(List<UsageStats> usageStatsList, Date start, Date end) {
-        long daysInRange = getDaysBetween(start, end);
-        Map<String, Long> appUsageMap = new HashMap<>();
-
-        for (UsageStats stats : usageStatsList) {
-            long totalTime = stats.getTotalTimeInForeground();
-            if (totalTime > 0) {
-                appUsageMap.put(stats.getPackageName(), appUsageMap.getOrDefault(stats.getPackageName(), 0L) + totalTime);
+        if (query.isFiltered()) {
+            introBuilder.append("apps: ")
+                    .append(query.getIncludedPackages().isEmpty() ? "all" : query.getIncludedPackages().toString());
+            if (!query.getExcludedPackages().isEmpty()) {
+                introBuilder.append(" except ").append(query.getExcludedPackages());
             }
+            introBuilder.append("\n");
         }
-
-        List<AppUsage> appUsages = new ArrayList<>();
-        for (Map.Entry<String, Long> entry : appUsageMap.entrySet()) {
-            appUsages.add(new AppUsage(entry.getKey(), entry.getValue(), daysInRange));
+        if (!query.isIncludingRawData()) {
+            introBuilder.append("raw data: left out\n");
         }
+        introBuilder.append("\n");
+        // store final intro text
+        String introText = introBuilder.toString();
 
-        return appUsages;
-    }
-
-    // builds a day-by-day usage table with lines, stripping "com."
-    private String[][] buildDailyTableData(List<AppUsage> topApps, Date start, Date end) {
-        // (1) gather usage day by day
-        Map<String, Map<String, Long>> dayAppUsage = new HashMap<>();
-
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(start);
-
-        while (!cal.getTime().after(end)) {
-            Calendar dayStartCal = (Calendar) cal.clone();
-            Calendar dayEndCal   = (Calendar) cal.clone();
-            Date dayStart = getStartOfDay(dayStartCal);
-            Date dayEnd   = getEndOfDay(dayEndCal);
-
-            String dayStr = formatDate(dayStart);
-
-            // retrieve usage events for this day
-            List<UsageEvent> events = queryUsageEvents(dayStart.getTime(), dayEnd.getTime());
-            Map<String, Long> usageMap = new HashMap<>();
-            Map<String, Long> resumedMap = new HashMap<>();
-
-            for (UsageEvent e : events) {
-                if (e.eventType == UsageEvents.Event.ACTIVITY_RESUMED) {
-                    resumedMap.put(e.packageName, e.timestamp);
-                } else if (e.eventType == UsageEvents.Event.ACTIVITY_PAUSED) {
-                    Long startTs = resumedMap.remove(e.packageName);
-                    if (startTs != null && isValidSession(startTs, e.timestamp)) {
-                        long dur = e.timestamp - startTs;
-                        usageMap.put(e.packageName, usageMap.getOrDefault(e.packageName, 0L) + dur);
-                    }
-                }
+        // 2) one pass over the whole range spools the sessions and totals the apps
+        String fileStamp = new SimpleDateFormat("MM-dd_HH:mm", Locale.getDefault()).format(new Date());
+        File spoolFile = new File(context.getCacheDir(), SPOOL_FILE);
+        try (StreamingReportWriter writer = new StreamingReportWriter(dayBounds,
+                query.rowBounds(dayBounds, dayClock), query.getGranularity(), query.getTopN(), spoolFile, packages);
+             SessionExport export = query.isExportingSessions() ? new SessionExport(fileStamp, dayBounds) : null) {
+            AppLabelResolver labels = AppLabelResolver.getInstance(context);
+            writer.setLabels(labels);
+            writer.setRawData(query.isIncludingRawData());
+            UsageSessionizer.SessionSink sink = writer;
+            if (query.getHeatmapMinutes() > 0) {
+                UsageHeatmap heatmap = new UsageHeatmap(dayBounds, query.getHeatmapMinutes(), dayClock.getTimeZone(),
+                        packages, WatchList.INSTAGRAM_PACKAGE_NAME);
+                writer.setHeatmap(heatmap);
+                sink = new TeeSink(sink, heatmap);
+            }
+            if (export != null) {
+                // sessions are written out as the pass produces them
+                sink = new TeeSink(sink, export.writer);
             }
-            dayAppUsage.put(dayStr, usageMap);
-
-            // next day
-            cal.add(Calendar.DAY_OF_YEAR, 1);
-            cal.set(Calendar.HOUR_OF_DAY, 0);
-            cal.set(Calendar.MINUTE, 0);
-            cal.set(Calendar.SECOND, 0);
-            cal.set(Calendar.MILLISECOND, 0);
-        }
-
-        // (2) create header row: "date" plus top app names
-        int numCols = topApps.size() + 1;
-        List<String[]> rows = new ArrayList<>();
-
-        String[] headerRow = new String[numCols];
-        headerRow[0] = "date";
-        for (int i = 0; i < topApps.size(); i++) {
-            headerRow[i + 1] = shortenPackageName(topApps.get(i).getPackageName());
-        }
-        rows.add(headerRow);
-
-        // track totals
-        Map<String, Long> grandTotals = new HashMap<>();
-
-        // (3) fill day rows
-        Calendar printCal = Calendar.getInstance();
-        printCal.setTime(start);
-
-        while (!printCal.getTime().after(end)) {
-            String dayStr = formatDate(printCal.getTime());
-            String[] row = new String[numCols];
-            row[0] = dayStr;
-
-            Map<String, Long> usageMap = dayAppUsage.get(dayStr);
-            for (int i = 0; i < topApps.size(); i++) {
-                AppUsage app = topApps.get(i);
-                long ms = (usageMap != null)
-                        ? usageMap.getOrDefault(app.getPackageName(), 0L)
-                        : 0L;
 
-                String fm = formatMinutesSeconds(ms);
-                row[i + 1] = fm;
+            long passStart = SystemClock.elapsedRealtime();
+            streamSessions(dayBounds, new ProgressSink(new QuerySink(sink, query), dayBounds.length - 1), query);
+            long passEnd = SystemClock.elapsedRealtime();
 
-                grandTotals.put(app.getPackageName(),
-                        grandTotals.getOrDefault(app.getPackageName(), 0L) + ms);
+            // 3) produce pdf with intro text at top, the table and heatmap next, then raw data
+            throwIfCancelled();
+            if (export != null) {
+                export.finish();
             }
-            rows.add(row);
+            Uri uri = saveReportAsPdf(fileStamp, introText, writer);
+            long pdfEnd = SystemClock.elapsedRealtime();
+            labels.save();
 
-            printCal.add(Calendar.DAY_OF_YEAR, 1);
+            Log.i(TAG, "report timings: events " + (passEnd - passStart) + " ms (" + writer.getSessionCount()
+                    + " sessions), pdf " + (pdfEnd - passEnd) + " ms");
+            return uri;
         }
+    }
 
-        // (4) add total row
-        String[] totalRow = new String[numCols];
-        totalRow[0] = "total";
-        for (int i = 0; i < topApps.size(); i++) {
-            long sum = grandTotals.getOrDefault(topApps.get(i).getPackageName(), 0L);
-            totalRow[i + 1] = formatMinutesSeconds(sum);
+    /**
+     * Feeds every day of the range to the sink: finished days from {@link #streamPastDays},
+     * today incrementally from its checkpoint, and any days after today empty.
+     */
+    private void streamSessions(long[] dayBounds, UsageSessionizer.SessionSink sink, ReportQuery query) {
+        TimeZone zone = dayClock.getTimeZone();
+        long todayStart = dayClock.getDayStart(System.currentTimeMillis());
+        int dayCount = dayBounds.length - 1;
+
+        int pastDays = 0;
+        while (pastDays < dayCount && dayBounds[pastDays + 1] <= todayStart) {
+            pastDays++;
         }
-        rows.add(totalRow);
-
-        // (5) add average row
-        String[] avgRow = new String[numCols];
-        avgRow[0] = "avg";
-        long daysCount = getDaysBetween(start, end);
-        for (int i = 0; i < topApps.size(); i++) {
-            long sum = grandTotals.getOrDefault(topApps.get(i).getPackageName(), 0L);
-            long avgMs = (daysCount == 0) ? 0 : sum / daysCount;
-            avgRow[i + 1] = formatMinutesSeconds(avgMs);
+        if (pastDays > 0) {
+            streamPastDays(Arrays.copyOf(dayBounds, pastDays + 1), sink, todayStart, zone, query);
         }
-        rows.add(avgRow);
-
-        // convert to a 2D array
-        String[][] tableData = new String[rows.size()][];
-        for (int r = 0; r < rows.size(); r++) {
-            tableData[r] = rows.get(r);
+        for (int day = pastDays; day < dayCount; day++) {
+            if (dayBounds[day] == todayStart) {
+                streamToday(dayBounds[day], dayBounds[day + 1], day, sink, zone);
+            } else {
+                sink.onDayStart(day);
+                sink.onDayEnd(day);
+            }
         }
-        return tableData;
-    }
-
-
-    // helper to strip "com." from the front
-    private String shortenPackageName(String packageName) {
-        String shortName = packageName;
-
-        // remove all occurrences of "android"
-        shortName = shortName.replace("com.", "");
-        shortName = shortName.replace(".android", "");
-        shortName = shortName.replace("example.", "");
-
-        return shortName;
     }
 
-    // helper to convert milliseconds to "Xm Ys"
-    private String formatMinutesSeconds(long durationMs) {
-        if (durationMs <= 0) {
-            return "0m 0s";
+    /**
+     * Finished days come from the day cache, or from their journal rollup where the
+     * {@link RollupPolicy} says so; the rest are read by the {@link DayReader}, in parallel
+     * for long ranges, and cached as they complete.
+     */
+    private void streamPastDays(long[] dayBounds, UsageSessionizer.SessionSink sink, long todayStart,
+                                TimeZone zone, ReportQuery query) {
+        int dayCount = dayBounds.length - 1;
+        StoredDays stored = new StoredDays(dayBounds, todayStart, zone, new RollupPolicy(journalSource.getRollups(),
+                journalSource.getRawHistoryStart(), dayBounds, dayClock, query));
+
+        int missingDays = 0;
+        for (int day = 0; day < dayCount; day++) {
+            if (!stored.has(day)) {
+                missingDays++;
+            }
         }
-        long minutes = durationMs / 60000;
-        long seconds = (durationMs % 60000) / 1000;
-        return minutes + "m " + seconds + "s";
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS);
+        if (threads > 1 && missingDays >= PARALLEL_MIN_DAYS) {
+            dayReader.readParallel(dayBounds, sink, threads, stored);
+            Log.d(TAG, "report days merged from " + threads + " threads.");
+        } else {
+            dayReader.readSequential(dayBounds, sink, stored);
+        }
+        Log.d(TAG, stored.cachedDays + " of " + dayCount + " days read from the day cache, "
+                + stored.rolledUpDays + " from rollups.");
     }
 
-    private void appendRawData(StringBuilder report, Date start, Date end) {
-        Calendar currentDate = Calendar.getInstance();
-        currentDate.setTime(start);
-
-        while (!currentDate.getTime().after(end)) {
-            // day header
-            String dayStr = formatDate(currentDate.getTime());
-            report.append(dayStr).append(":\n");
+    // weekly rollups first, as a cached day inside one would count twice; then the day cache,
+    // then the daily rollups. Days read from events are cached once they're over
+    private class StoredDays implements DayReader.StoredDays {
+        private final long[] dayBounds;
+        private final long todayStart;
+        private final TimeZone zone;
+        private final RollupPolicy rollupPolicy;
+        int cachedDays = 0;
+        int rolledUpDays = 0;
+
+        StoredDays(long[] dayBounds, long todayStart, TimeZone zone, RollupPolicy rollupPolicy) {
+            this.dayBounds = dayBounds;
+            this.todayStart = todayStart;
+            this.zone = zone;
+            this.rollupPolicy = rollupPolicy;
+        }
 
-            long startOfDay = getStartOfDay(currentDate).getTime();
-            long endOfDay = getEndOfDay(currentDate).getTime();
+        @Override
+        public boolean has(int day) {
+            return (dayBounds[day + 1] <= todayStart && dayCache.contains(dayBounds[day], zone))
+                    || rollupPolicy.has(day);
+        }
 
-            // gather usage events for this day
-            List<UsageEvent> usageEvents = queryUsageEvents(startOfDay, endOfDay);
-            if (usageEvents.isEmpty()) {
-                report.append("No phone usage\n\n");
-                currentDate.add(Calendar.DAY_OF_YEAR, 1);
-                continue;
+        @Override
+        public boolean replay(int day, UsageSessionizer.SessionSink sink) {
+            if (rollupPolicy.replayWeek(day, sink)) {
+                rolledUpDays++;
+                return true;
             }
-
-            // build a chronological list of (app, start, end, duration)
-            // by pairing ACTIVITY_RESUMED -> ACTIVITY_PAUSED
-            // 1) sort by timestamp
-            usageEvents.sort(Comparator.comparingLong(e -> e.timestamp));
-
-            // 2) create sessions
-            List<SessionEntry> sessions = new ArrayList<>();
-            Map<String, Long> sessionStartMap = new HashMap<>();
-
-            for (UsageEvent e : usageEvents) {
-                if (e.eventType == UsageEvents.Event.ACTIVITY_RESUMED) {
-                    sessionStartMap.put(e.packageName, e.timestamp);
-                } else if (e.eventType == UsageEvents.Event.ACTIVITY_PAUSED) {
-                    Long startTs = sessionStartMap.remove(e.packageName);
-                    if (startTs != null && isValidSession(startTs, e.timestamp)) {
-                        long dur = e.timestamp - startTs;
-
-                        // enforce at least 1s if >0
-                        if (dur > 0 && dur < 1000) {
-                            dur = 1000;
-                        }
-                        sessions.add(new SessionEntry(
-                                shortenPackageName(e.packageName),
-                                startTs,
-                                e.timestamp,
-                                dur));
-                    }
-                }
+            DayAggregateCache.DayAggregate cached = dayBounds[day + 1] <= todayStart
+                    ? dayCache.get(dayBounds[day], zone) : null;
+            if (cached != null) {
+                cached.replay(day, sink);
+                cachedDays++;
+                return true;
             }
-
-            if (sessions.isEmpty()) {
-                // means we never got a valid resumed->paused pair
-                report.append("No phone usage\n\n");
-                currentDate.add(Calendar.DAY_OF_YEAR, 1);
-                continue;
+            if (rollupPolicy.replay(day, sink)) {
+                rolledUpDays++;
+                return true;
             }
+            return false;
+        }
 
-            // sessions are already sorted by startTime, so just print them
-            for (SessionEntry s : sessions) {
-                report.append(s.appName).append(": ")
-                        .append(formatTimeRange(s.startTime, s.endTime))
-                        .append(" (")
-                        .append(formatDuration(s.durationMs))
-                        .append(")\n");
-            }
+        @Override
+        public void onDayRead(DayAggregateCache.DayAggregate aggregate) {
+            cacheDay(aggregate, todayStart, zone);
+        }
+    }
 
-            // now print a 2-col table of total daily usage by app
-            // accumulate usage in a map
-            Map<String, Long> dailyUsageMap = new HashMap<>();
-            for (SessionEntry s : sessions) {
-                dailyUsageMap.put(
-                        s.appName,
-                        dailyUsageMap.getOrDefault(s.appName, 0L) + s.durationMs
-                );
+    /**
+     * Today so far, continuing from the last report's checkpoint: its sessions are replayed,
+     * its open sessions are restored into the sessionizer, and only events after its
+     * watermark are queried. A refresh therefore costs time in proportion to what happened
+     * since the last one. The new checkpoint stops {@link #CHECKPOINT_LAG_MS} before now;
+     * the events after that still go into this report, but the next one reads them again.
+     */
+    private void streamToday(long dayStart, long dayEnd, int day, UsageSessionizer.SessionSink sink, TimeZone zone) {
+        long now = System.currentTimeMillis();
+        DayAggregateCache.Checkpoint checkpoint = dayCache.getCheckpoint(dayStart, zone);
+        DayAggregateCache.Builder builder = new DayAggregateCache.Builder();
+        UsageSessionizer.SessionSink collecting = new UsageSessionizer.SessionSink() {
+            @Override
+            public void onDayStart(int ignored) {
             }
 
-            report.append("\n App\t\t total daily time \n");
-            for (Map.Entry<String, Long> entry : dailyUsageMap.entrySet()) {
-                String app = entry.getKey();
-                long totalMs = entry.getValue();
-                report.append(app).append(":\t\t")
-                        .append(formatMinutesSeconds(totalMs))
-                        .append("\n");
+            @Override
+            public void onSession(int ignored, String packageName, long start, long end) {
+                builder.add(packageName, start, end);
+                sink.onSession(day, packageName, start, end);
             }
-            report.append("\n");
 
-            // move to next day
-            currentDate.add(Calendar.DAY_OF_YEAR, 1);
+            @Override
+            public void onDayEnd(int ignored) {
+            }
+        };
+        UsageSessionizer sessionizer = new UsageSessionizer(new long[] { dayStart, dayEnd }, collecting, packages);
+
+        sink.onDayStart(day);
+        long from = dayStart;
+        if (checkpoint != null) {
+            checkpoint.day.replaySessions(0, collecting);
+            for (int i = 0; i < checkpoint.openPackages.length; i++) {
+                sessionizer.restoreOpenSession(checkpoint.openPackages[i], checkpoint.openStarts[i]);
+            }
+            from = checkpoint.watermark;
+        }
+        long watermark = Math.max(from, now - CHECKPOINT_LAG_MS);
+
+        TodayScan scan = new TodayScan(sessionizer, builder, dayStart, dayEnd, watermark);
+        eventSource.read(from, now, scan);
+        scan.settle();
+        sessionizer.finish();
+        sink.onDayEnd(day);
+
+        DayAggregateCache.DayAggregate settled = scan.settled;
+        // stored by name; ids could be in-memory only
+        int[] openIds = scan.settledOpen.keys();
+        String[] openPackages = new String[openIds.length];
+        for (int i = 0; i < openIds.length; i++) {
+            openPackages[i] = packages.nameOf(openIds[i]);
         }
+        long[] openStarts = scan.settledOpen.values();
+        try {
+            dayCache.putCheckpoint(new DayAggregateCache.Checkpoint(settled, watermark, openPackages, openStarts), zone);
+        } catch (IOException e) {
+            Log.w(TAG, "could not save today's checkpoint", e);
+        }
+        Log.d(TAG, "today: " + scan.eventCount + " events since " + (checkpoint != null ? "checkpoint" : "midnight"));
     }
 
-    // helper method to query usage events
-    private List<UsageEvent> queryUsageEvents(long start, long end) {
-        UsageStatsManager usageStatsManager = (UsageStatsManager) context.getSystemService(Context.USAGE_STATS_SERVICE);
-        if (usageStatsManager == null) {
-            Log.w(TAG, "UsageStatsManager is null.");
-            return new ArrayList<>();
+    // feeds today's events to the sessionizer, capturing its state when they pass the watermark
+    private class TodayScan implements EventSource.Visitor {
+        private final UsageSessionizer sessionizer;
+        private final DayAggregateCache.Builder builder;
+        private final long dayStart;
+        private final long dayEnd;
+        private final long watermark;
+        DayAggregateCache.DayAggregate settled;
+        IntLongMap settledOpen;
+        int eventCount = 0;
+
+        TodayScan(UsageSessionizer sessionizer, DayAggregateCache.Builder builder,
+                  long dayStart, long dayEnd, long watermark) {
+            this.sessionizer = sessionizer;
+            this.builder = builder;
+            this.dayStart = dayStart;
+            this.dayEnd = dayEnd;
+            this.watermark = watermark;
         }
 
-        UsageEvents events = usageStatsManager.queryEvents(start, end);
-        List<UsageEvent> usageEvents = new ArrayList<>();
-
-        if (events != null) {
-            UsageEvents.Event event = new UsageEvents.Event();
-            while (events.hasNextEvent()) {
-                events.getNextEvent(event);
-                if (event != null && (event.getEventType() == UsageEvents.Event.ACTIVITY_RESUMED ||
-                        event.getEventType() == UsageEvents.Event.ACTIVITY_PAUSED)) {
-                    usageEvents.add(new UsageEvent(event.getPackageName(), event.getTimeStamp(), event.getEventType()));
-                }
+        @Override
+        public void onEvent(String packageName, long timestamp, int eventType) {
+            if (++eventCount % DayReader.CANCEL_CHECK_EVENTS == 0) {
+                throwIfCancelled();
+            }
+            if (timestamp >= watermark) {
+                settle();
             }
+            sessionizer.onEvent(packageName, timestamp, eventType);
         }
 
-        return usageEvents;
-    }
-
-    private static final SimpleDateFormat dateTimeFormat =
-            new SimpleDateFormat("MM-dd-yy hh:mm:ss a", Locale.getDefault());
-
-
-    private List<UsageStats> queryUsageStats(Date start, Date end) {
-        UsageStatsManager usageStatsManager = (UsageStatsManager) context.getSystemService(Context.USAGE_STATS_SERVICE);
-        if (usageStatsManager == null) {
-            Log.w(TAG, "UsageStatsManager is null.");
-            return new ArrayList<>();
+        // the first call wins: that is the state at the watermark
+        void settle() {
+            if (settled == null) {
+                settled = builder.build(dayStart, dayEnd);
+                settledOpen = sessionizer.getOpenSessions();
+            }
         }
-
-        return usageStatsManager.queryUsageStats(
-                UsageStatsManager.INTERVAL_DAILY, start.getTime(), end.getTime());
     }
 
-    private Date getStartOfDay(Calendar calendar) {
-        calendar.set(Calendar.HOUR_OF_DAY, 0);
-        calendar.set(Calendar.MINUTE, 0);
-        calendar.set(Calendar.SECOND, 0);
-        calendar.set(Calendar.MILLISECOND, 0);
-        return calendar.getTime();
-    }
-
-    private Date getEndOfDay(Calendar calendar) {
-        calendar.set(Calendar.HOUR_OF_DAY, 23);
-        calendar.set(Calendar.MINUTE, 59);
-        calendar.set(Calendar.SECOND, 59);
-        calendar.set(Calendar.MILLISECOND, 999);
-        return calendar.getTime();
-    }
-
-    private long getDaysBetween(Date start, Date end) {
-        long diff = end.getTime() - start.getTime();
-        return (diff / (1000 * 60 * 60 * 24)) + 1;
+    private void cacheDay(DayAggregateCache.DayAggregate aggregate, long todayStart, TimeZone zone) {
+        if (aggregate.dayEnd > todayStart) return;
+        try {
+            dayCache.put(aggregate, zone);
+        } catch (IOException e) {
+            Log.w(TAG, "could not cache day starting " + aggregate.dayStart, e);
+        }
     }
 
     private String formatDate(Date date) {
         return new SimpleDateFormat("MM-dd-yy", Locale.getDefault()).format(date);
     }
 
-    private void saveReportAsPdf(String introText, String[][] tableData, String rawText) {
-        String fileName = new SimpleDateFormat("MM-dd_HH:mm", Locale.getDefault())
-                .format(new Date()) + "_UsageReport.pdf";
+    private Uri saveReportAsPdf(String fileStamp, String introText, StreamingReportWriter writer)
+            throws IOException, DocumentException {
+        Uri uri = createDownload(fileStamp + "_UsageReport.pdf", "application/pdf");
+
+        boolean saved = false;
+        try {
+            try (OutputStream os = openDownload(uri)) {
+                writer.writePdf(introText, os);
+            }
+            saved = true;
+            Log.i(TAG, "pdf usage report saved to downloads: " + uri);
+            return uri;
+        } finally {
+            if (!saved) {
+                // don't leave an empty or half-written pdf behind
+                context.getContentResolver().delete(uri, null, null);
+            }
+        }
+    }
 
+    private Uri createDownload(String fileName, String mimeType) throws IOException {
         ContentValues values = new ContentValues();
         values.put(MediaStore.Files.FileColumns.DISPLAY_NAME, fileName);
-        values.put(MediaStore.Files.FileColumns.MIME_TYPE, "application/pdf");
+        values.put(MediaStore.Files.FileColumns.MIME_TYPE, mimeType);
         values.put(MediaStore.Files.FileColumns.RELATIVE_PATH, Environment.DIRECTORY_DOWNLOADS);
 
         Uri uri = context.getContentResolver().insert(
                 MediaStore.Files.getContentUri("external"), values);
 
-        if (uri != null) {
-            try (OutputStream os = context.getContentResolver().openOutputStream(uri)) {
-                Document document = new Document();
-                PdfWriter.getInstance(document, os);
-                document.open();
-
-                // write intro text
-                Font normalFont = FontFactory.getFont(FontFactory.COURIER, 10);
-                document.add(new Paragraph(introText, normalFont));
-
-                // write table in the middle
-                if (tableData != null && tableData.length > 0) {
-                    PdfPTable pdfTable = new PdfPTable(tableData[0].length);
-                    pdfTable.setWidthPercentage(100f);
-
-                    for (String[] row : tableData) {
-                        for (String cellText : row) {
-                            PdfPCell cell = new PdfPCell(new Paragraph(cellText, normalFont));
-                            pdfTable.addCell(cell);
-                        }
-                    }
-                    document.add(pdfTable);
-                }
+        if (uri == null) {
+            throw new IOException("failed to create " + fileName + " in downloads");
+        }
+        return uri;
+    }
 
-                // write raw data text last
-                document.add(new Paragraph(rawText, normalFont));
+    private OutputStream openDownload(Uri uri) throws IOException {
+        OutputStream os = context.getContentResolver().openOutputStream(uri);
+        if (os == null) {
+            throw new IOException("could not open " + uri);
+        }
+        return os;
+    }
 
-                document.close();
-                Log.i(TAG, "pdf usage report saved to downloads: " + uri);
-            } catch (Exception e) {
-                Log.e(TAG, "error creating pdf", e);
+    /**
+     * The csv and binary session files in Downloads for one report. Both are open for the
+     * whole pass; unless {@link #finish()} completes, closing deletes them again.
+     */
+    private class SessionExport implements Closeable {
+        private final List<Uri> uris = new ArrayList<>(2);
+        private final List<OutputStream> streams = new ArrayList<>(2);
+        final SessionExportWriter writer;
+        private boolean saved = false;
+
+        SessionExport(String fileStamp, long[] dayBounds) throws IOException {
+            String participantId = AppStateStore.getInstance(context).getParticipantId();
+            if (participantId == null) {
+                participantId = "";
+            }
+            try {
+                OutputStream csvOut = open(fileStamp + "_UsageSessions.csv", "text/csv");
+                OutputStream binaryOut = open(fileStamp + "_UsageSessions.bin", "application/octet-stream");
+                writer = new SessionExportWriter(participantId, dayBounds, csvOut, binaryOut, packages);
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
             }
-        } else {
-            Log.e(TAG, "failed to create pdf file in downloads");
         }
-    }
 
+        private OutputStream open(String fileName, String mimeType) throws IOException {
+            Uri uri = createDownload(fileName, mimeType);
+            uris.add(uri);
+            OutputStream os = openDownload(uri);
+            streams.add(os);
+            return os;
+        }
+
+        void finish() throws IOException {
+            writer.finish();
+            for (OutputStream os : streams) {
+                os.close();
+            }
+            saved = true;
+            Log.i(TAG, writer.getSessionCount() + " sessions and " + writer.getRolledUpDayCount()
+                    + " rolled-up days exported to " + uris);
+        }
 
-    // optionally define a simple method to remove "com." and "android." across the entire content
-    private String stripPrefixes(String text) {
-        // naive replace all occurrences of "com." or "android."
-        return text.replace("com.", "")
-                .replace("android.", "");
+        @Override
+        public void close() {
+            if (saved) return;
+            for (OutputStream os : streams) {
+                try {
+                    os.close();
+                } catch (IOException ignored) {
+                }
+            }
+            // don't leave half-written exports behind
+            for (Uri uri : uris) {
+                context.getContentResolver().delete(uri, null, null);
+            }
+        }
     }
+    // drops filtered packages and clips sessions to the query range before they reach the writer
+    private static class QuerySink implements UsageSessionizer.SessionSink {
+        private final UsageSessionizer.SessionSink delegate;
+        private final ReportQuery query;
+
+        QuerySink(UsageSessionizer.SessionSink delegate, ReportQuery query) {
+            this.delegate = delegate;
+            this.query = query;
+        }
 
-    private String formatDuration(long durationMillis) {
-        if (durationMillis < 0 || durationMillis > 24 * 60 * 60 * 1000) {
-            return "0 min 0 sec"; // Prevent extreme durations
+        @Override
+        public void onDayStart(int day) {
+            delegate.onDayStart(day);
         }
 
-        long minutes = durationMillis / 60000;
-        long seconds = (durationMillis % 60000) / 1000;
+        @Override
+        public void onSession(int day, String packageName, long start, long end) {
+            if (!query.matches(packageName)) return;
+            long clippedStart = Math.max(start, query.getStart());
+            long clippedEnd = Math.min(end, query.getEnd());
+            if (clippedEnd > clippedStart) {
+                delegate.onSession(day, packageName, clippedStart, clippedEnd);
+            }
+        }
 
-        // Ensure at least 1 second is displayed for nonzero durations
-        if (minutes == 0 && seconds == 0 && durationMillis > 0) {
-            seconds = 1;  // Force 1 second minimum for small durations
+        @Override
+        public void onSummary(int day, String packageName, long start, long end) {
+            if (!query.matches(packageName)) return;
+            long clippedStart = Math.max(start, query.getStart());
+            long clippedEnd = Math.min(end, query.getEnd());
+            if (clippedEnd > clippedStart) {
+                delegate.onSummary(day, packageName, clippedStart, clippedEnd);
+            }
         }
 
-        return minutes + " min " + seconds + " sec";
+        @Override
+        public void onDayEnd(int day) {
+            delegate.onDayEnd(day);
+        }
     }
 
-    private String formatTimeRange(long start, long end) {
-        return dateTimeFormat.format(new Date(start)) + " - "
-                + dateTimeFormat.format(new Date(end));
-    }
+    // hands every session to two sinks
+    private static class TeeSink implements UsageSessionizer.SessionSink {
+        private final UsageSessionizer.SessionSink first;
+        private final UsageSessionizer.SessionSink second;
 
-    private boolean isValidSession(long start, long end) {
-        return start > 0 && end > 0 && end > start && (end - start) < (24 * 60 * 60 * 1000); // ensure durations < 1 day
-    }
+        TeeSink(UsageSessionizer.SessionSink first, UsageSessionizer.SessionSink second) {
+            this.first = first;
+            this.second = second;
+        }
 
-    private static class SessionEntry {
-        String appName;
-        long startTime;
-        long endTime;
-        long durationMs;
+        @Override
+        public void onDayStart(int day) {
+            first.onDayStart(day);
+            second.onDayStart(day);
+        }
 
-        SessionEntry(String appName, long startTime, long endTime, long durationMs) {
-            this.appName = appName;
-            this.startTime = startTime;
-            this.endTime = endTime;
-            this.durationMs = durationMs;
+        @Override
+        public void onSession(int day, String packageName, long start, long end) {
+            first.onSession(day, packageName, start, end);
+            second.onSession(day, packageName, start, end);
         }
-    }
 
-    private static class UsageEvent {
-        String packageName;
-        long timestamp;
-        int eventType;
+        @Override
+        public void onSummary(int day, String packageName, long start, long end) {
+            first.onSummary(day, packageName, start, end);
+            second.onSummary(day, packageName, start, end);
+        }
 
-        public UsageEvent(String packageName, long timestamp, int eventType) {
-            this.packageName = packageName;
-            this.timestamp = timestamp;
-            this.eventType = eventType;
+        @Override
+        public void onDayEnd(int day) {
+            first.onDayEnd(day);
+            second.onDayEnd(day);
         }
     }
-    private static class AppUsage {
-        private final String packageName;
-        private final long totalUsage;
-        private final long daysInRange;
 
-        public AppUsage(String packageName, long totalUsage, long daysInRange) {
-            this.packageName = packageName;
-            this.totalUsage = totalUsage;
-            this.daysInRange = daysInRange;
+    // reports progress and checks for cancellation at every day boundary of the event pass
+    private class ProgressSink implements UsageSessionizer.SessionSink {
+        private final UsageSessionizer.SessionSink delegate;
+        private final int dayCount;
+
+        ProgressSink(UsageSessionizer.SessionSink delegate, int dayCount) {
+            this.delegate = delegate;
+            this.dayCount = dayCount;
         }
 
-        public String getPackageName() {
-            return packageName;
+        @Override
+        public void onDayStart(int day) {
+            delegate.onDayStart(day);
         }
 
-        public long getTotalUsage() {
-            return totalUsage;
+        @Override
+        public void onSession(int day, String packageName, long start, long end) {
+            delegate.onSession(day, packageName, start, end);
         }
 
-        public long getDailyAverage() {
-            return totalUsage / daysInRange;
+        @Override
+        public void onSummary(int day, String packageName, long start, long end) {
+            delegate.onSummary(day, packageName, start, end);
         }
+
+        @Override
+        public void onDayEnd(int day) {
+            delegate.onDayEnd(day);
+            throwIfCancelled();
+            if (progressListener != null) {
+                progressListener.onDayProcessed(day + 1, dayCount);
+            }
+        }
+    }
+
+    public interface ProgressListener {
+        void onDayProcessed(int daysDone, int dayCount);
     }
-}
\ No newline at end of file
+}
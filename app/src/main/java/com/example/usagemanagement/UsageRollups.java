@@ -0,0 +1,212 @@
+package com.example.usagemanagement;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Compact summaries of journal history that outlive the raw events: per app, the foreground
+ * time, the number of sessions, and the time in each hour slot (elapsed hours since the
+ * day's midnight, so a DST day has 23 or 25 used slots).
+ *
+ * One file per local day ({@code day_20240131_Europe_Berlin.roll}) and per local week
+ * starting Monday ({@code week_20240129_Europe_Berlin.roll}), written and checked through
+ * {@link AggregateFile}; anything that fails to read counts as missing. A week's slots are
+ * the sums of its days' slots, so it keeps the time of day but not which day it fell on.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   int magic, int version, long start, long end, int appCount,
+ *   appCount x (utf name, long total, int sessions, HOUR_SLOTS x long),
+ *   long crc32 of everything above
+ * </pre>
+ */
+class UsageRollups {
+
+    private static final int MAGIC = 0x49475255; // "IGRU"
+    private static final int VERSION = 1;
+    private static final String DIR_NAME = "rollups";
+    private static final String SUFFIX = ".roll";
+    static final long HOUR_MS = 60 * 60 * 1000L;
+    // hours a local day can span; a week's slots are the sum of its days' slots
+    static final int HOUR_SLOTS = 25;
+
+    private final File dir;
+
+    UsageRollups(File dir) {
+        this.dir = dir;
+    }
+
+    static UsageRollups inFilesDir(File filesDir) {
+        return new UsageRollups(new File(filesDir, DIR_NAME));
+    }
+
+    boolean hasDay(long dayStart, TimeZone zone) {
+        return file("day", dayStart, zone).exists();
+    }
+
+    Rollup getDay(long dayStart, TimeZone zone) {
+        return read(file("day", dayStart, zone), dayStart);
+    }
+
+    void putDay(Rollup rollup, TimeZone zone) throws IOException {
+        write(file("day", rollup.start, zone), rollup);
+    }
+
+    boolean hasWeek(long weekStart, TimeZone zone) {
+        return file("week", weekStart, zone).exists();
+    }
+
+    Rollup getWeek(long weekStart, TimeZone zone) {
+        return read(file("week", weekStart, zone), weekStart);
+    }
+
+    void putWeek(Rollup rollup, TimeZone zone) throws IOException {
+        write(file("week", rollup.start, zone), rollup);
+    }
+
+    private Rollup read(File file, long expectedStart) {
+        // unreadable ones are written again while raw events last
+        return AggregateFile.read(file, body -> {
+            if (body.readInt() != MAGIC || body.readInt() != VERSION) return null;
+
+            long start = body.readLong();
+            long end = body.readLong();
+            if (start != expectedStart) return null;
+
+            int appCount = body.readInt();
+            String[] packages = new String[appCount];
+            long[] totals = new long[appCount];
+            int[] sessions = new int[appCount];
+            long[] slots = new long[appCount * HOUR_SLOTS];
+            for (int i = 0; i < appCount; i++) {
+                packages[i] = body.readUTF();
+                totals[i] = body.readLong();
+                sessions[i] = body.readInt();
+                for (int h = 0; h < HOUR_SLOTS; h++) {
+                    slots[i * HOUR_SLOTS + h] = body.readLong();
+                }
+            }
+            return new Rollup(start, end, packages, totals, sessions, slots);
+        });
+    }
+
+    private void write(File file, Rollup rollup) throws IOException {
+        AggregateFile.writeAtomically(file, body -> {
+            body.writeInt(MAGIC);
+            body.writeInt(VERSION);
+            body.writeLong(rollup.start);
+            body.writeLong(rollup.end);
+            body.writeInt(rollup.packages.length);
+            for (int i = 0; i < rollup.packages.length; i++) {
+                body.writeUTF(rollup.packages[i]);
+                body.writeLong(rollup.totals[i]);
+                body.writeInt(rollup.sessions[i]);
+                for (int h = 0; h < HOUR_SLOTS; h++) {
+                    body.writeLong(rollup.slots[i * HOUR_SLOTS + h]);
+                }
+            }
+        });
+    }
+
+    private File file(String kind, long start, TimeZone zone) {
+        return new File(dir, kind + "_" + AggregateFile.dateKey(start, zone) + SUFFIX);
+    }
+
+    /** One day's or week's usage per app. */
+    static final class Rollup {
+        final long start;
+        final long end;
+        final String[] packages;
+        final long[] totals;
+        final int[] sessions;
+        // HOUR_SLOTS per app: slot h covers [start + h hours, start + h + 1 hours)
+        private final long[] slots;
+
+        Rollup(long start, long end, String[] packages, long[] totals, int[] sessions, long[] slots) {
+            this.start = start;
+            this.end = end;
+            this.packages = packages;
+            this.totals = totals;
+            this.sessions = sessions;
+            this.slots = slots;
+        }
+
+        long getSlot(int app, int hour) {
+            return slots[app * HOUR_SLOTS + hour];
+        }
+
+        /**
+         * Feeds a rollup to a sink as summaries, all on {@code day}: one per app and hour slot,
+         * starting at the slot and as long as the time used in it. Totals per day and per hour
+         * are exact; where in the hour the time fell is not kept. A week's summaries all start
+         * in its first day, so only sinks that total whole weeks can take them.
+         */
+        void replay(int day, UsageSessionizer.SessionSink sink) {
+            sink.onDayStart(day);
+            for (int i = 0; i < packages.length; i++) {
+                for (int h = 0; h < HOUR_SLOTS; h++) {
+                    long ms = slots[i * HOUR_SLOTS + h];
+                    long slotStart = start + h * HOUR_MS;
+                    if (ms > 0 && slotStart < end) {
+                        sink.onSummary(day, packages[i], slotStart, Math.min(slotStart + ms, end));
+                    }
+                }
+            }
+            sink.onDayEnd(day);
+        }
+    }
+
+    /** Sums a day's sessions, or the days of a week, into one rollup. */
+    static final class Builder {
+        private final PackageTotals packages = new PackageTotals();
+        private int[] sessions = new int[16];
+        private long[] slots = new long[16 * HOUR_SLOTS];
+        private final long start;
+
+        Builder(long start) {
+            this.start = start;
+        }
+
+        // a session inside the day, split across the hour slots it touches
+        void addSession(String packageName, long sessionStart, long sessionEnd) {
+            int id = slotsFor(packages.add(packageName, sessionEnd - sessionStart));
+            sessions[id]++;
+            long t = sessionStart;
+            while (t < sessionEnd) {
+                int slot = (int) Math.min((t - start) / HOUR_MS, HOUR_SLOTS - 1);
+                // the last slot takes whatever is left
+                long next = slot == HOUR_SLOTS - 1 ? sessionEnd : Math.min(sessionEnd, start + (slot + 1) * HOUR_MS);
+                slots[id * HOUR_SLOTS + slot] += next - t;
+                t = next;
+            }
+        }
+
+        void addRollup(Rollup rollup) {
+            for (int i = 0; i < rollup.packages.length; i++) {
+                int id = slotsFor(packages.add(rollup.packages[i], rollup.totals[i]));
+                sessions[id] += rollup.sessions[i];
+                for (int h = 0; h < HOUR_SLOTS; h++) {
+                    slots[id * HOUR_SLOTS + h] += rollup.slots[i * HOUR_SLOTS + h];
+                }
+            }
+        }
+
+        // grows the per-app arrays to hold id
+        private int slotsFor(int id) {
+            if (id == sessions.length) {
+                sessions = Arrays.copyOf(sessions, id * 2);
+                slots = Arrays.copyOf(slots, id * 2 * HOUR_SLOTS);
+            }
+            return id;
+        }
+
+        Rollup build(long end) {
+            int count = packages.size();
+            return new Rollup(start, end, packages.packages(),
+                    packages.totals(), Arrays.copyOf(sessions, count),
+                    Arrays.copyOf(slots, count * HOUR_SLOTS));
+        }
+    }
+}
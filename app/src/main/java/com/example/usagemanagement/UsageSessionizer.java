@@ -0,0 +1,104 @@
+package com.example.usagemanagement;
+
+/**
+ * Turns one time-ordered stream of resume/pause events spanning several days into
+ * per-day sessions, so a report needs a single queryEvents call for its whole range.
+ *
+ * Sessions are paired within a day exactly as a per-day query would pair them: sessions
+ * still open at midnight are dropped, and a pause on the next day without its resume is
+ * ignored. Every day in the range gets a {@code onDayStart}/{@code onDayEnd} pair, even
+ * when it has no events, and sessions are emitted in the order their pause arrives.
+ */
+class UsageSessionizer {
+
+    // same values as UsageEvents.Event, kept here so this class has no Android dependency
+    static final int ACTIVITY_RESUMED = 1;
+    static final int ACTIVITY_PAUSED = 2;
+
+    private static final long MAX_SESSION_MS = 24 * 60 * 60 * 1000;
+
+    private final long[] dayBounds;
+    private final SessionSink sink;
+    private final PackageDictionary packages;
+    // dictionary id to the start of its open session; primitive so a resume allocates nothing
+    private final IntLongMap openSessions;
+    private int day = -1;
+
+    // day i covers [dayBounds[i], dayBounds[i + 1])
+    UsageSessionizer(long[] dayBounds, SessionSink sink, PackageDictionary packages) {
+        this.dayBounds = dayBounds;
+        this.sink = sink;
+        this.packages = packages;
+        this.openSessions = new IntLongMap(packages.size());
+    }
+
+    void onEvent(String packageName, long timestamp, int eventType) {
+        if (eventType != ACTIVITY_RESUMED && eventType != ACTIVITY_PAUSED) return;
+        if (timestamp < dayBounds[0] || timestamp >= dayBounds[dayBounds.length - 1]) return;
+
+        int eventDay = day < 0 ? 0 : day;
+        while (timestamp >= dayBounds[eventDay + 1]) {
+            eventDay++;
+        }
+        advanceTo(eventDay);
+
+        if (eventType == ACTIVITY_RESUMED) {
+            openSessions.put(packages.idOf(packageName), timestamp);
+        } else {
+            // a package without an id was never resumed
+            long start = openSessions.remove(packages.find(packageName));
+            if (start != IntLongMap.MISSING && isValidSession(start, timestamp)) {
+                sink.onSession(day, packageName, start, timestamp);
+            }
+        }
+    }
+
+    // carries a session still open at an earlier checkpoint into this pass; call before the first event
+    void restoreOpenSession(String packageName, long start) {
+        openSessions.put(packages.idOf(packageName), start);
+    }
+
+    // sessions resumed but not paused yet, dictionary id to start
+    IntLongMap getOpenSessions() {
+        return openSessions.copy();
+    }
+
+    // closes the current day and emits any remaining empty days of the range
+    void finish() {
+        advanceTo(dayBounds.length - 1);
+    }
+
+    private void advanceTo(int target) {
+        while (day < target) {
+            if (day >= 0) {
+                sink.onDayEnd(day);
+                openSessions.clear();
+            }
+            day++;
+            if (day < dayBounds.length - 1) {
+                sink.onDayStart(day);
+            }
+        }
+    }
+
+    static boolean isValidSession(long start, long end) {
+        return start > 0 && end > 0 && end > start && (end - start) < MAX_SESSION_MS; // ensure durations < 1 day
+    }
+
+    interface SessionSink {
+        void onDayStart(int day);
+
+        void onSession(int day, String packageName, long start, long end);
+
+        /**
+         * Time from a rollup rather than a real session: [start, end) only says how much was
+         * used in that hour. Wrappers must pass it on as a summary; by default it counts like
+         * a session.
+         */
+        default void onSummary(int day, String packageName, long start, long end) {
+            onSession(day, packageName, start, end);
+        }
+
+        void onDayEnd(int day);
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.usagemanagement;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Long-lived foreground service that owns the usage tracker.
+ *
+ * The tracker runs on its own background HandlerThread so usage scans never compete with
+ * UI rendering, and tracking keeps going after MainActivity is destroyed. Results reach
+ * consumers through {@link UsageUpdateBus}; the finest granularity subscribed there decides
+ * how often the tracker wakes while a session is open.
+ */
+public class UsageTrackingService extends Service {
+
+    private static final String TAG = "UsageTrackingService";
+    private static final String CHANNEL_ID = "usage_tracking";
+    private static final int NOTIFICATION_ID = 1;
+
+    public static final String EXTRA_THRESHOLD_MS = "thresholdMs";
+    public static final String EXTRA_REPEAT_MS = "repeatMs";
+    // how often UsageStats events are copied into the usage journal
+    private static final long INGEST_INTERVAL_MS = 15 * 60 * 1000;
+
+    private static volatile UsageTrackingService instance;
+
+    private HandlerThread trackingThread;
+    private Handler trackingHandler;
+    private InstagramUsageTracker tracker;
+
+    private final Runnable ingestTick = new Runnable() {
+        @Override
+        public void run() {
+            JournalEventSource source = JournalEventSource.getInstance(UsageTrackingService.this);
+            long now = System.currentTimeMillis();
+            source.ingest(now);
+            source.compact(now);
+            trackingHandler.postDelayed(this, INGEST_INTERVAL_MS);
+        }
+    };
+
+    // day boundaries are cached as longs; only a zone change makes them recompute
+    private final BroadcastReceiver timeZoneReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            DayClock.getInstance().onTimeZoneChanged();
+            trackingHandler.post(() -> DayAggregateCache.inFilesDir(getFilesDir())
+                    .invalidateOtherZones(DayClock.getInstance().getTimeZone()));
+            Log.i(TAG, "time zone changed, day boundaries and cached days reset.");
+        }
+    };
+
+    private final UsageUpdateBus updateBus = UsageUpdateBus.getInstance();
+
+    public static UsageTrackingService getInstance() {
+        return instance;
+    }
+
+    // subscribers come and go on other threads; the tracker only changes on its own
+    private void onDisplayStepChanged(long stepMs) {
+        trackingHandler.post(() -> {
+            if (tracker != null) {
+                tracker.setDisplayStep(stepMs);
+            }
+        });
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        instance = this;
+
+        trackingThread = new HandlerThread("UsageTracking", Process.THREAD_PRIORITY_BACKGROUND);
+        trackingThread.start();
+        trackingHandler = new Handler(trackingThread.getLooper());
+
+        updateBus.setStepListener(this::onDisplayStepChanged);
+
+        startForegroundWithNotification();
+        trackingHandler.post(ingestTick);
+        registerReceiver(timeZoneReceiver, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        long thresholdMs = intent != null ? intent.getLongExtra(EXTRA_THRESHOLD_MS, 0) : 0;
+        long repeatMs = intent != null ? intent.getLongExtra(EXTRA_REPEAT_MS, 0) : 0;
+        if (thresholdMs > 0) {
+            updateBus.setThresholds(thresholdMs, repeatMs);
+        }
+
+        trackingHandler.post(() -> {
+            if (tracker == null) {
+                tracker = new InstagramUsageTracker(this, WatchList.load(this), trackingHandler);
+                if (thresholdMs > 0) {
+                    tracker.setInterventionThresholds(thresholdMs, repeatMs);
+                }
+                tracker.setDisplayStep(updateBus.getDisplayStepMs());
+                tracker.startEventDrivenTracking();
+                Log.i(TAG, "usage tracking started on background thread.");
+            } else if (thresholdMs > 0) {
+                tracker.setInterventionThresholds(thresholdMs, repeatMs);
+            }
+        });
+        return START_STICKY;
+    }
+
+    private void startForegroundWithNotification() {
+        NotificationManager manager = getSystemService(NotificationManager.class);
+        if (manager != null) {
+            manager.createNotificationChannel(new NotificationChannel(
+                    CHANNEL_ID, "Usage tracking", NotificationManager.IMPORTANCE_MIN));
+        }
+
+        Notification notification = new Notification.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_notification)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText("Tracking app usage for the study")
+                .setOngoing(true)
+                .build();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_SPECIAL_USE);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        instance = null;
+        unregisterReceiver(timeZoneReceiver);
+        updateBus.setStepListener(null);
+        trackingHandler.removeCallbacks(ingestTick);
+        trackingHandler.post(() -> {
+            if (tracker != null) {
+                tracker.stopTracking();
+            }
+            UsageJournal journal = JournalEventSource.getInstance(this).getJournal();
+            if (journal != null) {
+                try {
+                    journal.flush();
+                } catch (IOException e) {
+                    Log.w(TAG, "could not flush the usage journal.", e);
+                }
+            }
+        });
+        trackingThread.quitSafely();
+        Log.i(TAG, "usage tracking service destroyed.");
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.usagemanagement;
+
+import android.os.Handler;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fans the tracker's Instagram estimate out to any number of consumers (main screen,
+ * notification, overlay, intervention logic), each at the granularity it actually needs.
+ *
+ * The tracker publishes on its own thread. For every subscriber the value is reduced to a
+ * bucket (the current second, the current minute, or how many intervention thresholds have
+ * been crossed) together with whether an Instagram session is open; if neither changed,
+ * that subscriber gets no callback. Each subscriber has a single latest-value slot and at
+ * most one delivery pending on its handler, so a slow consumer sees the newest value
+ * instead of a backlog. Offers are made under the bus lock, from publish and from subscribe
+ * alike, so a subscriber's last bucket only ever moves to a newer value.
+ *
+ * The finest step among the subscribers is reported to the step listener, so the tracker
+ * only wakes as often as the most demanding consumer requires.
+ */
+public class UsageUpdateBus {
+
+    private static final UsageUpdateBus INSTANCE = new UsageUpdateBus();
+
+    public enum Granularity {
+        SECOND(1000),
+        MINUTE(60000),
+        // only when an intervention threshold is crossed or a session starts or ends
+        THRESHOLD_ONLY(0);
+
+        final long stepMs;
+
+        Granularity(long stepMs) {
+            this.stepMs = stepMs;
+        }
+    }
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile long thresholdMs = 0;
+    private volatile long repeatMs = 0;
+    private volatile long latestUsage = -1;
+    private volatile boolean latestSessionOpen = false;
+    private volatile StepListener stepListener;
+
+    public static UsageUpdateBus getInstance() {
+        return INSTANCE;
+    }
+
+    /** Subscribes on the given handler's thread; the latest known value is delivered right away. */
+    public Subscription subscribe(Granularity granularity, Handler handler, UsageSubscriber subscriber) {
+        return subscribe(granularity, handler, handler::post, subscriber);
+    }
+
+    // deliveries go through the executor; unit tests use one that runs them in place
+    Subscription subscribe(Granularity granularity, Executor executor, UsageSubscriber subscriber) {
+        return subscribe(granularity, null, executor, subscriber);
+    }
+
+    private Subscription subscribe(Granularity granularity, Handler handler, Executor executor,
+                                   UsageSubscriber subscriber) {
+        Subscription subscription = new Subscription(granularity, handler, executor, subscriber);
+        synchronized (this) {
+            subscriptions.add(subscription);
+            long usage = latestUsage;
+            if (usage >= 0) {
+                subscription.offer(usage, latestSessionOpen);
+            }
+        }
+        notifyStepChanged();
+        return subscription;
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        if (subscription == null) return;
+        if (subscriptions.remove(subscription)) {
+            if (subscription.handler != null) {
+                subscription.handler.removeCallbacks(subscription.deliver);
+            }
+            notifyStepChanged();
+        }
+    }
+
+    // the same thresholds the tracker wakes for: the first one, then every repeatMs after it
+    public void setThresholds(long thresholdMs, long repeatMs) {
+        this.thresholdMs = thresholdMs;
+        this.repeatMs = repeatMs;
+    }
+
+    public void setStepListener(StepListener listener) {
+        this.stepListener = listener;
+    }
+
+    // the finest step any subscriber needs, 0 if none needs more than thresholds
+    public long getDisplayStepMs() {
+        long step = 0;
+        for (Subscription subscription : subscriptions) {
+            long s = subscription.granularity.stepMs;
+            if (s > 0 && (step == 0 || s < step)) {
+                step = s;
+            }
+        }
+        return step;
+    }
+
+    private void notifyStepChanged() {
+        StepListener listener = stepListener;
+        if (listener != null) {
+            listener.onDisplayStepChanged(getDisplayStepMs());
+        }
+    }
+
+    /** Called on the tracker thread with the current estimate. */
+    synchronized void publish(long usage, boolean sessionOpen) {
+        latestUsage = usage;
+        latestSessionOpen = sessionOpen;
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(usage, sessionOpen);
+        }
+    }
+
+    private long bucket(Granularity granularity, long usage) {
+        if (granularity.stepMs > 0) {
+            return usage / granularity.stepMs;
+        }
+        if (thresholdMs <= 0 || usage < thresholdMs) return 0;
+        if (repeatMs <= 0) return 1;
+        return 1 + (usage - thresholdMs) / repeatMs;
+    }
+
+    public final class Subscription {
+        private final Granularity granularity;
+        // null when delivering through a plain executor
+        private final Handler handler;
+        private final Executor executor;
+        private final UsageSubscriber subscriber;
+
+        // last bucket handed over, with the session flag in the low bit; only touched under the bus lock
+        private long lastKey = Long.MIN_VALUE;
+        private final AtomicLong latest = new AtomicLong(-1);
+        private final AtomicBoolean pending = new AtomicBoolean(false);
+        private final Runnable deliver = new Runnable() {
+            @Override
+            public void run() {
+                pending.set(false);
+                long usage = latest.get();
+                if (usage >= 0 && subscriptions.contains(Subscription.this)) {
+                    subscriber.onUsageUpdated(usage);
+                }
+            }
+        };
+
+        private Subscription(Granularity granularity, Handler handler, Executor executor, UsageSubscriber subscriber) {
+            this.granularity = granularity;
+            this.handler = handler;
+            this.executor = executor;
+            this.subscriber = subscriber;
+        }
+
+        // called with the bus lock held
+        private void offer(long usage, boolean sessionOpen) {
+            long key = bucket(granularity, usage) * 2 + (sessionOpen ? 1 : 0);
+            if (key == lastKey) return;
+            lastKey = key;
+            latest.set(usage);
+            if (pending.compareAndSet(false, true)) {
+                executor.execute(deliver);
+            }
+        }
+    }
+
+    public interface UsageSubscriber {
+        void onUsageUpdated(long estimatedUsageTime);
+    }
+
+    public interface StepListener {
+        void onDisplayStepChanged(long stepMs);
+    }
+}
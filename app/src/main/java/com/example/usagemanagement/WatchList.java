@@ -0,0 +1,142 @@
+package com.example.usagemanagement;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The set of apps the study watches, each with a daily foreground budget.
+ *
+ * Packages are kept in a fixed order so the position of a package in the list can be
+ * used as a small index into per-app tables. The list is small, so lookups are a
+ * linear scan over the names.
+ */
+public class WatchList {
+
+    private static final String TAG = "WatchList";
+    private static final String PREFS_NAME = "WatchlistPrefs";
+    private static final String KEY_WATCHLIST = "watchlist";
+
+    public static final String INSTAGRAM_PACKAGE_NAME = "com.instagram.android";
+    private static final long DEFAULT_BUDGET_MINUTES = 60;
+
+    // "package=minutes" entries, comma separated
+    private static final String DEFAULT_WATCHLIST =
+            INSTAGRAM_PACKAGE_NAME + "=" + DEFAULT_BUDGET_MINUTES
+                    + ",com.zhiliaoapp.musically=" + DEFAULT_BUDGET_MINUTES  // tiktok
+                    + ",com.google.android.youtube=" + DEFAULT_BUDGET_MINUTES
+                    + ",com.snapchat.android=" + DEFAULT_BUDGET_MINUTES;
+
+    private final String[] packages;
+    private final long[] dailyBudgetsMs;
+
+    WatchList(String[] packages, long[] dailyBudgetsMs) {
+        this.packages = packages;
+        this.dailyBudgetsMs = dailyBudgetsMs;
+    }
+
+    public static WatchList load(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return parse(prefs.getString(KEY_WATCHLIST, DEFAULT_WATCHLIST));
+    }
+
+    public static void save(Context context, WatchList watchList) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < watchList.size(); i++) {
+            if (i > 0) sb.append(",");
+            sb.append(watchList.packages[i]).append("=")
+                    .append(TimeUnit.MILLISECONDS.toMinutes(watchList.dailyBudgetsMs[i]));
+        }
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(KEY_WATCHLIST, sb.toString())
+                .apply();
+    }
+
+    static WatchList parse(String spec) {
+        List<String> names = new ArrayList<>();
+        List<Long> budgets = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) continue;
+
+            int eq = trimmed.indexOf('=');
+            String name = eq > 0 ? trimmed.substring(0, eq).trim() : trimmed;
+            long minutes = DEFAULT_BUDGET_MINUTES;
+            if (eq > 0) {
+                try {
+                    minutes = Long.parseLong(trimmed.substring(eq + 1).trim());
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "bad budget for " + name + ", using default.");
+                }
+            }
+            if (!names.contains(name)) {
+                names.add(name);
+                budgets.add(TimeUnit.MINUTES.toMillis(minutes));
+            }
+        }
+
+        // instagram is always watched; the interventions depend on it
+        if (!names.contains(INSTAGRAM_PACKAGE_NAME)) {
+            names.add(0, INSTAGRAM_PACKAGE_NAME);
+            budgets.add(0, TimeUnit.MINUTES.toMillis(DEFAULT_BUDGET_MINUTES));
+        }
+
+        long[] budgetArray = new long[budgets.size()];
+        for (int i = 0; i < budgetArray.length; i++) {
+            budgetArray[i] = budgets.get(i);
+        }
+        return new WatchList(names.toArray(new String[0]), budgetArray);
+    }
+
+    public int size() {
+        return packages.length;
+    }
+
+    // index of the package in this list, or -1 if it isn't watched
+    public int indexOf(CharSequence packageName) {
+        if (packageName == null) return -1;
+        for (int i = 0; i < packages.length; i++) {
+            if (packages[i].contentEquals(packageName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String getPackageName(int index) {
+        return packages[index];
+    }
+
+    public long getDailyBudgetMs(int index) {
+        return dailyBudgetsMs[index];
+    }
+
+    String[] getPackages() {
+        return packages;
+    }
+
+    /**
+     * The index of each watched package by its {@link PackageDictionary} id, -1 for ids that
+     * aren't watched. Paths that already have an event's id find its app with one array read
+     * instead of comparing names.
+     */
+    int[] indexesById(PackageDictionary dictionary) {
+        int[] ids = dictionary.idsOf(packages);
+        int maxId = -1;
+        for (int id : ids) {
+            maxId = Math.max(maxId, id);
+        }
+        int[] byId = new int[maxId + 1];
+        Arrays.fill(byId, -1);
+        for (int i = 0; i < ids.length; i++) {
+            byId[ids[i]] = i;
+        }
+        return byId;
+    }
+}
@@ -0,0 +1,322 @@
+package com.example.usagemanagement;
+
+import android.content.SharedPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a burst of changes becomes one commit per preferences file, that repeated
+ * changes to a field only write its last value, that a failed commit is retried without
+ * holding up the other file, and that subscribers hear about changes (the abandoned puzzle in
+ * particular) without reading the preferences.
+ */
+public class AppStateStoreTest {
+
+    // in-memory preferences that count commits, and fail them on request
+    private static final class FakePreferences implements SharedPreferences {
+        final Map<String, Object> values = new HashMap<>();
+        int commits = 0;
+        boolean failCommits = false;
+
+        @Override
+        public Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return values.containsKey(key) ? (String) values.get(key) : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return values.containsKey(key) ? (Set<String>) values.get(key) : defValues;
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return values.containsKey(key) ? (Long) values.get(key) : defValue;
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return values.containsKey(key) ? (Float) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new FakeEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        private final class FakeEditor implements Editor {
+            private final Map<String, Object> puts = new HashMap<>();
+            private final List<String> removes = new ArrayList<>();
+
+            @Override
+            public Editor putString(String key, String value) {
+                puts.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> values) {
+                puts.put(key, values);
+                return this;
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                puts.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                puts.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                puts.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                puts.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor remove(String key) {
+                removes.add(key);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                values.clear();
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                commits++;
+                if (failCommits) return false;
+                for (String key : removes) {
+                    values.remove(key);
+                }
+                values.putAll(puts);
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                commit();
+            }
+        }
+    }
+
+    // holds the delayed flush until the test runs it
+    private static final class FakeScheduler implements AppStateStore.WriteScheduler {
+        final List<Runnable> tasks = new ArrayList<>();
+        final List<Long> delays = new ArrayList<>();
+
+        @Override
+        public void runLater(Runnable task, long delayMs) {
+            tasks.add(task);
+            delays.add(delayMs);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            int i = tasks.indexOf(task);
+            while (i >= 0) {
+                tasks.remove(i);
+                delays.remove(i);
+                i = tasks.indexOf(task);
+            }
+        }
+
+        void runAll() {
+            List<Runnable> due = new ArrayList<>(tasks);
+            tasks.clear();
+            delays.clear();
+            for (Runnable task : due) {
+                task.run();
+            }
+        }
+    }
+
+    private FakePreferences userPrefs;
+    private FakePreferences puzzlePrefs;
+    private FakeScheduler scheduler;
+    private AppStateStore store;
+
+    @Before
+    public void setUp() {
+        userPrefs = new FakePreferences();
+        puzzlePrefs = new FakePreferences();
+        scheduler = new FakeScheduler();
+        store = new AppStateStore(userPrefs, puzzlePrefs, scheduler);
+    }
+
+    @Test
+    public void burstOfChanges_isOneCommitPerFile() {
+        store.setParticipantId("B1234");
+        store.setPuzzleActive(true);
+        store.setPuzzleInProgressInterval(2);
+        store.setPuzzlePattern("0,4,8");
+
+        // readers see the new state before anything is written
+        assertEquals('B', store.getCondition());
+        assertTrue(store.isPuzzleActive());
+        assertEquals(0, userPrefs.commits + puzzlePrefs.commits);
+        assertEquals(asList(AppStateStore.FLUSH_DELAY_MS), scheduler.delays);
+
+        scheduler.runAll();
+        assertEquals(1, userPrefs.commits);
+        assertEquals(1, puzzlePrefs.commits);
+        assertEquals("B1234", userPrefs.values.get("ParticipantID"));
+        assertEquals(true, puzzlePrefs.values.get("puzzleActive"));
+        assertEquals(2, puzzlePrefs.values.get("puzzleInProgressInterval"));
+        assertEquals("0,4,8", puzzlePrefs.values.get("currentPuzzlePattern"));
+        // the user file isn't touched when only puzzle state changes
+        store.setPuzzleSolved(true);
+        scheduler.runAll();
+        assertEquals(1, userPrefs.commits);
+        assertEquals(2, puzzlePrefs.commits);
+    }
+
+    @Test
+    public void repeatedChanges_writeOnlyTheLastValue() {
+        store.setPuzzlePattern("1,2");
+        store.setPuzzlePattern("3,4");
+        store.setPuzzleInProgressInterval(1);
+        store.setPuzzleInProgressInterval(AppStateStore.NO_INTERVAL);
+        assertEquals(1, scheduler.tasks.size());
+
+        scheduler.runAll();
+        assertEquals(1, puzzlePrefs.commits);
+        assertEquals("3,4", puzzlePrefs.values.get("currentPuzzlePattern"));
+        // back to "none" removes the key, as the app always did
+        assertFalse(puzzlePrefs.contains("puzzleInProgressInterval"));
+
+        // setting what is already there doesn't schedule a write
+        store.setPuzzlePattern("3,4");
+        assertTrue(scheduler.tasks.isEmpty());
+    }
+
+    @Test
+    public void flush_writesWithoutWaitingOutTheDelay() {
+        store.setPuzzleSolved(true);
+        store.flush();
+
+        assertEquals(asList(0L), scheduler.delays);
+        scheduler.runAll();
+        assertEquals(true, puzzlePrefs.values.get("solvedPuzzle"));
+    }
+
+    @Test
+    public void failedCommit_isRetried_andTheOtherFileStillWritten() {
+        userPrefs.failCommits = true;
+        store.setParticipantId("A0001");
+        store.setPuzzleSolved(true);
+
+        scheduler.runAll();
+        assertEquals(true, puzzlePrefs.values.get("solvedPuzzle"));
+        assertFalse(userPrefs.contains("ParticipantID"));
+        assertEquals(asList(AppStateStore.FLUSH_DELAY_MS), scheduler.delays);
+
+        // only the failed file is written again
+        userPrefs.failCommits = false;
+        scheduler.runAll();
+        assertEquals("A0001", userPrefs.values.get("ParticipantID"));
+        assertEquals(2, userPrefs.commits);
+        assertEquals(1, puzzlePrefs.commits);
+        assertTrue(scheduler.tasks.isEmpty());
+    }
+
+    @Test
+    public void writtenState_isWhatTheNextProcessReads() {
+        store.setParticipantId("C0001");
+        store.setPuzzleAbandoned(true);
+        store.setPuzzleInProgressInterval(3);
+        scheduler.runAll();
+
+        AppStateStore reopened = new AppStateStore(userPrefs, puzzlePrefs, new FakeScheduler());
+        assertEquals("C0001", reopened.getParticipantId());
+        assertTrue(reopened.isPuzzleAbandoned());
+        assertEquals(3, reopened.getPuzzleInProgressInterval());
+        assertEquals("", reopened.getPuzzlePattern());
+    }
+
+    @Test
+    public void abandonedPuzzle_isDeliveredToSubscribers() {
+        ArrayDeque<Runnable> mainThread = new ArrayDeque<>();
+        List<AppStateStore.Key> seen = new ArrayList<>();
+        store.subscribe(mainThread::add, seen::add);
+
+        store.setPuzzleAbandoned(true);
+        store.setPuzzleAbandoned(true);  // no change, no callback
+        while (!mainThread.isEmpty()) {
+            mainThread.poll().run();
+        }
+
+        assertEquals(asList(AppStateStore.Key.PUZZLE_ABANDONED), seen);
+        assertTrue(store.isPuzzleAbandoned());
+    }
+
+    @Test
+    public void unsubscribed_getsNothingPending() {
+        ArrayDeque<Runnable> mainThread = new ArrayDeque<>();
+        List<AppStateStore.Key> seen = new ArrayList<>();
+        AppStateStore.Subscription subscription = store.subscribe(mainThread::add, seen::add);
+
+        store.setPuzzleAbandoned(true);
+        store.unsubscribe(subscription);
+        while (!mainThread.isEmpty()) {
+            mainThread.poll().run();
+        }
+
+        assertTrue(seen.isEmpty());
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.usagemanagement;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cached days and today's checkpoint read back as written, and anything that doesn't check
+ * out (corrupt file, another zone, yesterday's checkpoint) reads as missing.
+ */
+public class DayAggregateCacheTest {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final long DAY = 20_000 * DAY_MS;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final TimeZone BERLIN = TimeZone.getTimeZone("Europe/Berlin");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DayAggregateCache cache(int maxDays) {
+        return new DayAggregateCache(new File(folder.getRoot(), "day_cache"), maxDays);
+    }
+
+    private static DayAggregateCache.DayAggregate day(long dayStart) {
+        DayAggregateCache.Builder builder = new DayAggregateCache.Builder();
+        builder.add("com.instagram.android", dayStart + 1_000, dayStart + 61_000);
+        builder.add("com.whatsapp", dayStart + 70_000, dayStart + 80_000);
+        builder.add("com.instagram.android", dayStart + 90_000, dayStart + 120_000);
+        return builder.build(dayStart, dayStart + DAY_MS);
+    }
+
+    private static List<String> sessions(DayAggregateCache.DayAggregate day) {
+        List<String> sessions = new ArrayList<>();
+        day.replaySessions(0, new UsageSessionizer.SessionSink() {
+            @Override
+            public void onDayStart(int d) {
+            }
+
+            @Override
+            public void onSession(int d, String packageName, long start, long end) {
+                sessions.add(packageName + " " + (start - day.dayStart) + "-" + (end - day.dayStart));
+            }
+
+            @Override
+            public void onDayEnd(int d) {
+            }
+        });
+        return sessions;
+    }
+
+    @Test
+    public void day_readsBackAsWritten() throws Exception {
+        DayAggregateCache cache = cache(10);
+        cache.put(day(DAY), UTC);
+
+        DayAggregateCache.DayAggregate read = cache.get(DAY, UTC);
+        assertNotNull(read);
+        assertEquals(DAY + DAY_MS, read.dayEnd);
+        assertArrayEquals(new String[] { "com.instagram.android", "com.whatsapp" }, read.packages);
+        assertArrayEquals(new long[] { 90_000, 10_000 }, read.totals);
+        assertEquals(asList("com.instagram.android 1000-61000", "com.whatsapp 70000-80000",
+                "com.instagram.android 90000-120000"), sessions(read));
+
+        assertNull(cache.get(DAY + DAY_MS, UTC));
+    }
+
+    @Test
+    public void corruptDay_readsAsMissing() throws Exception {
+        DayAggregateCache cache = cache(10);
+        cache.put(day(DAY), UTC);
+        File file = new File(folder.getRoot(), "day_cache").listFiles()[0];
+        try (RandomAccessFile corrupt = new RandomAccessFile(file, "rw")) {
+            corrupt.seek(30);
+            corrupt.write(corrupt.read() ^ 0xFF);
+        }
+
+        assertTrue(cache.contains(DAY, UTC));
+        assertNull(cache.get(DAY, UTC));
+    }
+
+    @Test
+    public void checkpoint_onlyServesItsOwnDay() throws Exception {
+        DayAggregateCache cache = cache(10);
+        DayAggregateCache.Checkpoint checkpoint = new DayAggregateCache.Checkpoint(day(DAY), DAY + 200_000,
+                new String[] { "com.instagram.android" }, new long[] { DAY + 150_000 });
+        cache.putCheckpoint(checkpoint, UTC);
+
+        DayAggregateCache.Checkpoint read = cache.getCheckpoint(DAY, UTC);
+        assertNotNull(read);
+        assertEquals(DAY + 200_000, read.watermark);
+        assertArrayEquals(new String[] { "com.instagram.android" }, read.openPackages);
+        assertArrayEquals(new long[] { DAY + 150_000 }, read.openStarts);
+        assertEquals(3, read.day.getSessionCount());
+
+        // the next day starts over from midnight
+        assertNull(cache.getCheckpoint(DAY + DAY_MS, UTC));
+    }
+
+    @Test
+    public void zoneChange_dropsDaysOfOtherZones() throws Exception {
+        DayAggregateCache cache = cache(10);
+        cache.put(day(DAY), UTC);
+        cache.put(day(DAY - 3_600_000), BERLIN);
+
+        cache.invalidateOtherZones(BERLIN);
+        assertFalse(cache.contains(DAY, UTC));
+        assertNotNull(cache.get(DAY - 3_600_000, BERLIN));
+    }
+
+    @Test
+    public void oldestDays_areEvicted() throws Exception {
+        DayAggregateCache cache = cache(3);
+        for (int d = 0; d < 5; d++) {
+            cache.put(day(DAY + d * DAY_MS), UTC);
+        }
+
+        assertFalse(cache.contains(DAY, UTC));
+        assertFalse(cache.contains(DAY + DAY_MS, UTC));
+        for (int d = 2; d < 5; d++) {
+            assertTrue(cache.contains(DAY + d * DAY_MS, UTC));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.usagemanagement;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Day boundaries on the days that aren't 24 hours long, and across the new year, in a zone
+ * fixed for the test.
+ */
+public class DayClockTest {
+
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    private static final String BERLIN = "Europe/Berlin";
+
+    private static long midnight(String zone, int year, int month, int day) {
+        return LocalDate.of(year, month, day).atStartOfDay(ZoneId.of(zone)).toInstant().toEpochMilli();
+    }
+
+    private static long at(String zone, int year, int month, int day, int hour, int minute) {
+        return LocalDateTime.of(year, month, day, hour, minute).atZone(ZoneId.of(zone)).toInstant().toEpochMilli();
+    }
+
+    @Test
+    public void springForward_dayIs23Hours() {
+        DayClock clock = new DayClock(TimeZone.getTimeZone(BERLIN));
+        long start = midnight(BERLIN, 2024, 3, 31);
+        long afterJump = at(BERLIN, 2024, 3, 31, 15, 0);
+
+        assertEquals(start, clock.getDayStart(afterJump));
+        assertEquals(start + 23 * HOUR_MS, clock.getNextMidnight(afterJump));
+        assertEquals(start + 23 * HOUR_MS, clock.addDays(start, 1));
+        assertEquals(23, clock.hourBoundaries(start, clock.addDays(start, 1)).length - 1);
+    }
+
+    @Test
+    public void fallBack_dayIs25Hours() {
+        DayClock clock = new DayClock(TimeZone.getTimeZone(BERLIN));
+        long start = midnight(BERLIN, 2024, 10, 27);
+        long afterRepeat = at(BERLIN, 2024, 10, 27, 15, 0);
+
+        assertEquals(start, clock.getDayStart(afterRepeat));
+        assertEquals(start + 25 * HOUR_MS, clock.getNextMidnight(afterRepeat));
+        assertEquals(25, clock.hourBoundaries(start, clock.addDays(start, 1)).length - 1);
+    }
+
+    @Test
+    public void dayBoundaries_acrossBothTransitions() {
+        DayClock clock = new DayClock(TimeZone.getTimeZone(BERLIN));
+        long[] bounds = clock.dayBoundaries(at(BERLIN, 2024, 3, 30, 12, 0), at(BERLIN, 2024, 4, 1, 12, 0));
+
+        assertArrayEquals(new long[] {
+                midnight(BERLIN, 2024, 3, 30),
+                midnight(BERLIN, 2024, 3, 31),
+                midnight(BERLIN, 2024, 4, 1),
+                midnight(BERLIN, 2024, 4, 2),
+        }, bounds);
+        assertEquals(24 * HOUR_MS, bounds[1] - bounds[0]);
+        assertEquals(23 * HOUR_MS, bounds[2] - bounds[1]);
+    }
+
+    @Test
+    public void newYear_rollsIntoTheNextYear() {
+        String zone = "America/New_York";
+        DayClock clock = new DayClock(TimeZone.getTimeZone(zone));
+        long lastDay = midnight(zone, 2023, 12, 31);
+        long lateEvening = at(zone, 2023, 12, 31, 23, 59);
+
+        assertEquals(lastDay, clock.getDayStart(lateEvening));
+        assertEquals(midnight(zone, 2024, 1, 1), clock.getNextMidnight(lateEvening));
+        assertEquals(midnight(zone, 2024, 1, 1), clock.addDays(lastDay, 1));
+        assertEquals(midnight(zone, 2023, 12, 30), clock.addDays(midnight(zone, 2024, 1, 1), -2));
+        // and the cached day moves on once midnight has passed
+        assertEquals(midnight(zone, 2024, 1, 1), clock.getDayStart(lateEvening + 2 * 60_000));
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.usagemanagement;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The parallel read of a long range against one sequential event read: the sink must see
+ * the same calls in the same order, with or without some days replayed from storage, and
+ * pool threads interning names they've never seen must still end up with one id per name.
+ */
+public class DayReaderTest {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final long RANGE_START = 1_700_000_000_000L;
+    private static final int DAYS = 35;
+    private static final int THREADS = 4;
+    private static final int RESUMED = EventSource.ACTIVITY_RESUMED;
+    private static final int PAUSED = EventSource.ACTIVITY_PAUSED;
+
+    // an in-memory event history, oldest first
+    private static final class ListEventSource implements EventSource {
+        final List<String> names = new ArrayList<>();
+        final List<long[]> events = new ArrayList<>();
+
+        void add(String packageName, long timestamp, int type) {
+            names.add(packageName);
+            events.add(new long[] { timestamp, type });
+        }
+
+        @Override
+        public void read(long begin, long end, Visitor visitor) {
+            for (int i = 0; i < events.size(); i++) {
+                long timestamp = events.get(i)[0];
+                if (timestamp >= begin && timestamp < end) {
+                    visitor.onEvent(names.get(i), timestamp, (int) events.get(i)[1]);
+                }
+            }
+        }
+    }
+
+    // writes every call down so two passes can be compared
+    private static final class RecordingSink implements UsageSessionizer.SessionSink {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void onDayStart(int day) {
+            calls.add("start " + day);
+        }
+
+        @Override
+        public void onSession(int day, String packageName, long start, long end) {
+            calls.add("session " + day + " " + packageName + " " + start + "-" + end);
+        }
+
+        @Override
+        public void onDayEnd(int day) {
+            calls.add("end " + day);
+        }
+    }
+
+    // days kept from an earlier read, like the day cache
+    private static final class MapStoredDays implements DayReader.StoredDays {
+        final Map<Integer, DayAggregateCache.DayAggregate> days = new HashMap<>();
+        int read = 0;
+
+        @Override
+        public boolean has(int day) {
+            return days.containsKey(day);
+        }
+
+        @Override
+        public boolean replay(int day, UsageSessionizer.SessionSink sink) {
+            DayAggregateCache.DayAggregate aggregate = days.get(day);
+            if (aggregate == null) return false;
+            aggregate.replay(day, sink);
+            return true;
+        }
+
+        @Override
+        public void onDayRead(DayAggregateCache.DayAggregate aggregate) {
+            read++;
+        }
+    }
+
+    private static long[] dayBounds() {
+        long[] bounds = new long[DAYS + 1];
+        for (int i = 0; i <= DAYS; i++) {
+            bounds[i] = RANGE_START + i * DAY_MS;
+        }
+        return bounds;
+    }
+
+    // a few weeks of sessions over a handful of apps, a new app every few days, some
+    // sessions left open over midnight and the odd pause without its resume
+    private static ListEventSource history(long[] bounds) {
+        ListEventSource source = new ListEventSource();
+        Random random = new Random(42);
+        for (int day = 0; day < DAYS; day++) {
+            long t = bounds[day] + random.nextInt(3_600_000);
+            while (t < bounds[day + 1] - 3_600_000) {
+                String app = random.nextInt(6) == 0
+                        ? "com.example.day" + (day / 3) : "com.example.app" + random.nextInt(5);
+                source.add(app, t, RESUMED);
+                t += 1_000 + random.nextInt(600_000);
+                source.add(app, t, PAUSED);
+                if (random.nextInt(50) == 0) {
+                    source.add("com.example.stray", t + 1, PAUSED);
+                }
+                t += 1_000 + random.nextInt(1_200_000);
+            }
+            if (day % 5 == 0) {
+                // still open at midnight: dropped on both days
+                source.add("com.example.app0", bounds[day + 1] - 60_000, RESUMED);
+                source.add("com.example.app0", bounds[day + 1] + 60_000, PAUSED);
+            }
+        }
+        return source;
+    }
+
+    private static List<String> readSequential(long[] bounds, ListEventSource source) throws Exception {
+        RecordingSink sink = new RecordingSink();
+        new DayReader(source, new PackageDictionary(null), () -> { }).queryDays(bounds, 0, sink);
+        return sink.calls;
+    }
+
+    @Test
+    public void parallelRead_matchesTheSequentialOne() throws Exception {
+        long[] bounds = dayBounds();
+        ListEventSource source = history(bounds);
+        List<String> sequential = readSequential(bounds, source);
+
+        RecordingSink parallel = new RecordingSink();
+        MapStoredDays nothingStored = new MapStoredDays();
+        new DayReader(source, new PackageDictionary(null), () -> { })
+                .readParallel(bounds, parallel, THREADS, nothingStored);
+
+        assertTrue("calls " + sequential.size(), sequential.size() > 2 * DAYS + 1_000);
+        assertEquals(sequential, parallel.calls);
+        assertEquals(DAYS, nothingStored.read);
+    }
+
+    @Test
+    public void parallelRead_withStoredDays_matchesTheSequentialOne() throws Exception {
+        long[] bounds = dayBounds();
+        ListEventSource source = history(bounds);
+        List<String> sequential = readSequential(bounds, source);
+
+        DayReader reader = new DayReader(source, new PackageDictionary(null), () -> { });
+        MapStoredDays stored = new MapStoredDays();
+        for (int day = 0; day < DAYS; day += 3) {
+            stored.days.put(day, reader.computeDay(bounds[day], bounds[day + 1]));
+        }
+        RecordingSink parallel = new RecordingSink();
+        reader.readParallel(bounds, parallel, THREADS, stored);
+
+        assertEquals(sequential, parallel.calls);
+        assertEquals(DAYS - stored.days.size(), stored.read);
+    }
+
+    @Test
+    public void poolThreads_assignOneIdPerName() throws Exception {
+        long[] bounds = dayBounds();
+        ListEventSource source = history(bounds);
+        PackageDictionary packages = new PackageDictionary(null);
+        new DayReader(source, packages, () -> { })
+                .readParallel(bounds, new RecordingSink(), THREADS, new MapStoredDays());
+
+        Set<String> resumed = new HashSet<>();
+        for (int i = 0; i < source.names.size(); i++) {
+            if (source.events.get(i)[1] == RESUMED) resumed.add(source.names.get(i));
+        }
+        assertEquals(resumed.size(), packages.size());
+        for (String name : resumed) {
+            int id = packages.find(name);
+            assertTrue(name, id >= 0);
+            assertEquals(name, packages.nameOf(id));
+        }
+    }
+}
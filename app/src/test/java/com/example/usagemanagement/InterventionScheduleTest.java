@@ -0,0 +1,51 @@
+package com.example.usagemanagement;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The threshold counts the whole day's minutes, so it stays crossed past the first hour
+ * instead of following the minutes part of the display.
+ */
+public class InterventionScheduleTest {
+
+    private final InterventionSchedule schedule = new InterventionSchedule(60, 15);
+
+    private static long minutes(long minutes) {
+        return TimeUnit.MINUTES.toMillis(minutes);
+    }
+
+    @Test
+    public void threshold_isReachedAtSixtyMinutes() {
+        assertFalse(schedule.isPastThreshold(minutes(60) - 1));
+        assertTrue(schedule.isPastThreshold(minutes(60)));
+    }
+
+    @Test
+    public void threshold_staysCrossedAfterTheFirstHour() {
+        // 1:30 shows "30 min" on screen; the old check compared that with 60
+        assertTrue(schedule.isPastThreshold(minutes(90)));
+        assertTrue(schedule.isPastThreshold(minutes(120)));
+        assertTrue(schedule.isPastThreshold(minutes(179)));
+    }
+
+    @Test
+    public void puzzleInterval_countsWholeIntervalsOfUse() {
+        assertEquals(0, schedule.puzzleInterval(minutes(14)));
+        assertEquals(4, schedule.puzzleInterval(minutes(60)));
+        assertEquals(4, schedule.puzzleInterval(minutes(75) - 1));
+        assertEquals(5, schedule.puzzleInterval(minutes(75)));
+        assertEquals(8, schedule.puzzleInterval(minutes(120)));
+    }
+
+    @Test
+    public void thresholds_handedToTheTracker_matchTheCheck() {
+        assertEquals(minutes(60), schedule.getThresholdMs());
+        assertEquals(minutes(15), schedule.getPuzzleIntervalMs());
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.usagemanagement;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compaction over ten days of journal in UTC: every closed day gets a rollup, so does every
+ * week whose Monday to Sunday are all rolled up, and a raw segment is only deleted once it is
+ * past retention and its day is rolled up. A first day the backfill only covers part of is
+ * never rolled up.
+ */
+public class JournalCompactorTest {
+
+    private static final long DAY_MS = UsageJournal.DAY_MS;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    private static final long FIRST_DAY = 20_000;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UsageJournal journal;
+    private UsageRollups rollups;
+    private final DayClock dayClock = new DayClock(UTC);
+
+    @Before
+    public void setUp() throws Exception {
+        journal = new UsageJournal(new File(folder.getRoot(), "journal"),
+                new PackageDictionary(new File(folder.getRoot(), "packages.tbl")));
+        rollups = new UsageRollups(new File(folder.getRoot(), "rollups"));
+    }
+
+    private static long day(long d) {
+        return (FIRST_DAY + d) * DAY_MS;
+    }
+
+    // one 70 minute instagram session at 1:00 on each of the given days
+    private void appendSessions(int fromDay, int toDay) {
+        for (int d = fromDay; d < toDay; d++) {
+            journal.appendUsage("com.instagram.android", day(d) + HOUR_MS, EventSource.ACTIVITY_RESUMED);
+            journal.appendUsage("com.instagram.android", day(d) + HOUR_MS + 70 * 60_000, EventSource.ACTIVITY_PAUSED);
+        }
+    }
+
+    @Test
+    public void closedDays_areRolledUp_andOldSegmentsDeleted() throws Exception {
+        appendSessions(0, 10);
+        journal.markIngested(day(10) + HOUR_MS);
+        long now = day(10) + 12 * HOUR_MS;
+
+        int deleted = new JournalCompactor(journal, rollups, dayClock, 3).compact(now);
+
+        // days 0-6 end before the retention horizon (midnight of day 7)
+        assertEquals(7, deleted);
+        assertArrayEquals(new long[] { FIRST_DAY + 7, FIRST_DAY + 8, FIRST_DAY + 9, FIRST_DAY + 10 },
+                journal.segmentDays(UsageJournal.Stream.USAGE));
+        for (int d = 0; d < 10; d++) {
+            UsageRollups.Rollup rollup = rollups.getDay(day(d), UTC);
+            assertNotNull("day " + d, rollup);
+            assertEquals(70 * 60_000L, rollup.totals[0]);
+            assertEquals(1, rollup.sessions[0]);
+            assertEquals(60 * 60_000L, rollup.getSlot(0, 1));
+            assertEquals(10 * 60_000L, rollup.getSlot(0, 2));
+        }
+        // today isn't over yet
+        assertFalse(rollups.hasDay(day(10), UTC));
+
+        // day 0 is a friday: days 3-9 are a whole week, days 0-2 the end of one without rollups
+        assertEquals(day(3), dayClock.startOfWeek(day(9)));
+        UsageRollups.Rollup week = rollups.getWeek(day(3), UTC);
+        assertNotNull(week);
+        assertEquals(day(10), week.end);
+        assertEquals(7 * 70 * 60_000L, week.totals[0]);
+        assertEquals(7, week.sessions[0]);
+        assertEquals(7 * 60 * 60_000L, week.getSlot(0, 1));
+        assertEquals(7 * 10 * 60_000L, week.getSlot(0, 2));
+        assertFalse(rollups.hasWeek(dayClock.startOfWeek(day(0)), UTC));
+
+        // running again finds nothing left to do
+        assertEquals(0, new JournalCompactor(journal, rollups, dayClock, 3).compact(now));
+    }
+
+    @Test
+    public void segmentsPastRetention_stayUntilTheirDayIsRolledUp() throws Exception {
+        appendSessions(0, 4);
+        // day 3 is not fully ingested, so it can't be rolled up yet
+        journal.markIngested(day(3) + 2 * HOUR_MS);
+
+        int deleted = new JournalCompactor(journal, rollups, dayClock, 1).compact(day(10));
+
+        assertEquals(3, deleted);
+        assertArrayEquals(new long[] { FIRST_DAY + 3 }, journal.segmentDays(UsageJournal.Stream.USAGE));
+        assertTrue(rollups.hasDay(day(2), UTC));
+        assertFalse(rollups.hasDay(day(3), UTC));
+    }
+
+    @Test
+    public void partialFirstDay_isNotRolledUp_butLeavesWithRetention() throws Exception {
+        journal.markHistoryStart(day(0) + 5 * HOUR_MS);
+        journal.appendUsage("com.instagram.android", day(0) + 6 * HOUR_MS, EventSource.ACTIVITY_RESUMED);
+        journal.appendUsage("com.instagram.android", day(0) + 7 * HOUR_MS, EventSource.ACTIVITY_PAUSED);
+        appendSessions(1, 4);
+        journal.markIngested(day(4));
+
+        assertEquals(0, new JournalCompactor(journal, rollups, dayClock, 30).compact(day(4) + HOUR_MS));
+        assertFalse(rollups.hasDay(day(0), UTC));
+        for (int d = 1; d < 4; d++) {
+            assertTrue("day " + d, rollups.hasDay(day(d), UTC));
+        }
+
+        // past retention its segment goes with the others, as nothing more will come for it
+        assertEquals(3, new JournalCompactor(journal, rollups, dayClock, 1).compact(day(4) + HOUR_MS));
+        assertFalse(rollups.hasDay(day(0), UTC));
+        assertArrayEquals(new long[] { FIRST_DAY + 3, FIRST_DAY + 4 }, journal.segmentDays(UsageJournal.Stream.USAGE));
+    }
+
+    @Test
+    public void firstDayFromMidnight_isRolledUp() throws Exception {
+        journal.markHistoryStart(day(0));
+        appendSessions(0, 2);
+        journal.markIngested(day(2));
+
+        new JournalCompactor(journal, rollups, dayClock, 30).compact(day(2) + HOUR_MS);
+
+        assertTrue(rollups.hasDay(day(0), UTC));
+        assertTrue(rollups.hasDay(day(1), UTC));
+    }
+
+    @Test
+    public void unreadableRollup_countsAsMissing() throws Exception {
+        appendSessions(0, 2);
+        journal.markIngested(day(2));
+        new JournalCompactor(journal, rollups, dayClock, 30).compact(day(2) + HOUR_MS);
+
+        File[] files = new File(folder.getRoot(), "rollups").listFiles();
+        assertNotNull(files);
+        for (File file : files) {
+            try (RandomAccessFile torn = new RandomAccessFile(file, "rw")) {
+                torn.setLength(torn.length() - 1);
+            }
+        }
+        assertNull(rollups.getDay(day(0), UTC));
+    }
+}
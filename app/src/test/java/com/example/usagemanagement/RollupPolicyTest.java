@@ -0,0 +1,201 @@
+package com.example.usagemanagement;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Which days a report takes from rollups: over 40 days with rollups for every day and raw
+ * events from day 5 on, an export (or the pdf's raw data) still gets every session the
+ * journal has, and only the days without raw events come out as rolled-up markers. A report
+ * that needs no sessions reads the whole long range from rollups, and a weekly one reads each
+ * whole Monday week from its weekly rollup.
+ */
+public class RollupPolicyTest {
+
+    private static final long DAY_MS = UsageJournal.DAY_MS;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    private static final long FIRST_DAY = 20_000 * DAY_MS;
+    private static final int DAYS = 40;
+    private static final int RAW_FROM_DAY = 5;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final String INSTAGRAM = "com.instagram.android";
+    private static final long DAY_USAGE = 30 * 60_000L;
+    // FIRST_DAY is a friday, so whole weeks start on these days
+    private static final int[] MONDAYS = { 3, 10, 17, 24, 31 };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final long[] dayBounds = new long[DAYS + 1];
+    private final List<long[]> events = new ArrayList<>();
+    private UsageRollups rollups;
+
+    // raw events from RAW_FROM_DAY on; before that the journal only has rollups
+    private final EventSource journal = (begin, end, visitor) -> {
+        for (long[] event : events) {
+            if (event[0] >= begin && event[0] < end && event[0] >= rawHistoryStart()) {
+                visitor.onEvent(INSTAGRAM, event[0], (int) event[1]);
+            }
+        }
+    };
+
+    private long rawHistoryStart() {
+        return dayBounds[RAW_FROM_DAY];
+    }
+
+    // two sessions a day, 10 and 20 minutes, and each day's rollup of them
+    @Before
+    public void setUp() throws Exception {
+        rollups = new UsageRollups(new File(folder.getRoot(), "rollups"));
+        for (int d = 0; d <= DAYS; d++) {
+            dayBounds[d] = FIRST_DAY + d * DAY_MS;
+        }
+        for (int d = 0; d < DAYS; d++) {
+            UsageRollups.Builder rollup = new UsageRollups.Builder(dayBounds[d]);
+            for (long[] session : new long[][] {
+                    { dayBounds[d] + HOUR_MS, dayBounds[d] + HOUR_MS + 10 * 60_000 },
+                    { dayBounds[d] + 5 * HOUR_MS, dayBounds[d] + 5 * HOUR_MS + 20 * 60_000 } }) {
+                events.add(new long[] { session[0], EventSource.ACTIVITY_RESUMED });
+                events.add(new long[] { session[1], EventSource.ACTIVITY_PAUSED });
+                rollup.addSession(INSTAGRAM, session[0], session[1]);
+            }
+            rollups.putDay(rollup.build(dayBounds[d + 1]), UTC);
+        }
+        for (int monday : MONDAYS) {
+            UsageRollups.Builder week = new UsageRollups.Builder(dayBounds[monday]);
+            for (int d = monday; d < monday + 7; d++) {
+                week.addRollup(rollups.getDay(dayBounds[d], UTC));
+            }
+            rollups.putWeek(week.build(dayBounds[monday + 7]), UTC);
+        }
+    }
+
+    private RollupPolicy policy(ReportQuery.Builder query) {
+        return new RollupPolicy(rollups, rawHistoryStart(), dayBounds, new DayClock(UTC), query.build());
+    }
+
+    // usage per day as the reader hands it out
+    private long[] usagePerDay(RollupPolicy policy) throws Exception {
+        long[] usage = new long[DAYS];
+        new DayReader(journal, new PackageDictionary(null), () -> { }).readSequential(dayBounds,
+                new UsageSessionizer.SessionSink() {
+                    @Override
+                    public void onDayStart(int day) {
+                    }
+
+                    @Override
+                    public void onSession(int day, String packageName, long start, long end) {
+                        usage[day] += end - start;
+                    }
+
+                    @Override
+                    public void onSummary(int day, String packageName, long start, long end) {
+                        usage[day] += end - start;
+                    }
+
+                    @Override
+                    public void onDayEnd(int day) {
+                    }
+                }, policy);
+        return usage;
+    }
+
+    @Test
+    public void exportOverALongRange_readsEveryRawDay() throws Exception {
+        RollupPolicy policy = policy(new ReportQuery.Builder(dayBounds[0], dayBounds[DAYS]).exportSessions(true));
+        for (int d = 0; d < DAYS; d++) {
+            assertEquals("day " + d, d < RAW_FROM_DAY, policy.covers(d));
+        }
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        SessionExportWriter export = new SessionExportWriter("A0001", dayBounds, csv, new ByteArrayOutputStream(),
+                new PackageDictionary(null));
+        new DayReader(journal, new PackageDictionary(null), () -> { }).readSequential(dayBounds, export, policy);
+        export.finish();
+
+        String[] lines = new String(csv.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        int sessions = 0;
+        int markers = 0;
+        for (int i = 1; i < lines.length; i++) {
+            if (lines[i].endsWith(",session")) {
+                sessions++;
+            } else {
+                assertTrue(lines[i], lines[i].endsWith(",1800000,rolled_up_day"));
+                markers++;
+            }
+        }
+        assertEquals(2 * (DAYS - RAW_FROM_DAY), sessions);
+        assertEquals(export.getSessionCount(), sessions);
+        assertEquals(RAW_FROM_DAY, markers);
+        assertEquals(RAW_FROM_DAY, export.getRolledUpDayCount());
+    }
+
+    @Test
+    public void rawDataInThePdf_keepsRawDaysRaw() {
+        RollupPolicy policy = policy(new ReportQuery.Builder(dayBounds[0], dayBounds[DAYS]));
+        assertTrue(policy.covers(RAW_FROM_DAY - 1));
+        assertFalse(policy.covers(RAW_FROM_DAY));
+    }
+
+    @Test
+    public void longRangeWithoutSessions_readsRollupsThroughout() {
+        RollupPolicy policy = policy(new ReportQuery.Builder(dayBounds[0], dayBounds[DAYS]).rawData(false));
+        for (int d = 0; d < DAYS; d++) {
+            assertTrue("day " + d, policy.covers(d));
+        }
+    }
+
+    @Test
+    public void longWeeklyReport_readsWholeWeeksFromTheirRollup() throws Exception {
+        ReportQuery query = new ReportQuery.Builder(dayBounds[0], dayBounds[DAYS]).rawData(false)
+                .granularity(ReportQuery.Granularity.WEEKLY).heatmapMinutes(0).build();
+        long[] usage = usagePerDay(new RollupPolicy(rollups, rawHistoryStart(), dayBounds, new DayClock(UTC), query));
+
+        long total = 0;
+        for (int d = 0; d < DAYS; d++) {
+            boolean monday = Arrays.binarySearch(MONDAYS, d) >= 0;
+            boolean inWeek = d >= MONDAYS[0] && d < MONDAYS[MONDAYS.length - 1] + 7;
+            assertEquals("day " + d, monday ? 7 * DAY_USAGE : inWeek ? 0 : DAY_USAGE, usage[d]);
+            total += usage[d];
+        }
+        assertEquals(DAYS * DAY_USAGE, total);
+
+        // the table's weekly rows line up with the weeks
+        assertArrayEquals(new long[] { dayBounds[0], dayBounds[3], dayBounds[10], dayBounds[17], dayBounds[24],
+                dayBounds[31], dayBounds[38], dayBounds[DAYS] }, query.rowBounds(dayBounds, new DayClock(UTC)));
+    }
+
+    @Test
+    public void weeklyReportWithAHeatmap_readsDayByDay() throws Exception {
+        long[] usage = usagePerDay(policy(new ReportQuery.Builder(dayBounds[0], dayBounds[DAYS]).rawData(false)
+                .granularity(ReportQuery.Granularity.WEEKLY)));
+        for (int d = 0; d < DAYS; d++) {
+            assertEquals("day " + d, DAY_USAGE, usage[d]);
+        }
+    }
+
+    @Test
+    public void shortRange_readsRollupsOnlyWhereRawIsGone() {
+        long[] tenDays = Arrays.copyOf(dayBounds, 11);
+        RollupPolicy policy = new RollupPolicy(rollups, rawHistoryStart(), tenDays, new DayClock(UTC),
+                new ReportQuery.Builder(tenDays[0], tenDays[10]).rawData(false).build());
+        for (int d = 0; d < 10; d++) {
+            assertEquals("day " + d, d < RAW_FROM_DAY, policy.covers(d));
+        }
+    }
+}
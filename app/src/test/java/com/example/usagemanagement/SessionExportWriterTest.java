@@ -0,0 +1,128 @@
+package com.example.usagemanagement;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Writes sessions through the exporter and reads both files back: every session is one CSV
+ * row and one binary SESSION record, each package is declared once before its first session,
+ * and the counts agree with {@link SessionExportWriter#getSessionCount()}.
+ */
+public class SessionExportWriterTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+    private static final long[] DAY_BOUNDS = { T0, T0 + 86_400_000L, T0 + 2 * 86_400_000L };
+
+    private final ByteArrayOutputStream csvOut = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream binaryOut = new ByteArrayOutputStream();
+
+    private SessionExportWriter writeSessions(String participantId) throws Exception {
+        SessionExportWriter writer = new SessionExportWriter(participantId, DAY_BOUNDS, csvOut, binaryOut,
+                new PackageDictionary(null));
+        writer.onDayStart(0);
+        writer.onSession(0, "com.instagram.android", T0, T0 + 60_000);
+        writer.onSession(0, "com.example.other", T0 + 70_000, T0 + 75_000);
+        writer.onDayEnd(0);
+        writer.onDayStart(1);
+        writer.onSession(1, "com.instagram.android", T0 + 100_000, T0 + 160_000);
+        writer.onDayEnd(1);
+        writer.finish();
+        return writer;
+    }
+
+    @Test
+    public void csv_hasOneRowPerSession() throws Exception {
+        SessionExportWriter writer = writeSessions("A0001");
+
+        List<String> lines = asList(new String(csvOut.toByteArray(), StandardCharsets.UTF_8).split("\n"));
+        assertEquals(asList(
+                "participant_id,package,start_ms,end_ms,duration_ms,kind",
+                "A0001,com.instagram.android," + T0 + "," + (T0 + 60_000) + ",60000,session",
+                "A0001,com.example.other," + (T0 + 70_000) + "," + (T0 + 75_000) + ",5000,session",
+                "A0001,com.instagram.android," + (T0 + 100_000) + "," + (T0 + 160_000) + ",60000,session"), lines);
+        assertEquals(writer.getSessionCount(), lines.size() - 1);
+    }
+
+    @Test
+    public void binary_readsBackTheSameSessions() throws Exception {
+        SessionExportWriter writer = writeSessions("A0001");
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(binaryOut.toByteArray()));
+        assertEquals(0x49475345, in.readInt());
+        assertEquals(SessionExportWriter.VERSION, in.readInt());
+        assertEquals("A0001", in.readUTF());
+
+        Map<Integer, String> declared = new HashMap<>();
+        List<String> sessions = new ArrayList<>();
+        int endCount = -1;
+        while (endCount < 0) {
+            byte tag = in.readByte();
+            if (tag == SessionExportWriter.TAG_PACKAGE) {
+                int id = in.readInt();
+                assertNull(declared.put(id, in.readUTF()));
+            } else if (tag == SessionExportWriter.TAG_SESSION) {
+                String packageName = declared.get(in.readInt());
+                long start = in.readLong();
+                long end = in.readLong();
+                sessions.add(packageName + " " + (start - T0) + "-" + (end - T0));
+            } else {
+                assertEquals(SessionExportWriter.TAG_END, tag);
+                endCount = in.readInt();
+            }
+        }
+
+        assertEquals(asList(
+                "com.instagram.android 0-60000",
+                "com.example.other 70000-75000",
+                "com.instagram.android 100000-160000"), sessions);
+        assertEquals(2, declared.size());
+        assertEquals(writer.getSessionCount(), sessions.size());
+        assertEquals(writer.getSessionCount(), endCount);
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void rolledUpDay_isOneMarkerRowPerApp() throws Exception {
+        SessionExportWriter writer = new SessionExportWriter("A0001", DAY_BOUNDS, csvOut, binaryOut,
+                new PackageDictionary(null));
+        writer.onDayStart(0);
+        writer.onSummary(0, "com.instagram.android", T0, T0 + 20_000);
+        writer.onSummary(0, "com.example.other", T0 + 3_600_000, T0 + 3_605_000);
+        writer.onSummary(0, "com.instagram.android", T0 + 7_200_000, T0 + 7_230_000);
+        writer.onDayEnd(0);
+        writer.onDayStart(1);
+        writer.onSession(1, "com.instagram.android", DAY_BOUNDS[1], DAY_BOUNDS[1] + 1_000);
+        writer.onDayEnd(1);
+        writer.finish();
+
+        List<String> lines = asList(new String(csvOut.toByteArray(), StandardCharsets.UTF_8).split("\n"));
+        assertEquals(asList(
+                "participant_id,package,start_ms,end_ms,duration_ms,kind",
+                "A0001,com.instagram.android," + DAY_BOUNDS[0] + "," + DAY_BOUNDS[1] + ",50000,rolled_up_day",
+                "A0001,com.example.other," + DAY_BOUNDS[0] + "," + DAY_BOUNDS[1] + ",5000,rolled_up_day",
+                "A0001,com.instagram.android," + DAY_BOUNDS[1] + "," + (DAY_BOUNDS[1] + 1_000) + ",1000,session"),
+                lines);
+        assertEquals(1, writer.getSessionCount());
+        assertEquals(1, writer.getRolledUpDayCount());
+    }
+
+    @Test
+    public void participantIdWithAComma_isQuotedInTheCsv() throws Exception {
+        writeSessions("A,1");
+
+        String[] lines = new String(csvOut.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals("\"A,1\",com.example.other," + (T0 + 70_000) + "," + (T0 + 75_000) + ",5000,session", lines[2]);
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.usagemanagement;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes a report for a synthetic heavy user and checks that what the writer holds doesn't
+ * grow with the length of the range: every session goes to the spool, and the in-memory
+ * per-app state is the same size for 7 days as for 180.
+ */
+public class StreamingReportWriterTest {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final long RANGE_START = 1_700_000_000_000L;
+    private static final int APPS = 40;
+    private static final int SESSIONS_PER_DAY = 400;
+
+    @Test
+    public void memoryState_staysFlat_from7To180Days() throws Exception {
+        ReportStats week = writeReport(7);
+        ReportStats halfYear = writeReport(180);
+
+        assertEquals(week.appCapacity, halfYear.appCapacity);
+        assertTrue("app capacity " + halfYear.appCapacity, halfYear.appCapacity < 2 * APPS);
+    }
+
+    @Test
+    public void everySession_isSpooledToDisk() throws Exception {
+        for (int days : new int[] { 7, 180 }) {
+            ReportStats stats = writeReport(days);
+            long sessions = (long) days * SESSIONS_PER_DAY;
+            assertEquals(sessions, stats.sessionCount);
+            assertEquals(sessions * StreamingReportWriter.SPOOL_RECORD_BYTES, stats.spoolBytes);
+            assertTrue("pdf bytes " + stats.pdfBytes, stats.pdfBytes > 0);
+        }
+    }
+
+    private static final class ReportStats {
+        int sessionCount;
+        int appCapacity;
+        long spoolBytes;
+        long pdfBytes;
+    }
+
+    private ReportStats writeReport(int days) throws Exception {
+        long[] dayBounds = new long[days + 1];
+        for (int i = 0; i <= days; i++) {
+            dayBounds[i] = RANGE_START + i * DAY_MS;
+        }
+
+        ReportStats stats = new ReportStats();
+        File spool = File.createTempFile("report", ".spool");
+        try (StreamingReportWriter writer = new StreamingReportWriter(dayBounds, dayBounds,
+                ReportQuery.Granularity.DAILY, ReportQuery.DEFAULT_TOP_N, spool)) {
+            Random random = new Random(days);
+            for (int day = 0; day < days; day++) {
+                writer.onDayStart(day);
+                long t = dayBounds[day] + 60_000;
+                for (int s = 0; s < SESSIONS_PER_DAY; s++) {
+                    long duration = 1_000 + random.nextInt(120_000);
+                    String app = "com.example.app" + random.nextInt(APPS) + ".android";
+                    writer.onSession(day, app, t, t + duration);
+                    t += duration + random.nextInt(60_000);
+                }
+                writer.onDayEnd(day);
+            }
+
+            CountingOutputStream pdf = new CountingOutputStream();
+            writer.writePdf("——USAGE REPORT START——\n", pdf);
+            stats.sessionCount = writer.getSessionCount();
+            stats.appCapacity = writer.getAppCapacity();
+            // the spool is closed but still on disk until the writer is
+            stats.spoolBytes = spool.length();
+            stats.pdfBytes = pdf.count;
+        }
+        return stats;
+    }
+
+    // discards the pdf, counting its bytes
+    private static final class CountingOutputStream extends OutputStream {
+        long count = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
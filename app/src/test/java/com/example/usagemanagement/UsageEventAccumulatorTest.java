@@ -0,0 +1,167 @@
+package com.example.usagemanagement;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that folding events tick by tick gives the same daily total as scanning the whole
+ * day at once, and that one pass over several apps matches a scan per app.
+ */
+public class UsageEventAccumulatorTest {
+
+    private static final int RESUMED = 1;
+    private static final int PAUSED = 2;
+    private static final long DAY_START = 1_700_000_000_000L;
+
+    // {timestamp, type} pairs, written by hand: a few ordinary sessions plus the odd sequences
+    // UsageStats is known to produce
+    private static final long[][] HAND_WRITTEN = {
+            {DAY_START + 1_000, RESUMED},
+            {DAY_START + 61_000, PAUSED},
+            {DAY_START + 62_000, PAUSED},           // pause without a matching resume
+            {DAY_START + 120_000, RESUMED},
+            {DAY_START + 125_000, RESUMED},         // double resume restarts the session
+            {DAY_START + 300_000, PAUSED},
+            {DAY_START + 300_000, RESUMED},         // same-millisecond hand-off
+            {DAY_START + 900_000, PAUSED},
+            {DAY_START + 1_800_000, RESUMED},       // still open at the end of the sequence
+    };
+
+    @Test
+    public void incrementalTotal_matchesFullScan_onHandWrittenSequence() {
+        long fullScan = fullScanTotal(HAND_WRITTEN);
+        for (int ticks = 1; ticks <= HAND_WRITTEN.length + 1; ticks++) {
+            assertEquals("ticks=" + ticks, fullScan, incrementalTotal(HAND_WRITTEN, ticks));
+        }
+    }
+
+    @Test
+    public void incrementalTotal_matchesFullScan_onRandomSequences() {
+        Random random = new Random(42);
+        for (int run = 0; run < 200; run++) {
+            long[][] events = randomDay(random, 1 + random.nextInt(500));
+            long fullScan = fullScanTotal(events);
+            int ticks = 1 + random.nextInt(events.length + 1);
+            assertEquals("run=" + run, fullScan, incrementalTotal(events, ticks));
+        }
+    }
+
+    @Test
+    public void singlePass_overInterleavedApps_matchesPerAppScans() {
+        Random random = new Random(7);
+        int apps = 4;
+        for (int run = 0; run < 50; run++) {
+            long[][] events = randomDay(random, 1 + random.nextInt(800));
+            int[] owners = new int[events.length];
+            for (int i = 0; i < owners.length; i++) {
+                owners[i] = random.nextInt(apps);
+            }
+
+            UsageEventAccumulator accumulator = new UsageEventAccumulator(apps);
+            accumulator.reset(DAY_START);
+            for (int i = 0; i < events.length; i++) {
+                if (events[i][1] == RESUMED) {
+                    accumulator.onResumed(owners[i], events[i][0]);
+                } else {
+                    accumulator.onPaused(owners[i], events[i][0]);
+                }
+            }
+
+            for (int app = 0; app < apps; app++) {
+                int count = 0;
+                for (int owner : owners) {
+                    if (owner == app) count++;
+                }
+                long[][] appEvents = new long[count][];
+                for (int i = 0, j = 0; i < events.length; i++) {
+                    if (owners[i] == app) appEvents[j++] = events[i];
+                }
+                assertEquals("run=" + run + " app=" + app,
+                        fullScanTotal(appEvents), accumulator.getTotalForegroundTime(app));
+            }
+        }
+    }
+
+    @Test
+    public void invalidWatermark_afterMidnight_restartsFromZero() {
+        UsageEventAccumulator accumulator = new UsageEventAccumulator(1);
+        accumulator.reset(DAY_START);
+        accumulator.onResumed(0, DAY_START + 1_000);
+        accumulator.onPaused(0, DAY_START + 11_000);
+        accumulator.advanceWatermark(DAY_START + 20_000);
+        assertEquals(10_000, accumulator.getTotalForegroundTime(0));
+
+        long nextDay = DAY_START + 24L * 60 * 60 * 1000;
+        assertFalse(accumulator.isWatermarkValid(nextDay, nextDay + 5_000));
+        accumulator.reset(nextDay);
+        assertEquals(0, accumulator.getTotalForegroundTime(0));
+        assertEquals(nextDay, accumulator.getWatermark());
+    }
+
+    @Test
+    public void watermark_aheadOfClock_isInvalid() {
+        UsageEventAccumulator accumulator = new UsageEventAccumulator(1);
+        accumulator.reset(DAY_START);
+        accumulator.advanceWatermark(DAY_START + 60_000);
+        assertTrue(accumulator.isWatermarkValid(DAY_START, DAY_START + 60_000));
+        // clock moved backwards
+        assertFalse(accumulator.isWatermarkValid(DAY_START, DAY_START + 30_000));
+    }
+
+    // reference implementation: the original single-pass loop over the whole day
+    private static long fullScanTotal(long[][] events) {
+        long totalForegroundTime = 0;
+        long lastOpenedTime = -1;
+        for (long[] e : events) {
+            if (e[1] == RESUMED) {
+                lastOpenedTime = e[0];
+            } else if (e[1] == PAUSED && lastOpenedTime != -1) {
+                totalForegroundTime += e[0] - lastOpenedTime;
+                lastOpenedTime = -1;
+            }
+        }
+        return totalForegroundTime;
+    }
+
+    // replays the events through the accumulator as if queried on `ticks` evenly spaced ticks,
+    // each tick only seeing events in [watermark, tickEnd)
+    private static long incrementalTotal(long[][] events, int ticks) {
+        UsageEventAccumulator accumulator = new UsageEventAccumulator(1);
+        accumulator.reset(DAY_START);
+        long lastTs = events.length == 0 ? DAY_START : events[events.length - 1][0];
+        long span = lastTs - DAY_START + 1;
+
+        int next = 0;
+        for (int t = 1; t <= ticks; t++) {
+            long tickEnd = DAY_START + (span * t) / ticks + (t == ticks ? 1 : 0);
+            long from = accumulator.getWatermark();
+            while (next < events.length && events[next][0] < tickEnd) {
+                if (events[next][0] >= from) {
+                    if (events[next][1] == RESUMED) {
+                        accumulator.onResumed(0, events[next][0]);
+                    } else {
+                        accumulator.onPaused(0, events[next][0]);
+                    }
+                }
+                next++;
+            }
+            accumulator.advanceWatermark(tickEnd);
+        }
+        return accumulator.getTotalForegroundTime(0);
+    }
+
+    private static long[][] randomDay(Random random, int count) {
+        long[][] events = new long[count][];
+        long ts = DAY_START;
+        for (int i = 0; i < count; i++) {
+            ts += random.nextInt(120_000);
+            events[i] = new long[]{ts, random.nextInt(3) == 0 ? PAUSED : (random.nextBoolean() ? RESUMED : PAUSED)};
+        }
+        return events;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.usagemanagement;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Where a session's time lands: split across the buckets it touches, clipped to the day it is
+ * reported for at midnight, and on wall-clock buckets on the day clocks go forward.
+ */
+public class UsageHeatmapTest {
+
+    private static final long MINUTE_MS = 60 * 1000L;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final TimeZone BERLIN = TimeZone.getTimeZone("Europe/Berlin");
+    private static final String INSTAGRAM = WatchList.INSTAGRAM_PACKAGE_NAME;
+
+    private static long at(TimeZone zone, int year, int month, int day, int hour, int minute) {
+        return LocalDateTime.of(year, month, day, hour, minute).atZone(ZoneId.of(zone.getID()))
+                .toInstant().toEpochMilli();
+    }
+
+    private static UsageHeatmap heatmap(long[] dayBounds, int bucketMinutes, TimeZone zone) throws Exception {
+        return new UsageHeatmap(dayBounds, bucketMinutes, zone, new PackageDictionary(null), INSTAGRAM);
+    }
+
+    @Test
+    public void sessionOverABucketEdge_isSplitBetweenBoth() throws Exception {
+        long dayStart = at(UTC, 2024, 5, 1, 0, 0);
+        UsageHeatmap heatmap = heatmap(new long[] { dayStart, dayStart + 24 * 60 * MINUTE_MS }, 30, UTC);
+
+        // 10:10 to 10:40: 20 minutes in the 10:00 bucket, 10 in the 10:30 one
+        heatmap.onSession(0, INSTAGRAM, at(UTC, 2024, 5, 1, 10, 10), at(UTC, 2024, 5, 1, 10, 40));
+        heatmap.onSession(0, "com.example.other", at(UTC, 2024, 5, 1, 10, 25), at(UTC, 2024, 5, 1, 10, 35));
+
+        assertEquals(20 * MINUTE_MS, heatmap.getUsage(INSTAGRAM, 0, 20));
+        assertEquals(10 * MINUTE_MS, heatmap.getUsage(INSTAGRAM, 0, 21));
+        assertEquals(25 * MINUTE_MS, heatmap.getTotal(0, 20));
+        assertEquals(15 * MINUTE_MS, heatmap.getTotal(0, 21));
+        assertEquals(0, heatmap.getTotal(0, 22));
+        // only the tracked package has its own matrix
+        assertEquals(0, heatmap.getUsage("com.example.other", 0, 20));
+        assertTrue(heatmap.hasUsage(INSTAGRAM));
+        assertFalse(heatmap.hasUsage("com.example.other"));
+    }
+
+    @Test
+    public void sessionOverMidnight_countsOnlyTowardsTheDayItIsReportedFor() throws Exception {
+        long[] dayBounds = {
+                at(UTC, 2024, 5, 1, 0, 0), at(UTC, 2024, 5, 2, 0, 0), at(UTC, 2024, 5, 3, 0, 0) };
+        UsageHeatmap heatmap = heatmap(dayBounds, 15, UTC);
+        long start = at(UTC, 2024, 5, 1, 23, 50);
+        long end = at(UTC, 2024, 5, 2, 0, 20);
+
+        heatmap.onSession(0, INSTAGRAM, start, end);
+        assertEquals(10 * MINUTE_MS, heatmap.getUsage(INSTAGRAM, 0, 95));
+        assertEquals(0, heatmap.getTotal(1, 0));
+
+        // reported for the next day as well, the rest lands after midnight
+        heatmap.onSession(1, INSTAGRAM, start, end);
+        assertEquals(10 * MINUTE_MS, heatmap.getUsage(INSTAGRAM, 0, 95));
+        assertEquals(15 * MINUTE_MS, heatmap.getUsage(INSTAGRAM, 1, 0));
+        assertEquals(5 * MINUTE_MS, heatmap.getUsage(INSTAGRAM, 1, 1));
+        assertEquals(0, heatmap.getTotal(1, 2));
+    }
+
+    @Test
+    public void clocksGoingForward_leaveTheSkippedHourEmpty() throws Exception {
+        DayClock clock = new DayClock(BERLIN);
+        long dayStart = at(BERLIN, 2024, 3, 31, 0, 0);
+        long[] dayBounds = { dayStart, clock.addDays(dayStart, 1) };
+        UsageHeatmap heatmap = heatmap(dayBounds, 60, BERLIN);
+
+        // 01:30 to 03:30 local is one real hour, as 02:00 doesn't exist that day
+        heatmap.onSession(0, INSTAGRAM, at(BERLIN, 2024, 3, 31, 1, 30), at(BERLIN, 2024, 3, 31, 3, 30));
+
+        assertEquals(30 * MINUTE_MS, heatmap.getUsage(INSTAGRAM, 0, 1));
+        assertEquals(0, heatmap.getUsage(INSTAGRAM, 0, 2));
+        assertEquals(30 * MINUTE_MS, heatmap.getUsage(INSTAGRAM, 0, 3));
+    }
+}
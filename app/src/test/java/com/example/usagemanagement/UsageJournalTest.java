@@ -0,0 +1,158 @@
+package com.example.usagemanagement;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Round trips through the journal files, and what survives a crash: events after the last
+ * ingestion mark, a torn record and a torn package name are all cut off on the next open.
+ * Also how foreground transitions replay as resume/pause, and where the history starts.
+ */
+public class UsageJournalTest {
+
+    private static final long DAY_MS = UsageJournal.DAY_MS;
+    private static final long T0 = 20_000 * DAY_MS;
+    private static final int RESUMED = EventSource.ACTIVITY_RESUMED;
+    private static final int PAUSED = EventSource.ACTIVITY_PAUSED;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UsageJournal open() throws IOException {
+        return open(new PackageDictionary(new File(folder.getRoot(), "packages.tbl")));
+    }
+
+    private UsageJournal open(PackageDictionary packages) throws IOException {
+        return new UsageJournal(new File(folder.getRoot(), "journal"), packages);
+    }
+
+    private static List<String> readAll(UsageJournal journal, UsageJournal.Stream stream, long begin, long end) {
+        List<String> events = new ArrayList<>();
+        journal.read(stream, begin, end,
+                (packageName, timestamp, type) -> events.add(packageName + "@" + (timestamp - T0) + ":" + type));
+        return events;
+    }
+
+    @Test
+    public void usageEvents_readBackInOrder_acrossDaysAndReopens() throws Exception {
+        UsageJournal journal = open();
+        journal.appendUsage("a", T0 + 10, RESUMED);
+        journal.appendUsage("a", T0 + 20, PAUSED);
+        journal.appendUsage("b", T0 + DAY_MS + 5, RESUMED);
+        journal.markIngested(T0 + DAY_MS + 10);
+
+        UsageJournal reopened = open();
+        assertEquals(T0 + DAY_MS + 10, reopened.getIngestedUntil());
+        assertEquals(asList("a@10:1", "a@20:2", "b@" + (DAY_MS + 5) + ":1"),
+                readAll(reopened, UsageJournal.Stream.USAGE, T0, T0 + 2 * DAY_MS));
+        // range reads start from the first record at or after begin
+        assertEquals(asList("a@20:2"), readAll(reopened, UsageJournal.Stream.USAGE, T0 + 11, T0 + 21));
+    }
+
+    @Test
+    public void historyStart_isTheFirstBatchsLeadingMark() throws Exception {
+        UsageJournal journal = open();
+        journal.markHistoryStart(T0 + 5 * 60 * 60 * 1000L);
+        journal.appendUsage("a", T0 + 6 * 60 * 60 * 1000L, RESUMED);
+        journal.markIngested(T0 + DAY_MS);
+
+        UsageJournal reopened = open();
+        assertEquals(T0 + 5 * 60 * 60 * 1000L, reopened.getHistoryStart());
+        assertEquals(T0 + DAY_MS, reopened.getIngestedUntil());
+        assertEquals(asList("a@" + 6 * 60 * 60 * 1000L + ":1"), readAll(reopened, UsageJournal.Stream.USAGE, T0, T0 + DAY_MS));
+    }
+
+    @Test
+    public void historyStart_withoutALeadingMark_isTheOldestSegmentsMidnight() throws Exception {
+        UsageJournal journal = open();
+        assertEquals(UsageJournal.NO_MARK, journal.getHistoryStart());
+        journal.appendUsage("a", T0 + 10, RESUMED);
+        journal.markIngested(T0 + 20);
+
+        assertEquals(T0, journal.getHistoryStart());
+    }
+
+    @Test
+    public void eventsAfterTheLastMark_areRolledBackOnOpen() throws Exception {
+        UsageJournal journal = open();
+        journal.appendUsage("a", T0 + 10, RESUMED);
+        journal.markIngested(T0 + 15);
+        journal.appendUsage("a", T0 + 20, PAUSED);
+        journal.flush();
+
+        UsageJournal reopened = open();
+        assertEquals(T0 + 15, reopened.getIngestedUntil());
+        assertEquals(asList("a@10:1"), readAll(reopened, UsageJournal.Stream.USAGE, T0, T0 + DAY_MS));
+    }
+
+    @Test
+    public void tornRecord_isCutOffOnOpen() throws Exception {
+        UsageJournal journal = open();
+        journal.appendUsage("a", T0 + 10, RESUMED);
+        journal.appendUsage("a", T0 + 20, PAUSED);
+        journal.markIngested(T0 + 30);
+
+        File segment = journal.segmentFile(UsageJournal.Stream.USAGE, T0 / DAY_MS);
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // half a record: a crash in the middle of the next flush
+            file.seek(file.length());
+            file.write(new byte[UsageJournal.RECORD_BYTES / 2]);
+        }
+
+        UsageJournal reopened = open();
+        assertEquals(3L * UsageJournal.RECORD_BYTES, segment.length());
+        assertEquals(T0 + 30, reopened.getIngestedUntil());
+        assertEquals(asList("a@10:1", "a@20:2"), readAll(reopened, UsageJournal.Stream.USAGE, T0, T0 + DAY_MS));
+    }
+
+    @Test
+    public void tornPackageName_isCutOffOnOpen() throws Exception {
+        File table = new File(folder.getRoot(), "packages.tbl");
+        PackageDictionary packages = new PackageDictionary(table);
+        assertEquals(0, packages.idOf("com.instagram.android"));
+        long good = table.length();
+        try (RandomAccessFile file = new RandomAccessFile(table, "rw")) {
+            // a length prefix promising more bytes than follow it
+            file.seek(good);
+            file.writeShort(20);
+            file.write("com.exa".getBytes("UTF-8"));
+        }
+
+        PackageDictionary reopened = new PackageDictionary(table);
+        assertEquals(good, table.length());
+        assertEquals(1, reopened.size());
+        assertEquals("com.instagram.android", reopened.nameOf(0));
+        assertEquals(1, reopened.idOf("com.example"));
+    }
+
+    @Test
+    public void foregroundStream_replaysAsResumeAndPause() throws Exception {
+        PackageDictionary packages = new PackageDictionary(new File(folder.getRoot(), "packages.tbl"));
+        UsageJournal journal = open(packages);
+        int instagram = packages.idOf("com.instagram.android");
+        journal.appendForeground(instagram, T0 - 100);          // before the range: still open at begin
+        journal.appendForeground(UsageJournal.OTHER_PACKAGE, T0 + 10);
+        journal.appendForeground(instagram, T0 + 20);
+        journal.appendForeground(instagram, T0 + 25);           // same app again: no new session
+        journal.appendForeground(UsageJournal.OTHER_PACKAGE, T0 + 30);
+
+        List<String> events = new ArrayList<>();
+        journal.readForegroundAsUsage(T0, T0 + DAY_MS,
+                (packageName, timestamp, type) -> events.add(packageName + "@" + (timestamp - T0) + ":" + type));
+
+        assertEquals(asList(
+                "com.instagram.android@10:2",
+                "com.instagram.android@20:1",
+                "com.instagram.android@30:2"), events);
+    }
+}
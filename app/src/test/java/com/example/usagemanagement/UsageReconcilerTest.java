@@ -0,0 +1,103 @@
+package com.example.usagemanagement;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * How the live estimate moves as UsageStats confirms accessibility sessions: a confirmation
+ * that lands after the grace period mustn't make the estimate go backwards, a session
+ * reported twice mustn't be counted twice, and the drift percentile over settled sessions.
+ */
+public class UsageReconcilerTest {
+
+    private static final int APP = 0;
+    private static final long T0 = 1_700_000_000_000L;
+
+    // what the tracker shows: UsageStats total plus what the reconciler still holds
+    private static long estimate(UsageReconciler reconciler, long usageStats, long now) {
+        return usageStats + reconciler.unconfirmed(APP, now);
+    }
+
+    @Test
+    public void timelyConfirmation_replacesTheAccessibilityTime() {
+        UsageReconciler reconciler = new UsageReconciler();
+        reconciler.onSessionStart(APP, T0);
+        reconciler.onSessionEnd(APP, T0 + 60_000);
+        assertEquals(60_000, estimate(reconciler, 0, T0 + 61_000));
+
+        // UsageStats saw a little less than accessibility did; the difference is drift
+        reconciler.onAuthoritativeSession(APP, T0 + 500, T0 + 59_500, T0 + 62_000);
+        assertEquals(60_000, estimate(reconciler, 59_000, T0 + 62_000));
+        long settled = T0 + 60_000 + UsageReconciler.SETTLE_GRACE_MS + 1;
+        reconciler.settleExpired(settled);
+        assertEquals(59_000, estimate(reconciler, 59_000, settled));
+        assertEquals(1_000, reconciler.getMeanDriftMs());
+    }
+
+    @Test
+    public void lateConfirmation_keepsTheEstimateFromGoingBackwards() {
+        UsageReconciler reconciler = new UsageReconciler();
+        reconciler.onSessionStart(APP, T0);
+        reconciler.onSessionEnd(APP, T0 + 60_000);
+
+        // UsageStats is quiet past the grace period: the segment is settled but not lost
+        long late = T0 + 60_000 + UsageReconciler.SETTLE_GRACE_MS + 1;
+        reconciler.settleExpired(late);
+        assertEquals(60_000, estimate(reconciler, 0, late));
+
+        // the session finally arrives and takes the carried time's place
+        reconciler.onAuthoritativeSession(APP, T0, T0 + 60_000, late + 5_000);
+        assertEquals(60_000, estimate(reconciler, 60_000, late + 5_000));
+        assertEquals(0, reconciler.unconfirmed(APP, late + 5_000));
+    }
+
+    @Test
+    public void lateConfirmation_ofLessThanWasCarried_leavesTheRest() {
+        UsageReconciler reconciler = new UsageReconciler();
+        reconciler.onSessionStart(APP, T0);
+        reconciler.onSessionEnd(APP, T0 + 60_000);
+        reconciler.settleExpired(T0 + 60_000 + UsageReconciler.SETTLE_GRACE_MS + 1);
+
+        reconciler.onAuthoritativeSession(APP, T0, T0 + 20_000, T0 + 90_000);
+        assertEquals(40_000, reconciler.unconfirmed(APP, T0 + 90_000));
+        // a new day starts the carry over
+        reconciler.clear();
+        assertEquals(0, reconciler.unconfirmed(APP, T0 + 90_000));
+    }
+
+    @Test
+    public void duplicateConfirmation_isNotCountedTwice() {
+        UsageReconciler reconciler = new UsageReconciler();
+        reconciler.onSessionStart(APP, T0);
+        reconciler.onSessionEnd(APP, T0 + 30_000);
+
+        reconciler.onAuthoritativeSession(APP, T0, T0 + 30_000, T0 + 31_000);
+        reconciler.onAuthoritativeSession(APP, T0, T0 + 30_000, T0 + 31_000);
+        assertEquals(0, reconciler.unconfirmed(APP, T0 + 31_000));
+
+        // nor does it eat into time carried for a later segment
+        reconciler.onSessionStart(APP, T0 + 40_000);
+        reconciler.onSessionEnd(APP, T0 + 50_000);
+        reconciler.settleExpired(T0 + 50_000 + UsageReconciler.SETTLE_GRACE_MS + 1);
+        assertEquals(10_000, reconciler.unconfirmed(APP, T0 + 70_000));
+    }
+
+    @Test
+    public void p95Drift_isOverTheSettledSessions() {
+        UsageReconciler reconciler = new UsageReconciler();
+        long t = T0;
+        // 20 one-minute sessions, UsageStats short by 0, 100, ..., 1900 ms
+        for (int i = 0; i < 20; i++) {
+            reconciler.onSessionStart(APP, t);
+            reconciler.onSessionEnd(APP, t + 60_000);
+            reconciler.onAuthoritativeSession(APP, t, t + 60_000 - i * 100L, t + 60_000);
+            t += 120_000;
+        }
+        reconciler.settleExpired(t + UsageReconciler.SETTLE_GRACE_MS);
+
+        assertEquals(20, reconciler.getSettledSessions());
+        assertEquals(1_800, reconciler.getP95DriftMs());
+        assertEquals(950, reconciler.getMeanDriftMs());
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.usagemanagement;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that each subscriber only hears about changes at its own granularity, and that a
+ * subscriber that hasn't run yet gets the newest value once instead of a backlog.
+ */
+public class UsageUpdateBusTest {
+
+    // holds deliveries until the test runs them, like a handler on a busy thread
+    private static final class QueueExecutor implements Executor {
+        final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            queue.add(task);
+        }
+
+        void runAll() {
+            while (!queue.isEmpty()) {
+                queue.poll().run();
+            }
+        }
+    }
+
+    @Test
+    public void secondSubscriber_getsOneCallbackPerSecond() {
+        UsageUpdateBus bus = new UsageUpdateBus();
+        List<Long> seen = new ArrayList<>();
+        bus.subscribe(UsageUpdateBus.Granularity.SECOND, Runnable::run, seen::add);
+
+        bus.publish(1_000, true);
+        bus.publish(1_400, true);
+        bus.publish(1_999, true);
+        bus.publish(2_000, true);
+        bus.publish(2_500, true);
+
+        assertEquals(asList(1_000L, 2_000L), seen);
+    }
+
+    @Test
+    public void slowSubscriber_getsOnlyTheNewestValue() {
+        UsageUpdateBus bus = new UsageUpdateBus();
+        QueueExecutor executor = new QueueExecutor();
+        List<Long> seen = new ArrayList<>();
+        bus.subscribe(UsageUpdateBus.Granularity.SECOND, executor, seen::add);
+
+        for (long usage = 0; usage < 10_000; usage += 250) {
+            bus.publish(usage, true);
+        }
+        assertEquals(1, executor.queue.size());
+        executor.runAll();
+        // the value that opened the newest second
+        assertEquals(asList(9_000L), seen);
+
+        // same second as the delivered value: nothing to tell
+        bus.publish(9_900, true);
+        assertTrue(executor.queue.isEmpty());
+    }
+
+    @Test
+    public void thresholdSubscriber_wakesOnlyForThresholdsAndSessionChanges() {
+        UsageUpdateBus bus = new UsageUpdateBus();
+        bus.setThresholds(60_000, 15_000);
+        List<Long> seen = new ArrayList<>();
+        bus.subscribe(UsageUpdateBus.Granularity.THRESHOLD_ONLY, Runnable::run, seen::add);
+
+        bus.publish(10_000, true);  // first value
+        bus.publish(59_999, true);
+        bus.publish(60_000, true);  // first threshold
+        bus.publish(70_000, true);
+        bus.publish(70_000, false); // session ended
+        bus.publish(74_999, false);
+        bus.publish(75_000, false); // repeat threshold
+
+        assertEquals(asList(10_000L, 60_000L, 70_000L, 75_000L), seen);
+    }
+
+    @Test
+    public void newSubscriber_getsTheLatestValueRightAway() {
+        UsageUpdateBus bus = new UsageUpdateBus();
+        bus.publish(42_000, false);
+
+        List<Long> seen = new ArrayList<>();
+        bus.subscribe(UsageUpdateBus.Granularity.MINUTE, Runnable::run, seen::add);
+        bus.publish(43_000, false);
+
+        assertEquals(asList(42_000L), seen);
+    }
+
+    @Test
+    public void unsubscribed_getsNothingPending() {
+        UsageUpdateBus bus = new UsageUpdateBus();
+        QueueExecutor executor = new QueueExecutor();
+        List<Long> seen = new ArrayList<>();
+        UsageUpdateBus.Subscription subscription =
+                bus.subscribe(UsageUpdateBus.Granularity.SECOND, executor, seen::add);
+
+        bus.publish(5_000, true);
+        bus.unsubscribe(subscription);
+        executor.runAll();
+
+        assertTrue(seen.isEmpty());
+    }
+}